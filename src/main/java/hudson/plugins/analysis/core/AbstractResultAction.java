@@ -1,6 +1,5 @@
 package hudson.plugins.analysis.core;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -10,7 +9,6 @@ import java.util.logging.Logger;
 import org.kohsuke.stapler.StaplerProxy;
 
 import edu.umd.cs.findbugs.annotations.SuppressWarnings;
-import hudson.FilePath;
 import hudson.maven.MavenBuild;
 import hudson.maven.MavenModule;
 
@@ -20,8 +18,8 @@ import hudson.model.Result;
 import hudson.model.AbstractBuild;
 
 import hudson.plugins.analysis.util.PluginLogger;
+import hudson.plugins.analysis.util.SourceFileStore;
 import hudson.plugins.analysis.util.ToolTipProvider;
-import hudson.plugins.analysis.util.model.AbstractAnnotation;
 
 /**
  * Controls the live cycle of the results in a job. This action persists the results
@@ -246,15 +244,11 @@ public abstract class AbstractResultAction<T extends BuildResult> implements Sta
             aggregatedResult.addAnnotations(action.getResult().getAnnotations());
             aggregatedResult.addModules(action.getResult().getModules());
             aggregatedResult.addErrors(action.getResult().getErrors());
-            FilePath filePath = new FilePath(new File(mavenBuild.getRootDir(), AbstractAnnotation.WORKSPACE_FILES));
             try {
-                filePath.copyRecursiveTo("*.tmp", new FilePath(new File(getOwner().getRootDir(), AbstractAnnotation.WORKSPACE_FILES)));
+                SourceFileStore.getStore(getOwner()).addModule(getOwner().getRootDir(), mavenBuild.getRootDir());
             }
             catch (IOException exception) {
-                Logger.getLogger(getClass().getName()).log(Level.SEVERE, "Can't copy workspace files: ", exception);
-            }
-            catch (InterruptedException exception) {
-                // ignore, user canceled the operation
+                Logger.getLogger(getClass().getName()).log(Level.SEVERE, "Can't reference workspace files: ", exception);
             }
         }
     }
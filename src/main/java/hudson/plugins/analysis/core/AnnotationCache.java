@@ -0,0 +1,261 @@
+package hudson.plugins.analysis.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import hudson.plugins.analysis.util.model.FileAnnotation;
+import hudson.plugins.analysis.util.model.JavaProject;
+
+/**
+ * Caches the annotations that have been loaded by the build results of all
+ * jobs. The cache is bounded by the estimated heap size of the cached
+ * annotations: if the budget is exceeded, the least recently used entries are
+ * evicted. Evicted entries and entries that exceed the whole budget are still
+ * kept through soft references, so the garbage collector removes them only if
+ * the memory is needed. An evicted entry that is accessed again is moved back
+ * into the least recently used entries. The budget defaults to a quarter of the maximum heap
+ * size and can be changed (in bytes) with the system property
+ * <code>hudson.plugins.analysis.core.AnnotationCache.maximumSize</code>.
+ *
+ * @author Ulli Hafner
+ */
+public final class AnnotationCache {
+    /** Default budget of the cache if the maximum heap size is unknown: 128 MB. */
+    private static final long DEFAULT_MAXIMUM_SIZE = 128L * 1024 * 1024;
+    /** Part of the maximum heap size that is used by default as budget. */
+    private static final int HEAP_FRACTION = 4;
+    /**
+     * Estimated heap size of an annotation, including the drill-down mappings
+     * of the containers.
+     */
+    static final int BYTES_PER_ANNOTATION = 1024;
+    /** Estimated heap size of an empty entry. */
+    static final int BYTES_PER_ENTRY = 256;
+
+    private static final AnnotationCache INSTANCE = new AnnotationCache(
+            Long.getLong(AnnotationCache.class.getName() + ".maximumSize", getDefaultMaximumSize()));
+
+    /**
+     * Returns the shared cache instance.
+     *
+     * @return the shared cache
+     */
+    public static AnnotationCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the default budget of the cache, i.e. a quarter of the maximum
+     * heap size.
+     *
+     * @return the default budget in bytes
+     */
+    static long getDefaultMaximumSize() {
+        long maximumHeapSize = Runtime.getRuntime().maxMemory();
+        if (maximumHeapSize == Long.MAX_VALUE) {
+            return DEFAULT_MAXIMUM_SIZE;
+        }
+        return maximumHeapSize / HEAP_FRACTION;
+    }
+
+    /** The cached entries in access order. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true); // NOCHECKSTYLE
+    /** The evicted entries and the entries that exceed the budget, held softly. */
+    private final Map<String, SoftEntry> softEntries = new HashMap<String, SoftEntry>();
+    /** The soft entries that have been cleared by the garbage collector. */
+    private final ReferenceQueue<Object> clearedEntries = new ReferenceQueue<Object>();
+    /** Maximum estimated size of all entries in bytes. */
+    private final long maximumSize;
+    /** Current estimated size of all entries in bytes. */
+    private long size;
+
+    /**
+     * Creates a new instance of {@link AnnotationCache}.
+     *
+     * @param maximumSize
+     *            the maximum estimated size of all entries in bytes
+     */
+    AnnotationCache(final long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Returns the cached project with the specified key.
+     *
+     * @param key
+     *            the key of the project
+     * @return the project or <code>null</code> if the project is not cached
+     */
+    public JavaProject getProject(final String key) {
+        return (JavaProject)get(key);
+    }
+
+    /**
+     * Caches the specified project.
+     *
+     * @param key
+     *            the key of the project
+     * @param project
+     *            the project to cache
+     */
+    public void putProject(final String key, final JavaProject project) {
+        put(key, project, project.getNumberOfAnnotations());
+    }
+
+    /**
+     * Returns the cached annotations with the specified key.
+     *
+     * @param key
+     *            the key of the annotations
+     * @return the annotations or <code>null</code> if the annotations are not
+     *         cached
+     */
+    @SuppressWarnings("unchecked")
+    public Collection<FileAnnotation> getAnnotations(final String key) {
+        return (Collection<FileAnnotation>)get(key);
+    }
+
+    /**
+     * Caches the specified annotations.
+     *
+     * @param key
+     *            the key of the annotations
+     * @param annotations
+     *            the annotations to cache
+     */
+    public void putAnnotations(final String key, final Collection<FileAnnotation> annotations) {
+        put(key, annotations, annotations.size());
+    }
+
+    /**
+     * Returns the current estimated size of all entries in bytes.
+     *
+     * @return the estimated size
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the maximum estimated size of all entries in bytes.
+     *
+     * @return the maximum size
+     */
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Removes all entries of this cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        softEntries.clear();
+        size = 0;
+    }
+
+    private synchronized Object get(final String key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            return entry.value;
+        }
+        removeClearedEntries();
+        SoftEntry softEntry = softEntries.get(key);
+        if (softEntry == null) {
+            return null;
+        }
+        Object value = softEntry.get();
+        if (value != null && softEntry.size <= maximumSize) {
+            put(key, value, softEntry.size);
+        }
+        return value;
+    }
+
+    private void put(final String key, final Object value, final int numberOfAnnotations) {
+        put(key, value, BYTES_PER_ENTRY + (long)BYTES_PER_ANNOTATION * numberOfAnnotations);
+    }
+
+    /**
+     * Puts the specified value into the least recently used entries. If the
+     * value exceeds the budget, then it is held softly only.
+     *
+     * @param key
+     *            the key of the value
+     * @param value
+     *            the value
+     * @param entrySize
+     *            the estimated size of the value in bytes
+     */
+    private synchronized void put(final String key, final Object value, final long entrySize) {
+        removeClearedEntries();
+        softEntries.remove(key);
+        Entry old = entries.remove(key);
+        if (old != null) {
+            size -= old.size;
+        }
+        if (entrySize > maximumSize) {
+            putSoftly(key, value, entrySize);
+            return;
+        }
+        entries.put(key, new Entry(value, entrySize));
+        size += entrySize;
+
+        Iterator<Map.Entry<String, Entry>> leastRecentlyUsed = entries.entrySet().iterator();
+        while (size > maximumSize && leastRecentlyUsed.hasNext()) {
+            Map.Entry<String, Entry> eldest = leastRecentlyUsed.next();
+            size -= eldest.getValue().size;
+            leastRecentlyUsed.remove();
+            putSoftly(eldest.getKey(), eldest.getValue().value, eldest.getValue().size);
+        }
+    }
+
+    private void putSoftly(final String key, final Object value, final long entrySize) {
+        softEntries.put(key, new SoftEntry(key, value, entrySize, clearedEntries));
+    }
+
+    /**
+     * Removes the soft entries whose values have been removed by the garbage
+     * collector.
+     */
+    private void removeClearedEntries() {
+        SoftEntry cleared;
+        while ((cleared = (SoftEntry)clearedEntries.poll()) != null) {
+            if (softEntries.get(cleared.key) == cleared) {
+                softEntries.remove(cleared.key);
+            }
+        }
+    }
+
+    /**
+     * A cached value with its estimated size.
+     */
+    private static final class Entry {
+        private final Object value;
+        private final long size;
+
+        Entry(final Object value, final long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A cached value that is held softly, with its estimated size.
+     */
+    private static final class SoftEntry extends SoftReference<Object> {
+        private final String key;
+        private final long size;
+
+        SoftEntry(final String key, final Object value, final long size, final ReferenceQueue<Object> queue) {
+            super(value, queue);
+
+            this.key = key;
+            this.size = size;
+        }
+    }
+}
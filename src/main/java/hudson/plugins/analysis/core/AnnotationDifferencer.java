@@ -3,9 +3,10 @@ package hudson.plugins.analysis.core;
 import java.util.HashSet;
 import java.util.Set;
 
-import com.google.common.collect.Sets;
-
+import hudson.plugins.analysis.util.LongHashSet;
+import hudson.plugins.analysis.util.model.AbstractAnnotation;
 import hudson.plugins.analysis.util.model.FileAnnotation;
+import hudson.plugins.analysis.util.model.LineRange;
 
 /**
  * Provides several utility methods based on sets of annotations.
@@ -13,6 +14,9 @@ import hudson.plugins.analysis.util.model.FileAnnotation;
  * @author Ulli Hafner
  */
 public final class AnnotationDifferencer {
+    /** Prime of the 64 bit FNV hash that is used to combine the properties of a fingerprint. */
+    private static final long FINGERPRINT_PRIME = 0x100000001B3L;
+
     /**
      * Returns the new annotations, i.e., the annotations that are in the actual build
      * but not in the previous.
@@ -24,76 +28,115 @@ public final class AnnotationDifferencer {
      * @return the new annotations
      */
     public static Set<FileAnnotation> getNewAnnotations(final Set<FileAnnotation> actual, final Set<FileAnnotation> previous) {
-        return removeDuplicates(difference(actual, previous), previous);
+        return difference(actual, previous);
     }
 
     /**
-     * Computes the elements of the first set without the elements in the second
-     * set.
+     * Returns the fixed annotations, i.e., the annotations that are in the previous build
+     * but not in the actual.
      *
-     * @param target
-     *            the first set
-     * @param other
-     *            the second set
-     * @return the difference of the sets
+     * @param actual
+     *            annotations in actual build
+     * @param previous
+     *            annotations in previous build
+     * @return the fixed annotations
      */
-    private static Set<FileAnnotation> difference(
-            final Set<FileAnnotation> target, final Set<FileAnnotation> other) {
-        Set<FileAnnotation> difference = Sets.newHashSet(target);
-        difference.removeAll(other);
-        return difference;
+    public static Set<FileAnnotation> getFixedAnnotations(final Set<FileAnnotation> actual, final Set<FileAnnotation> previous) {
+        return difference(previous, actual);
     }
 
     /**
-     * Removes the annotations from the {@code targetSet} that have the same
-     * hash code as one annotation in the {@code otherSet}.
+     * Computes the elements of the target set that are neither part of the
+     * other set nor have the same context hash code as one of the elements of
+     * the other set.
+     * <p>
+     * The context hash codes and the fingerprints of the other set are stored
+     * in primitive hash sets. Then the target set is scanned once: an
+     * annotation with a known context hash code is skipped immediately. The
+     * (expensive) equality check is required only if the fingerprint of an
+     * annotation is part of the other set.
+     * </p>
      *
-     * @param targetSet
+     * @param target
      *            the target set
-     * @param previous
-     *            the other set that is checked for duplicates
-     * @return the unique annotations
+     * @param other
+     *            the other set
+     * @return the unique annotations of the target set
      */
-    private static Set<FileAnnotation> removeDuplicates(final Set<FileAnnotation> targetSet, final Set<FileAnnotation> previous) {
-        Set<Long> otherHashCodes = extractHashCodes(previous);
-        Set<FileAnnotation> duplicates = Sets.newHashSet();
-        for (FileAnnotation annotation : targetSet) {
+    private static Set<FileAnnotation> difference(final Set<FileAnnotation> target, final Set<FileAnnotation> other) {
+        LongHashSet otherHashCodes = new LongHashSet(other.size());
+        LongHashSet otherFingerprints = new LongHashSet(other.size());
+        for (FileAnnotation annotation : other) {
+            otherHashCodes.add(annotation.getContextHashCode());
+            otherFingerprints.add(getFingerprint(annotation));
+        }
+
+        Set<FileAnnotation> difference = new HashSet<FileAnnotation>();
+        for (FileAnnotation annotation : target) {
             if (otherHashCodes.contains(annotation.getContextHashCode())) {
-                duplicates.add(annotation);
+                continue;
+            }
+            if (mightBeEqual(annotation, otherFingerprints) && other.contains(annotation)) {
+                continue;
             }
+            difference.add(annotation);
         }
-
-        targetSet.removeAll(duplicates);
-        return targetSet;
+        return difference;
     }
 
     /**
-     * Extracts the hash codes of the specified collection of annotations.
+     * Returns whether the specified annotation might be equal to one of the
+     * annotations with the specified fingerprints. Fingerprints are consistent
+     * with {@link AbstractAnnotation#equals(Object)} only, other annotations
+     * always might be equal.
      *
-     * @param previous
-     *            the annotations to get the hash codes from
-     * @return the hash codes of the specified collection of annotations
+     * @param annotation
+     *            the annotation to check
+     * @param fingerprints
+     *            the fingerprints of the other annotations
+     * @return <code>true</code> if the annotation might be equal to one of
+     *         the other annotations, <code>false</code> if the annotation is
+     *         definitely not equal to one of the other annotations
      */
-    private static Set<Long> extractHashCodes(final Set<FileAnnotation> previous) {
-        HashSet<Long> hashCodes = new HashSet<Long>();
-        for (FileAnnotation annotation : previous) {
-            hashCodes.add(annotation.getContextHashCode());
-        }
-        return hashCodes;
+    private static boolean mightBeEqual(final FileAnnotation annotation, final LongHashSet fingerprints) {
+        return !(annotation instanceof AbstractAnnotation) || fingerprints.contains(getFingerprint(annotation));
     }
 
     /**
-     * Returns the fixed annotations, i.e., the annotations that are in the previous build
-     * but not in the actual.
+     * Computes a 64 bit fingerprint of the specified annotation. The
+     * fingerprint is based on all properties that are compared in
+     * {@link AbstractAnnotation#equals(Object)}, i.e. equal annotations have
+     * the same fingerprint.
      *
-     * @param actual
-     *            annotations in actual build
-     * @param previous
-     *            annotations in previous build
-     * @return the fixed annotations
+     * @param annotation
+     *            the annotation
+     * @return the fingerprint
      */
-    public static Set<FileAnnotation> getFixedAnnotations(final Set<FileAnnotation> actual, final Set<FileAnnotation> previous) {
-        return removeDuplicates(difference(previous, actual), actual);
+    static long getFingerprint(final FileAnnotation annotation) {
+        long fingerprint = annotation.getClass().getName().hashCode();
+        fingerprint = combine(fingerprint, hashCode(annotation.getCategory()));
+        fingerprint = combine(fingerprint, hashCode(annotation.getFileName()));
+        for (LineRange range : annotation.getLineRanges()) {
+            fingerprint = combine(fingerprint, range.getStart());
+            fingerprint = combine(fingerprint, range.getEnd());
+        }
+        fingerprint = combine(fingerprint, hashCode(annotation.getMessage()));
+        fingerprint = combine(fingerprint, hashCode(annotation.getModuleName()));
+        fingerprint = combine(fingerprint, hashCode(annotation.getPackageName()));
+        fingerprint = combine(fingerprint, annotation.getPrimaryLineNumber());
+        fingerprint = combine(fingerprint, hashCode(annotation.getPriority()));
+        return combine(fingerprint, hashCode(annotation.getType()));
+    }
+
+    private static long combine(final long fingerprint, final int value) {
+        return (fingerprint ^ value) * FINGERPRINT_PRIME;
+    }
+
+    private static int hashCode(final Object value) {
+        if (value == null) {
+            return 0;
+        }
+        return value.hashCode();
     }
 
     /**
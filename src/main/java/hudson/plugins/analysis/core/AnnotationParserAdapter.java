@@ -0,0 +1,40 @@
+package hudson.plugins.analysis.core;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collection;
+
+import hudson.plugins.analysis.util.model.FileAnnotation;
+
+/**
+ * Adapts an {@link AnnotationParser} to the {@link StreamingAnnotationParser}
+ * interface. The annotations of a file are parsed by the wrapped parser and
+ * then added to the sink.
+ *
+ * @author Ulli Hafner
+ */
+public class AnnotationParserAdapter implements StreamingAnnotationParser {
+    private static final long serialVersionUID = -2946314532155785391L;
+
+    /** The wrapped parser. */
+    private final AnnotationParser parser;
+
+    /**
+     * Creates a new instance of {@link AnnotationParserAdapter}.
+     *
+     * @param parser
+     *            the parser to wrap
+     */
+    public AnnotationParserAdapter(final AnnotationParser parser) {
+        this.parser = parser;
+    }
+
+    /** {@inheritDoc} */
+    public int parse(final File file, final String moduleName, final AnnotationSink sink) throws InvocationTargetException {
+        Collection<FileAnnotation> annotations = parser.parse(file, moduleName);
+        for (FileAnnotation annotation : annotations) {
+            sink.addAnnotation(annotation);
+        }
+        return annotations.size();
+    }
+}
@@ -0,0 +1,20 @@
+package hudson.plugins.analysis.core;
+
+import hudson.plugins.analysis.util.model.FileAnnotation;
+
+/**
+ * Receives the annotations of a {@link StreamingAnnotationParser} as soon as
+ * they are read. The sink decides what to keep, so the memory required to parse
+ * a report does not depend on the size of the report.
+ *
+ * @author Ulli Hafner
+ */
+public interface AnnotationSink {
+    /**
+     * Adds the specified annotation to this sink.
+     *
+     * @param annotation
+     *            the annotation to add
+     */
+    void addAnnotation(final FileAnnotation annotation);
+}
@@ -1,28 +1,95 @@
 package hudson.plugins.analysis.core;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
 import hudson.FilePath.FileCallable;
 
+import hudson.plugins.analysis.util.CacheDirectory;
 import hudson.plugins.analysis.util.ContextHashCode;
+import hudson.plugins.analysis.util.ContextHashCodeCache;
+import hudson.plugins.analysis.util.PackageDetectors;
+import hudson.plugins.analysis.util.SourceExcerpt;
+import hudson.plugins.analysis.util.model.AbstractAnnotation;
 import hudson.plugins.analysis.util.model.FileAnnotation;
+import hudson.plugins.analysis.util.model.LineRange;
 
 import hudson.remoting.VirtualChannel;
 
 /**
  * Reads the content of each file with warnings and creates a unique hash code
  * of the warning to enable a more flexible new and fixed warnings detection.
+ * <p>
+ * Each file is read at most once. The content is also used to detect the
+ * package of the warnings without package name, and it is captured in the
+ * returned result, so that the file does not need to be copied from the
+ * workspace to the build folder again. Files whose hash codes are cached in
+ * the {@link ContextHashCodeCache} of the workspace did not change since a
+ * previous build: these files are not captured and only read to create an
+ * excerpt. The total size of the captured files is limited,
+ * the limit (in bytes) can be changed with the system property
+ * <code>hudson.plugins.analysis.core.AnnotationsClassifier.captureLimit</code>.
+ * The limit is assigned to the files in file order, so the same files are
+ * captured regardless of the number of threads.
+ * </p>
+ * <p>
+ * If the system property
+ * <code>hudson.plugins.analysis.core.AnnotationsClassifier.excerptContext</code>
+ * is set, then only a {@link SourceExcerpt} with the given number of lines
+ * before and after the line ranges of the warnings is captured. This mode
+ * bounds the size of huge generated files in the build folder; these files
+ * are captured even if they are too large to be captured completely. The
+ * excerpts do not count against the capture limit. Excerpts require an
+ * encoding that is compatible with ASCII, for other encodings (e.g. UTF-16)
+ * the whole files are captured.
+ * </p>
  *
  * @author Ulli Hafner
  */
 public class AnnotationsClassifier implements FileCallable<ParserResult> {
     /** Generated ID. */
     private static final long serialVersionUID = 5152042155205600031L;
+    /** Prefix of the files that cache the context hash codes in the workspace cache directory. */
+    private static final String CACHE_FILE_PREFIX = "context-hash-codes-";
+    /** Suffix of the files that cache the context hash codes in the workspace cache directory. */
+    private static final String CACHE_FILE_SUFFIX = ".cache";
+    /** Default total size of the captured files. */
+    private static final long DEFAULT_CAPTURE_LIMIT = 64 * 1024 * 1024;
+    /** Files that are larger are read line by line and are not captured. */
+    private static final long MAXIMUM_FILE_SIZE = 16 * 1024 * 1024;
     /** All annotations. */
     private final ParserResult result;
     /** The default encoding to be used when reading and parsing files. */
     private final String defaultEncoding;
+    /**
+     * The number of threads that compute the context hash codes, 0 uses one
+     * thread per available processor of the agent.
+     */
+    private final int numberOfThreads;
+    /** The total size of the files that may be captured in the result. */
+    private final long captureLimit = Long.getLong(AnnotationsClassifier.class.getName() + ".captureLimit", DEFAULT_CAPTURE_LIMIT);
+    /** The number of lines around the line ranges of the warnings to capture, -1 captures the whole files. */
+    private final int excerptContext = Integer.getInteger(AnnotationsClassifier.class.getName() + ".excerptContext", -1);
 
     /**
      * Creates a new instance of {@link AnnotationsClassifier}.
@@ -33,22 +100,395 @@ public class AnnotationsClassifier implements FileCallable<ParserResult> {
      *            the default encoding to be used when reading and parsing files
      */
     public AnnotationsClassifier(final ParserResult result, final String defaultEncoding) {
+        this(result, defaultEncoding, 0);
+    }
+
+    /**
+     * Creates a new instance of {@link AnnotationsClassifier}.
+     *
+     * @param result
+     *            the annotations to assign a module for
+     * @param defaultEncoding
+     *            the default encoding to be used when reading and parsing files
+     * @param numberOfThreads
+     *            the number of threads that read the files in parallel: 1
+     *            reads all files in the calling thread, 0 uses one thread
+     *            per available processor of the agent
+     */
+    public AnnotationsClassifier(final ParserResult result, final String defaultEncoding, final int numberOfThreads) {
         this.result = result;
         this.defaultEncoding = defaultEncoding;
+        this.numberOfThreads = numberOfThreads;
     }
 
     /** {@inheritDoc} */
     public ParserResult invoke(final File workspace, final VirtualChannel channel) throws IOException {
-        ContextHashCode contextHashCode = new ContextHashCode();
-        for (FileAnnotation annotation : result.getAnnotations()) {
-            try {
-                annotation.setContextHashCode(contextHashCode.create(
-                        annotation.getFileName(), annotation.getPrimaryLineNumber(), defaultEncoding));
-            }
-            catch (IOException exception) {
-                // ignore and continue
+        ContextHashCode contextHashCode = createContextHashCode(workspace, result.getAnnotations());
+
+        Collection<List<FileAnnotation>> annotationsByFile = groupByFile(result.getAnnotations()).values();
+        Map<String, int[]> cachedHashCodes = getCachedHashCodes(contextHashCode, annotationsByFile);
+        Capture capture = new Capture(selectCapturedFiles(annotationsByFile, cachedHashCodes));
+        int threads = Math.min(getNumberOfThreads(), annotationsByFile.size());
+        if (threads > 1) {
+            classifyInParallel(contextHashCode, capture, annotationsByFile, cachedHashCodes, threads);
+        }
+        else {
+            for (List<FileAnnotation> annotations : annotationsByFile) {
+                classify(contextHashCode, capture, annotations, cachedHashCodes.get(annotations.get(0).getFileName()));
             }
         }
+
+        if (contextHashCode instanceof ContextHashCodeCache) {
+            saveCache((ContextHashCodeCache)contextHashCode);
+        }
+        result.rehashAnnotations(); // the package names are part of the hash codes
+        for (Map.Entry<String, byte[]> file : capture.files.entrySet()) {
+            result.addWorkspaceFile(file.getKey(), file.getValue());
+        }
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates the context hash code creator. If a workspace is given, then the
+     * context hash codes of the previous builds are reused from the
+     * {@link ContextHashCodeCache} of the workspace. Each plug-in uses its
+     * own cache file, otherwise the entries of one plug-in would age out when
+     * the cache is saved by the other plug-ins.
+     *
+     * @param workspace
+     *            the workspace, might be <code>null</code>
+     * @param annotations
+     *            the annotations to classify
+     * @return the context hash code creator
+     */
+    private ContextHashCode createContextHashCode(final File workspace, final Collection<FileAnnotation> annotations) {
+        if (workspace != null && !annotations.isEmpty()) {
+            File cacheFile = CacheDirectory.getFile(workspace, getCacheFileName(annotations));
+            if (cacheFile != null) {
+                return ContextHashCodeCache.load(cacheFile);
+            }
+        }
+        return new ContextHashCode();
+    }
+
+    /**
+     * Returns the name of the cache file for the specified annotations. The
+     * name is derived from the annotation types, since each plug-in uses its
+     * own annotation classes.
+     *
+     * @param annotations
+     *            the annotations to classify
+     * @return the name of the cache file
+     */
+    static String getCacheFileName(final Collection<FileAnnotation> annotations) {
+        Set<String> types = new TreeSet<String>();
+        for (FileAnnotation annotation : annotations) {
+            types.add(annotation.getClass().getName());
+        }
+        return CACHE_FILE_PREFIX + Integer.toHexString(types.toString().hashCode()) + CACHE_FILE_SUFFIX;
+    }
+
+    private void saveCache(final ContextHashCodeCache cache) {
+        try {
+            cache.save();
+        }
+        catch (IOException exception) {
+            // ignore, the hash codes will be computed again in the next build
+        }
+    }
+
+    /**
+     * Returns the context hash codes of the files that did not change since
+     * a previous build. These files do not need to be read.
+     *
+     * @param contextHashCode
+     *            the context hash code creator
+     * @param annotationsByFile
+     *            the annotations grouped by file
+     * @return the cached hash codes, the key is the file name
+     */
+    private Map<String, int[]> getCachedHashCodes(final ContextHashCode contextHashCode,
+            final Collection<List<FileAnnotation>> annotationsByFile) {
+        Map<String, int[]> cachedHashCodes = new HashMap<String, int[]>();
+        if (contextHashCode instanceof ContextHashCodeCache) {
+            for (List<FileAnnotation> annotations : annotationsByFile) {
+                String fileName = annotations.get(0).getFileName();
+                int[] hashCodes = ((ContextHashCodeCache)contextHashCode).getCachedHashCodes(
+                        fileName, getLines(annotations), defaultEncoding);
+                if (hashCodes != null) {
+                    cachedHashCodes.put(fileName, hashCodes);
+                }
+            }
+        }
+        return cachedHashCodes;
+    }
+
+    /**
+     * Selects the files that are captured in the result. The limit of the
+     * total size is assigned in file order before any file is read, so the
+     * captured files do not depend on the order in which the threads classify
+     * the files, and no file is read into memory that is dropped afterwards.
+     * Files that did not change since a previous build are not captured
+     * completely, the build folder references their stored copy already.
+     * Excerpts are always captured.
+     *
+     * @param annotationsByFile
+     *            the annotations grouped by file
+     * @param cachedHashCodes
+     *            the cached hash codes of the unchanged files
+     * @return the names of the files to capture
+     */
+    private Set<String> selectCapturedFiles(final Collection<List<FileAnnotation>> annotationsByFile,
+            final Map<String, int[]> cachedHashCodes) {
+        Set<String> selected = new HashSet<String>();
+        long remaining = captureLimit;
+        boolean isCapturingExcerpts = isCapturingExcerpts();
+        for (List<FileAnnotation> annotations : annotationsByFile) {
+            String fileName = annotations.get(0).getFileName();
+            if (isCapturingExcerpts) {
+                selected.add(fileName);
+            }
+            else if (!cachedHashCodes.containsKey(fileName)) {
+                long size = new File(fileName).length();
+                if (size <= remaining && size <= MAXIMUM_FILE_SIZE) {
+                    selected.add(fileName);
+                    remaining -= size;
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Returns whether excerpts of the files are captured instead of the whole
+     * files.
+     *
+     * @return <code>true</code> if excerpts are captured
+     */
+    private boolean isCapturingExcerpts() {
+        return excerptContext >= 0 && SourceExcerpt.isSupported(defaultEncoding);
+    }
+
+    private int getNumberOfThreads() {
+        if (numberOfThreads > 0) {
+            return numberOfThreads;
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Computes the context hash codes of the specified annotations using a
+     * pool of threads. Each file is read by exactly one thread, so the results
+     * are the same as the results of the sequential computation.
+     *
+     * @param contextHashCode
+     *            the context hash code creator
+     * @param capture
+     *            the captured files
+     * @param annotationsByFile
+     *            the annotations grouped by file
+     * @param cachedHashCodes
+     *            the cached hash codes of the unchanged files
+     * @param threads
+     *            the number of threads to use
+     * @throws IOException
+     *             if the computation has been interrupted
+     */
+    private void classifyInParallel(final ContextHashCode contextHashCode, final Capture capture,
+            final Collection<List<FileAnnotation>> annotationsByFile, final Map<String, int[]> cachedHashCodes,
+            final int threads) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final List<FileAnnotation> annotations : annotationsByFile) {
+                futures.add(executor.submit(new Runnable() {
+                    public void run() {
+                        classify(contextHashCode, capture, annotations, cachedHashCodes.get(annotations.get(0).getFileName()));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw createException("Computation of context hash codes has been interrupted", exception);
+        }
+        catch (ExecutionException exception) {
+            throw createException("Computation of context hash codes failed", exception.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private IOException createException(final String message, final Throwable cause) {
+        IOException exception = new IOException(message);
+        exception.initCause(cause);
+
+        return exception;
+    }
+
+    /**
+     * Groups the specified annotations by their file names.
+     *
+     * @param annotations
+     *            the annotations to group
+     * @return the annotations of each file
+     */
+    private Map<String, List<FileAnnotation>> groupByFile(final Collection<FileAnnotation> annotations) {
+        Map<String, List<FileAnnotation>> annotationsByFile = new LinkedHashMap<String, List<FileAnnotation>>();
+        for (FileAnnotation annotation : annotations) {
+            List<FileAnnotation> annotationsOfFile = annotationsByFile.get(annotation.getFileName());
+            if (annotationsOfFile == null) {
+                annotationsOfFile = new ArrayList<FileAnnotation>();
+                annotationsByFile.put(annotation.getFileName(), annotationsOfFile);
+            }
+            annotationsOfFile.add(annotation);
+        }
+        return annotationsByFile;
+    }
+
+    /**
+     * Computes the context hash codes of the specified annotations of the
+     * same file, detects the package of annotations without package name and
+     * captures the content of the file. Only a file that is captured and
+     * changed since a previous build is read into memory, this content is used
+     * for all tasks. Otherwise the file is streamed; it is not read at all if
+     * the hash codes are cached and nothing needs to be captured.
+     *
+     * @param contextHashCode
+     *            the context hash code creator
+     * @param capture
+     *            the captured files
+     * @param annotations
+     *            the annotations of a file
+     * @param cachedHashCodes
+     *            the cached hash codes of the file, might be <code>null</code>
+     *            if the file has been changed
+     */
+    private void classify(final ContextHashCode contextHashCode, final Capture capture,
+            final List<FileAnnotation> annotations, final int[] cachedHashCodes) {
+        String fileName = annotations.get(0).getFileName();
+        try {
+            File file = new File(fileName);
+            int[] hashCodes = cachedHashCodes;
+            if (hashCodes == null && capture.isSelected(fileName) && file.length() <= MAXIMUM_FILE_SIZE) {
+                byte[] content = FileUtils.readFileToByteArray(file);
+                hashCodes = contextHashCode.create(fileName, content, getLines(annotations), defaultEncoding);
+                detectPackageName(annotations, content);
+                if (isCapturingExcerpts()) {
+                    byte[] excerpt = createExcerpt(new ByteArrayInputStream(content), annotations);
+                    capture.add(fileName, excerpt.length < content.length ? excerpt : content);
+                }
+                else {
+                    capture.add(fileName, content);
+                }
+            }
+            else {
+                if (hashCodes == null) {
+                    hashCodes = contextHashCode.create(fileName, getLines(annotations), defaultEncoding);
+                }
+                detectPackageName(annotations, null);
+                if (isCapturingExcerpts() && capture.isSelected(fileName)) {
+                    capture.add(fileName, createExcerpt(new FileInputStream(file), annotations));
+                }
+            }
+            for (int i = 0; i < hashCodes.length; i++) {
+                annotations.get(i).setContextHashCode(hashCodes[i]);
+            }
+        }
+        catch (IOException exception) {
+            // ignore and continue
+        }
+    }
+
+    private int[] getLines(final List<FileAnnotation> annotations) {
+        int[] lines = new int[annotations.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = annotations.get(i).getPrimaryLineNumber();
+        }
+        return lines;
+    }
+
+    /**
+     * Creates an excerpt of a file that contains the line ranges of the
+     * specified annotations.
+     *
+     * @param input
+     *            the content of the file, will be closed
+     * @param annotations
+     *            the annotations of the file
+     * @return the excerpt
+     * @throws IOException
+     *             if the file could not be read
+     */
+    private byte[] createExcerpt(final InputStream input, final List<FileAnnotation> annotations) throws IOException {
+        try {
+            List<LineRange> ranges = new ArrayList<LineRange>();
+            for (FileAnnotation annotation : annotations) {
+                ranges.addAll(annotation.getLineRanges());
+            }
+            return SourceExcerpt.create(input, ranges, excerptContext);
+        }
+        finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Sets the package name of the specified annotations of the same file
+     * that have no package name yet. The hash codes of these annotations
+     * change, so the annotations of the result need to be rehashed
+     * afterwards.
+     *
+     * @param annotations
+     *            the annotations of a file
+     * @param content
+     *            the content of the file, might be <code>null</code> if the
+     *            file needs to be read
+     */
+    private void detectPackageName(final List<FileAnnotation> annotations, final byte[] content) {
+        String fileName = annotations.get(0).getFileName();
+        if (!PackageDetectors.accepts(fileName)) {
+            return;
+        }
+
+        String packageName = null;
+        for (FileAnnotation annotation : annotations) {
+            if (!annotation.hasPackageName() && annotation instanceof AbstractAnnotation) {
+                if (packageName == null) {
+                    if (content == null) {
+                        packageName = PackageDetectors.detectPackageName(fileName);
+                    }
+                    else {
+                        packageName = PackageDetectors.detectPackageName(fileName, content);
+                    }
+                }
+                ((AbstractAnnotation)annotation).setPackageName(packageName);
+            }
+        }
+    }
+
+    /**
+     * The files that are captured in the result. Only the files that have
+     * been selected in advance are captured.
+     */
+    private static final class Capture {
+        private final Map<String, byte[]> files = new ConcurrentHashMap<String, byte[]>();
+        private final Set<String> selectedFiles;
+
+        Capture(final Set<String> selectedFiles) {
+            this.selectedFiles = selectedFiles;
+        }
+
+        boolean isSelected(final String fileName) {
+            return selectedFiles.contains(fileName);
+        }
+
+        void add(final String fileName, final byte[] content) {
+            files.put(fileName, content);
+        }
+    }
+}
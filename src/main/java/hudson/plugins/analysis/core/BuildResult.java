@@ -3,9 +3,10 @@ package hudson.plugins.analysis.core; // NOPMD
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -34,12 +35,17 @@ import hudson.model.Hudson;
 import hudson.plugins.analysis.Messages;
 import hudson.plugins.analysis.util.PluginLogger;
 import hudson.plugins.analysis.util.model.AnnotationContainer;
+import hudson.plugins.analysis.util.model.AnnotationKeyFile;
 import hudson.plugins.analysis.util.model.AnnotationProvider;
+import hudson.plugins.analysis.util.model.AnnotationStorage;
 import hudson.plugins.analysis.util.model.AnnotationStream;
+import hudson.plugins.analysis.util.model.AnnotationSummary;
+import hudson.plugins.analysis.util.model.BinaryAnnotationStorage;
 import hudson.plugins.analysis.util.model.FileAnnotation;
 import hudson.plugins.analysis.util.model.JavaProject;
 import hudson.plugins.analysis.util.model.MavenModule;
 import hudson.plugins.analysis.util.model.Priority;
+import hudson.plugins.analysis.util.model.XmlAnnotationStorage;
 import hudson.plugins.analysis.views.DetailFactory;
 
 /**
@@ -60,6 +66,20 @@ public abstract class BuildResult implements ModelObject, Serializable, Annotati
     private static final String UNSTABLE = "yellow.png";
     private static final String FAILED = "red.png";
     private static final String SUCCESS = "blue.png";
+    /** File name suffix of the binary annotations file. */
+    private static final String BINARY_SUFFIX = ".bin";
+    /** File name suffix of the annotations summary file. */
+    private static final String SUMMARY_SUFFIX = "-summary.xml";
+    /** File name suffix of the file with the keys of the new annotations. */
+    private static final String NEW_WARNINGS_SUFFIX = "-new.keys";
+    /** File name suffix of the file with the fixed annotations. */
+    private static final String FIXED_WARNINGS_SUFFIX = "-fixed.bin";
+    /** Cache key suffix of all annotations. */
+    private static final String ALL_WARNINGS = "all";
+    /** Cache key suffix of the new annotations. */
+    private static final String NEW_WARNINGS = "new";
+    /** Cache key suffix of the fixed annotations. */
+    private static final String FIXED_WARNINGS = "fixed";
 
     private Object projectLock = new Object();
 
@@ -83,17 +103,16 @@ public abstract class BuildResult implements ModelObject, Serializable, Annotati
     /** The default encoding to be used when reading and parsing files. */
     private String defaultEncoding;
 
-    /** The project containing the annotations. */
+    /** The counts of the annotations in the current build. */
     @edu.umd.cs.findbugs.annotations.SuppressWarnings("Se")
-    private transient WeakReference<JavaProject> project;
-    /** All new warnings in the current build. */
-    @edu.umd.cs.findbugs.annotations.SuppressWarnings("Se")
-    private transient WeakReference<Collection<FileAnnotation>> newWarningsReference;
-    /** All fixed warnings in the current build. */
-    @edu.umd.cs.findbugs.annotations.SuppressWarnings("Se")
-    private transient WeakReference<Collection<FileAnnotation>> fixedWarningsReference;
+    private transient AnnotationSummary summary;
     /** The build history for the results of this plug-in. */
     private transient BuildHistory history;
+    /**
+     * The content of the files with annotations that has been captured in the
+     * workspace. Released as soon as the files are stored in the build folder.
+     */
+    private transient Map<String, byte[]> workspaceFiles;
 
     /** The number of warnings in this build. */
     private int numberOfWarnings;
@@ -249,6 +268,7 @@ public abstract class BuildResult implements ModelObject, Serializable, Annotati
 
         modules = new HashSet<String>(result.getModules());
         numberOfModules = modules.size();
+        workspaceFiles = result.getWorkspaceFiles();
         errors = new ArrayList<String>(result.getErrorMessages());
         numberOfWarnings = result.getNumberOfAnnotations();
         AnnotationContainer referenceResult = history.getReferenceAnnotations();
@@ -262,22 +282,26 @@ public abstract class BuildResult implements ModelObject, Serializable, Annotati
 
         Set<FileAnnotation> newWarnings = AnnotationDifferencer.getNewAnnotations(allWarnings, referenceResult.getAnnotations());
         numberOfNewWarnings = newWarnings.size();
-        newWarningsReference = new WeakReference<Collection<FileAnnotation>>(newWarnings);
+        getCache().putAnnotations(getCacheKey(NEW_WARNINGS), newWarnings);
 
         Set<FileAnnotation> fixedWarnings = AnnotationDifferencer.getFixedAnnotations(allWarnings, referenceResult.getAnnotations());
         numberOfFixedWarnings = fixedWarnings.size();
-        fixedWarningsReference = new WeakReference<Collection<FileAnnotation>>(fixedWarnings);
+        getCache().putAnnotations(getCacheKey(FIXED_WARNINGS), fixedWarnings);
 
         highWarnings = result.getNumberOfAnnotations(Priority.HIGH);
         normalWarnings = result.getNumberOfAnnotations(Priority.NORMAL);
         lowWarnings = result.getNumberOfAnnotations(Priority.LOW);
 
         serializeAnnotations(result.getAnnotations());
+        serializeNewWarnings(newWarnings);
+        serializeFixedWarnings(fixedWarnings);
 
         JavaProject container = new JavaProject();
         container.addAnnotations(result.getAnnotations());
 
-        project = new WeakReference<JavaProject>(container);
+        getCache().putProject(getCacheKey(ALL_WARNINGS), container);
+        summary = new AnnotationSummary(container);
+        serializeSummary(summary);
 
         computeZeroWarningsHighScore(build, result);
 
@@ -308,6 +332,22 @@ public abstract class BuildResult implements ModelObject, Serializable, Annotati
         return owner.getProject().getBuildByNumber(referenceBuild);
     }
 
+    /**
+     * Returns the content of the files with annotations that has been captured
+     * in the workspace and releases it.
+     *
+     * @return the content of the files, the key is the absolute file name
+     *         with UNIX separators
+     */
+    Map<String, byte[]> removeWorkspaceFiles() {
+        Map<String, byte[]> files = workspaceFiles;
+        workspaceFiles = null;
+        if (files == null) {
+            return Collections.emptyMap();
+        }
+        return files;
+    }
+
     private int computeDelta(final ParserResult result, final AnnotationContainer referenceResult, final Priority priority) {
         return result.getNumberOfAnnotations(priority) - referenceResult.getNumberOfAnnotations(priority);
     }
@@ -474,6 +514,84 @@ public abstract class BuildResult implements ModelObject, Serializable, Annotati
         return new XmlFile(getXStream(), new File(getOwner().getRootDir(), getSerializationFileName()));
     }
 
+    /**
+     * Returns the file that stores the annotations in the binary format.
+     *
+     * @return the binary data file
+     * @see BinaryAnnotationStorage
+     */
+    public final File getBinaryDataFile() {
+        return new File(getOwner().getRootDir(), getBaseFileName() + BINARY_SUFFIX);
+    }
+
+    /**
+     * Creates the storage that is used to write and read the annotations of
+     * this build. This default implementation uses the compact
+     * {@link BinaryAnnotationStorage}. Override to use another format, e.g. an
+     * {@link XmlAnnotationStorage} for the {@link #getDataFile()}.
+     *
+     * @return the storage for the annotations
+     */
+    protected AnnotationStorage createStorage() {
+        return new BinaryAnnotationStorage(getBinaryDataFile(), getXStream());
+    }
+
+    /**
+     * Returns the storage to read the annotations from. If the annotations of
+     * this build have not been written by the storage of
+     * {@link #createStorage()}, e.g. for builds that have been recorded with
+     * an older release, then the XML {@link #getDataFile()} is used.
+     *
+     * @return the storage to read the annotations from
+     */
+    private AnnotationStorage getReadableStorage() {
+        AnnotationStorage storage = createStorage();
+        if (storage.exists()) {
+            return storage;
+        }
+        return new XmlAnnotationStorage(getDataFile());
+    }
+
+    /**
+     * Returns the file that stores the {@link AnnotationSummary} of this build.
+     *
+     * @return the summary file
+     */
+    public final XmlFile getSummaryFile() {
+        return new XmlFile(getXStream(), new File(getOwner().getRootDir(), getBaseFileName() + SUMMARY_SUFFIX));
+    }
+
+    /**
+     * Returns the file that stores the keys of the new annotations of this
+     * build.
+     *
+     * @return the file with the keys of the new annotations
+     */
+    private AnnotationKeyFile getNewWarningsFile() {
+        return new AnnotationKeyFile(new File(getOwner().getRootDir(), getBaseFileName() + NEW_WARNINGS_SUFFIX));
+    }
+
+    /**
+     * Returns the storage for the fixed annotations of this build. Since the
+     * fixed annotations are part of the reference build only, they are stored
+     * completely.
+     *
+     * @return the storage for the fixed annotations
+     */
+    private AnnotationStorage getFixedWarningsStorage() {
+        return new BinaryAnnotationStorage(new File(getOwner().getRootDir(), getBaseFileName() + FIXED_WARNINGS_SUFFIX),
+                getXStream());
+    }
+
+    /**
+     * Returns the name of the serialization file without extension.
+     *
+     * @return the base name of all files of this result
+     */
+    private String getBaseFileName() {
+        return StringUtils.substringBeforeLast(getSerializationFileName(), ".");
+    }
+
     /**
      * Returns the {@link XStream} to use.
      *
@@ -522,12 +640,12 @@ public abstract class BuildResult implements ModelObject, Serializable, Annotati
 
     /** {@inheritDoc} */
     public boolean hasAnnotations(final Priority priority) {
-        return getContainer().hasAnnotations(priority);
+        return getNumberOfAnnotations(priority) > 0;
     }
 
     /** {@inheritDoc} */
     public boolean hasAnnotations(final String priority) {
-        return getContainer().hasAnnotations(priority);
+        return hasAnnotations(Priority.fromString(priority));
     }
 
     /** {@inheritDoc} */
@@ -542,12 +660,12 @@ public abstract class BuildResult implements ModelObject, Serializable, Annotati
 
     /** {@inheritDoc} */
     public boolean hasNoAnnotations(final Priority priority) {
-        return getContainer().hasAnnotations(priority);
+        return !hasAnnotations(priority);
     }
 
     /** {@inheritDoc} */
     public boolean hasNoAnnotations(final String priority) {
-        return getContainer().hasAnnotations(priority);
+        return !hasAnnotations(priority);
     }
 
     /** {@inheritDoc} */
@@ -615,12 +733,104 @@ public abstract class BuildResult implements ModelObject, Serializable, Annotati
      */
     private void serializeAnnotations(final Collection<FileAnnotation> annotations) {
         try {
-            Collection<FileAnnotation> files = annotations;
-            getDataFile().write(files.toArray(new FileAnnotation[files.size()]));
+            createStorage().write(annotations);
+        }
+        catch (IOException exception) {
+            LOGGER.log(Level.WARNING, "Failed to serialize the annotations of the build, using XML format as fallback.", exception);
+            try {
+                new XmlAnnotationStorage(getDataFile()).write(annotations);
+            }
+            catch (IOException fallbackException) {
+                LOGGER.log(Level.SEVERE, "Failed to serialize the annotations of the build.", fallbackException);
+            }
+        }
+    }
+
+    /**
+     * Serializes the keys of the new annotations.
+     *
+     * @param newWarnings
+     *            the new annotations
+     */
+    private void serializeNewWarnings(final Collection<FileAnnotation> newWarnings) {
+        AnnotationKeyFile file = getNewWarningsFile();
+        try {
+            file.write(newWarnings);
+        }
+        catch (IOException exception) {
+            LOGGER.log(Level.WARNING, "Failed to serialize the new annotations to " + file, exception);
+        }
+    }
+
+    /**
+     * Serializes the fixed annotations.
+     *
+     * @param fixedWarnings
+     *            the fixed annotations
+     */
+    private void serializeFixedWarnings(final Collection<FileAnnotation> fixedWarnings) {
+        AnnotationStorage storage = getFixedWarningsStorage();
+        try {
+            storage.write(fixedWarnings);
         }
         catch (IOException exception) {
-            LOGGER.log(Level.SEVERE, "Failed to serialize the annotations of the build.", exception);
+            LOGGER.log(Level.WARNING, "Failed to serialize the fixed annotations to " + storage, exception);
+        }
+    }
+
+    /**
+     * Serializes the summary of the annotations.
+     *
+     * @param annotationSummary
+     *            the summary to store
+     */
+    private void serializeSummary(final AnnotationSummary annotationSummary) {
+        try {
+            getSummaryFile().write(annotationSummary);
+        }
+        catch (IOException exception) {
+            LOGGER.log(Level.WARNING, "Failed to serialize the annotations summary of the build.", exception);
+        }
+    }
+
+    /**
+     * Returns the counts of the annotations of this build. The summary is read
+     * from the {@link #getSummaryFile()} so that the annotations themselves
+     * need not to be loaded. For builds that have been recorded without a
+     * summary, the summary is computed once from the annotations and stored
+     * afterwards.
+     *
+     * @return the summary of the annotations
+     */
+    public AnnotationSummary getAnnotationSummary() {
+        synchronized (projectLock) {
+            if (summary == null) {
+                summary = loadSummary();
+            }
+            return summary;
+        }
+    }
+
+    /**
+     * Loads the summary of the annotations from the summary file. If there is
+     * no such file, the summary is created from the annotations.
+     *
+     * @return the loaded summary
+     */
+    private AnnotationSummary loadSummary() {
+        XmlFile file = getSummaryFile();
+        if (file.exists()) {
+            try {
+                return (AnnotationSummary)file.read();
+            }
+            catch (IOException exception) {
+                LOGGER.log(Level.WARNING, "Failed to load " + file, exception);
+            }
         }
+        AnnotationSummary created = new AnnotationSummary(getProject());
+        serializeSummary(created);
+
+        return created;
     }
 
     /**
@@ -834,10 +1044,7 @@ public abstract class BuildResult implements ModelObject, Serializable, Annotati
      */
     public JavaProject getProject() {
         synchronized (projectLock) {
-            if (project == null) {
-                return loadResult();
-            }
-            JavaProject result = project.get();
+            JavaProject result = getCache().getProject(getCacheKey(ALL_WARNINGS));
             if (result == null) {
                 return loadResult();
             }
@@ -846,26 +1053,48 @@ public abstract class BuildResult implements ModelObject, Serializable, Annotati
     }
 
     /**
-     * Loads the results and wraps them in a weak reference that might get
-     * removed by the garbage collector.
+     * Returns the cache for the annotations of this result.
+     *
+     * @return the cache
+     */
+    protected AnnotationCache getCache() {
+        return AnnotationCache.getInstance();
+    }
+
+    /**
+     * Returns the key of the specified annotations of this result in the
+     * {@link AnnotationCache}.
+     *
+     * @param kind
+     *            the kind of the annotations (all, new, or fixed)
+     * @return the cache key
+     */
+    private String getCacheKey(final String kind) {
+        return new File(getOwner().getRootDir(), getSerializationFileName()).getAbsolutePath() + "#" + kind;
+    }
+
+    /**
+     * Loads the results and puts them into the {@link AnnotationCache}. The
+     * cache might evict the results if its budget is exceeded.
      *
      * @return the loaded result
      */
     private JavaProject loadResult() {
         JavaProject result;
+        AnnotationStorage storage = getReadableStorage();
         try {
             JavaProject newProject = new JavaProject();
-            FileAnnotation[] annotations = (FileAnnotation[])getDataFile().read();
+            FileAnnotation[] annotations = storage.read();
             newProject.addAnnotations(annotations);
 
-            LOGGER.log(Level.INFO, "Loaded data file " + getDataFile() + " for build " + getOwner().getNumber());
+            LOGGER.log(Level.INFO, "Loaded data file " + storage + " for build " + getOwner().getNumber());
             result = newProject;
         }
         catch (IOException exception) {
-            LOGGER.log(Level.WARNING, "Failed to load " + getDataFile(), exception);
+            LOGGER.log(Level.WARNING, "Failed to load " + storage, exception);
             result = new JavaProject();
         }
-        project = new WeakReference<JavaProject>(result);
+        getCache().putProject(getCacheKey(ALL_WARNINGS), result);
 
         return result;
     }
@@ -877,10 +1106,7 @@ public abstract class BuildResult implements ModelObject, Serializable, Annotati
      */
     @Exported
     public Collection<FileAnnotation> getNewWarnings() {
-        if (newWarningsReference == null) {
-            return loadNewWarnings();
-        }
-        Collection<FileAnnotation> result = newWarningsReference.get();
+        Collection<FileAnnotation> result = getCache().getAnnotations(getCacheKey(NEW_WARNINGS));
         if (result == null) {
             return loadNewWarnings();
         }
@@ -888,15 +1114,30 @@ public abstract class BuildResult implements ModelObject, Serializable, Annotati
     }
 
     /**
-     * Loads the results of the current and reference build, computes the new
-     * warnings and wraps them in a weak reference that might get removed by the
-     * garbage collector.
+     * Loads the new warnings and puts them into the {@link AnnotationCache}.
+     * The new warnings are resolved using the keys that have been stored with
+     * the build. If there are no keys (builds that have been recorded with an
+     * older release), then the results of the current and reference build are
+     * loaded to compute the new warnings. These are stored afterwards.
      *
      * @return the new warnings
      */
     private Collection<FileAnnotation> loadNewWarnings() {
-        Collection<FileAnnotation> difference = history.getNewWarnings(getProject().getAnnotations());
-        newWarningsReference = new WeakReference<Collection<FileAnnotation>>(difference);
+        Collection<FileAnnotation> difference = null;
+        AnnotationKeyFile file = getNewWarningsFile();
+        if (file.exists()) {
+            try {
+                difference = file.read(getProject());
+            }
+            catch (IOException exception) {
+                LOGGER.log(Level.WARNING, "Failed to load " + file, exception);
+            }
+        }
+        if (difference == null) {
+            difference = history.getNewWarnings(getProject().getAnnotations());
+            serializeNewWarnings(difference);
+        }
+        getCache().putAnnotations(getCacheKey(NEW_WARNINGS), difference);
 
         return difference;
     }
@@ -907,10 +1148,7 @@ public abstract class BuildResult implements ModelObject, Serializable, Annotati
      * @return the fixed warnings of this build.
      */
     public Collection<FileAnnotation> getFixedWarnings() {
-        if (fixedWarningsReference == null) {
-            return loadFixedWarnings();
-        }
-        Collection<FileAnnotation> result = fixedWarningsReference.get();
+        Collection<FileAnnotation> result = getCache().getAnnotations(getCacheKey(FIXED_WARNINGS));
         if (result == null) {
             return loadFixedWarnings();
         }
@@ -918,15 +1156,30 @@ public abstract class BuildResult implements ModelObject, Serializable, Annotati
     }
 
     /**
-     * Loads the results of the current and previous build, computes the fixed
-     * warnings and wraps them in a weak reference that might get removed by the
-     * garbage collector.
+     * Loads the fixed warnings and puts them into the {@link AnnotationCache}.
+     * The fixed warnings are read from the file that has been stored with the
+     * build. If there is no such file (builds that have been recorded with an
+     * older release), then the results of the current and reference build are
+     * loaded to compute the fixed warnings. These are stored afterwards.
      *
      * @return the fixed warnings
      */
     private Collection<FileAnnotation> loadFixedWarnings() {
-        Collection<FileAnnotation> difference = history.getFixedWarnings(getProject().getAnnotations());
-        fixedWarningsReference = new WeakReference<Collection<FileAnnotation>>(difference);
+        Collection<FileAnnotation> difference = null;
+        AnnotationStorage storage = getFixedWarningsStorage();
+        if (storage.exists()) {
+            try {
+                difference = new HashSet<FileAnnotation>(Arrays.asList(storage.read()));
+            }
+            catch (IOException exception) {
+                LOGGER.log(Level.WARNING, "Failed to load " + storage, exception);
+            }
+        }
+        if (difference == null) {
+            difference = history.getFixedWarnings(getProject().getAnnotations());
+            serializeFixedWarnings(difference);
+        }
+        getCache().putAnnotations(getCacheKey(FIXED_WARNINGS), difference);
 
         return difference;
     }
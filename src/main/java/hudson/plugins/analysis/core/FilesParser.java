@@ -3,7 +3,13 @@ package hudson.plugins.analysis.core;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
@@ -13,11 +19,13 @@ import hudson.FilePath;
 import hudson.FilePath.FileCallable;
 
 import hudson.plugins.analysis.Messages;
+import hudson.plugins.analysis.util.CacheDirectory;
 import hudson.plugins.analysis.util.FileFinder;
 import hudson.plugins.analysis.util.ModuleDetector;
 import hudson.plugins.analysis.util.NullModuleDetector;
 import hudson.plugins.analysis.util.PluginLogger;
 import hudson.plugins.analysis.util.StringPluginLogger;
+import hudson.plugins.analysis.util.WorkspaceSnapshot;
 import hudson.plugins.analysis.util.model.FileAnnotation;
 
 import hudson.remoting.VirtualChannel;
@@ -38,7 +46,7 @@ public class FilesParser implements FileCallable<ParserResult> {
     /** Ant file-set pattern to scan for. */
     private final String filePattern;
     /** Parser to be used to process the workspace files. */
-    private final AnnotationParser parser;
+    private final StreamingAnnotationParser parser;
     /** Determines whether this build uses maven. */
     private final boolean isMavenBuild;
     /** The predefined module name, might be empty. */
@@ -47,6 +55,14 @@ public class FilesParser implements FileCallable<ParserResult> {
     private boolean shouldDetectModules = true;
 
     private final String pluginId;
+    /** The number of threads that parse the files in parallel. */
+    private int numberOfThreads = 1;
+    /** Determines whether the annotations of unchanged report files are reused. */
+    private boolean isIncremental;
+    /** The annotations of the report files that have been parsed in previous builds. */
+    private transient ReportCache reportCache;
+    /** The unique ID of the build that shares the workspace snapshot, might be <code>null</code>. */
+    private String buildId;
 
     /**
      * Creates a new instance of {@link FilesParser}.
@@ -57,7 +73,7 @@ public class FilesParser implements FileCallable<ParserResult> {
      * @param isMavenBuild
      *            determines whether this build uses maven
      */
-    private FilesParser(final String filePattern, final AnnotationParser parser, final boolean isMavenBuild, final String moduleName) {
+    private FilesParser(final String filePattern, final StreamingAnnotationParser parser, final boolean isMavenBuild, final String moduleName) {
         this.filePattern = filePattern;
         this.parser = parser;
         this.isMavenBuild = isMavenBuild;
@@ -82,7 +98,7 @@ public class FilesParser implements FileCallable<ParserResult> {
     @Deprecated
     @SuppressWarnings("PMD")
     public FilesParser(final PluginLogger logger, final String filePattern, final AnnotationParser parser, final boolean isMavenBuild) {
-        this(filePattern, parser, isMavenBuild, StringUtils.EMPTY);
+        this(filePattern, new AnnotationParserAdapter(parser), isMavenBuild, StringUtils.EMPTY);
     }
 
     /**
@@ -103,7 +119,7 @@ public class FilesParser implements FileCallable<ParserResult> {
     @Deprecated
     @SuppressWarnings("PMD")
     public FilesParser(final PluginLogger logger, final String filePattern, final AnnotationParser parser, final String moduleName) {
-        this(filePattern, parser, true, moduleName);
+        this(filePattern, new AnnotationParserAdapter(parser), true, moduleName);
     }
 
     /**
@@ -122,7 +138,7 @@ public class FilesParser implements FileCallable<ParserResult> {
     @Deprecated
     @SuppressWarnings("PMD")
     public FilesParser(final PluginLogger logger, final String filePattern, final AnnotationParser parser) {
-        this(filePattern, parser, true, StringUtils.EMPTY);
+        this(filePattern, new AnnotationParserAdapter(parser), true, StringUtils.EMPTY);
 
         shouldDetectModules = false;
     }
@@ -145,7 +161,7 @@ public class FilesParser implements FileCallable<ParserResult> {
     @SuppressWarnings("PMD")
     public FilesParser(final StringPluginLogger logger, final String filePattern,
             final AnnotationParser parser, final String moduleName) {
-        this(filePattern, parser, true, moduleName);
+        this(filePattern, new AnnotationParserAdapter(parser), true, moduleName);
     }
 
     /**
@@ -170,7 +186,7 @@ public class FilesParser implements FileCallable<ParserResult> {
     public FilesParser(final StringPluginLogger logger, final String filePattern,
             final AnnotationParser parser,
             final boolean shouldDetectModules, final boolean isMavenBuild) {
-        this(filePattern, parser, isMavenBuild, StringUtils.EMPTY);
+        this(filePattern, new AnnotationParserAdapter(parser), isMavenBuild, StringUtils.EMPTY);
     }
 
     /**
@@ -187,7 +203,7 @@ public class FilesParser implements FileCallable<ParserResult> {
      * @param moduleName
      *            the name of the module to use for all files
      */
-    private FilesParser(final String pluginId, final String filePattern, final AnnotationParser parser, final boolean shouldDetectModules,
+    private FilesParser(final String pluginId, final String filePattern, final StreamingAnnotationParser parser, final boolean shouldDetectModules,
             final boolean isMavenBuild, final String moduleName) {
         this.pluginId = pluginId;
         this.filePattern = filePattern;
@@ -211,7 +227,7 @@ public class FilesParser implements FileCallable<ParserResult> {
      */
     public FilesParser(final String pluginId, final String filePattern, final AnnotationParser parser,
             final String moduleName) {
-        this(pluginId, filePattern, parser, true, true, moduleName);
+        this(pluginId, filePattern, new AnnotationParserAdapter(parser), true, true, moduleName);
     }
 
     /**
@@ -231,9 +247,85 @@ public class FilesParser implements FileCallable<ParserResult> {
      */
     public FilesParser(final String pluginId, final String filePattern, final AnnotationParser parser,
             final boolean shouldDetectModules, final boolean isMavenBuild) {
+        this(pluginId, filePattern, new AnnotationParserAdapter(parser), shouldDetectModules, isMavenBuild, StringUtils.EMPTY);
+    }
+
+    /**
+     * Creates a new instance of {@link FilesParser} that delivers the
+     * annotations of the parser directly to the {@link ParserResult}. So the
+     * annotations of a file are not collected in memory before they are added
+     * to the result.
+     *
+     * @param pluginId
+     *            the ID of the plug-in that uses this parser
+     * @param filePattern
+     *            ant file-set pattern to scan for files to parse
+     * @param parser
+     *            the parser to apply on the found files
+     * @param shouldDetectModules
+     *            determines whether modules should be detected from pom.xml or
+     *            build.xml files
+     * @param isMavenBuild
+     *            determines whether this build uses maven
+     */
+    public FilesParser(final String pluginId, final String filePattern, final StreamingAnnotationParser parser,
+            final boolean shouldDetectModules, final boolean isMavenBuild) {
         this(pluginId, filePattern, parser, shouldDetectModules, isMavenBuild, StringUtils.EMPTY);
     }
 
+    /**
+     * Sets the number of threads that parse the files in parallel. Use this
+     * option only if the {@link AnnotationParser} is thread safe. The
+     * annotations of the files are added to the result in the order of the
+     * files, so the result is the same as the result of the sequential
+     * parsing.
+     *
+     * @param numberOfThreads
+     *            the number of threads: 1 parses all files in the calling
+     *            thread (default), 0 uses one thread per available processor
+     *            of the agent
+     */
+    public void setNumberOfThreads(final int numberOfThreads) {
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    /**
+     * Determines whether the annotations of unchanged report files should be
+     * reused. If enabled, then the annotations of each parsed report file are
+     * stored in a cache on the machine that owns the workspace. The parser is
+     * invoked only for new or modified report files. Use this option only if
+     * the {@link AnnotationParser} creates the annotations solely from the
+     * content of the report file.
+     *
+     * @param isIncremental
+     *            <code>true</code> if the annotations of unchanged report
+     *            files should be reused, <code>false</code> otherwise
+     * @see ReportCache
+     */
+    public void setIncremental(final boolean isIncremental) {
+        this.isIncremental = isIncremental;
+    }
+
+    /**
+     * Sets the unique ID of the build that runs this parser, e.g. the full
+     * name of the job and the build number. All parsers of the same build
+     * share a single {@link WorkspaceSnapshot}, so the workspace is scanned
+     * only once for all publishers of a build. Set the ID only for parsers
+     * that run after the build, since the snapshot does not see files that are
+     * created later on. Publishers and reporters pass the ID of the published
+     * build with {@link HealthAwarePublisher#shareWorkspaceSnapshot},
+     * {@link HealthAwareReporter#shareWorkspaceSnapshot} or
+     * {@link HealthAwareMavenReporter#shareWorkspaceSnapshot}, these methods
+     * also release the snapshot afterwards. If no ID is set, then the
+     * workspace is scanned by a {@link FileFinder}.
+     *
+     * @param buildId
+     *            the unique ID of the build, might be <code>null</code>
+     */
+    public void setBuildId(final String buildId) {
+        this.buildId = buildId;
+    }
+
     /**
      * Logs the specified message.
      *
@@ -248,10 +340,11 @@ public class FilesParser implements FileCallable<ParserResult> {
 
     /** {@inheritDoc} */
     public ParserResult invoke(final File workspace, final VirtualChannel channel) throws IOException {
-        ParserResult result = new ParserResult(new FilePath(workspace));
+        WorkspaceSnapshot snapshot = getSnapshot(workspace);
+        ParserResult result = new ParserResult(new FilePath(workspace), snapshot);
 
         try {
-            String[] fileNames = new FileFinder(filePattern).find(workspace);
+            String[] fileNames = find(workspace, snapshot);
 
             if (fileNames.length == 0) {
                 if (isMavenBuild) {
@@ -263,12 +356,23 @@ public class FilesParser implements FileCallable<ParserResult> {
             }
             else {
                 log("Parsing " + fileNames.length + " files in " + workspace.getAbsolutePath());
-                parseFiles(workspace, fileNames, result);
+                reportCache = createReportCache(workspace);
+                int threads = Math.min(getNumberOfThreads(), fileNames.length);
+                if (threads > 1) {
+                    parseFilesInParallel(workspace, snapshot, fileNames, result, threads);
+                }
+                else {
+                    parseFiles(workspace, snapshot, fileNames, result);
+                }
+                saveReportCache();
             }
         }
         catch (InterruptedException exception) {
             log("Parsing has been canceled.");
         }
+        finally {
+            reportCache = null;
+        }
 
         if (stringLogger != null) {
             result.setLog(stringLogger.toString());
@@ -280,12 +384,38 @@ public class FilesParser implements FileCallable<ParserResult> {
         return result;
     }
 
+    /**
+     * Returns the snapshot of the workspace that is shared by all parsers of
+     * the build.
+     *
+     * @param workspace
+     *            the workspace root
+     * @return the snapshot or <code>null</code> if no build ID is set
+     * @throws IOException
+     *             if the workspace could not be read
+     */
+    private WorkspaceSnapshot getSnapshot(final File workspace) throws IOException {
+        if (StringUtils.isBlank(buildId)) {
+            return null;
+        }
+        return WorkspaceSnapshot.get(workspace, buildId);
+    }
+
+    private String[] find(final File workspace, final WorkspaceSnapshot snapshot) {
+        if (snapshot == null) {
+            return new FileFinder(filePattern).find(workspace);
+        }
+        return snapshot.find(filePattern);
+    }
+
     /**
      * Parses the specified collection of files and appends the results to the
      * provided container.
      *
      * @param workspace
      *            the workspace root
+     * @param snapshot
+     *            the shared snapshot of the workspace, might be <code>null</code>
      * @param fileNames
      *            the names of the file to parse
      * @param result
@@ -293,36 +423,275 @@ public class FilesParser implements FileCallable<ParserResult> {
      * @throws InterruptedException
      *             if the user cancels the parsing
      */
-    private void parseFiles(final File workspace, final String[] fileNames, final ParserResult result) throws InterruptedException {
-        ModuleDetector detector = createModuleDetector(workspace);
+    private void parseFiles(final File workspace, final WorkspaceSnapshot snapshot, final String[] fileNames,
+            final ParserResult result) throws InterruptedException {
+        ModuleDetector detector = createModuleDetector(workspace, snapshot);
 
         for (String fileName : fileNames) {
             File file = new File(workspace, fileName);
 
             String module = getModuleName(detector, file);
 
-            if (!file.canRead()) {
-                String message = Messages.FilesParser_Error_NoPermission(module, file);
-                log(message);
-                result.addErrorMessage(module, message);
-                continue;
-            }
-            if (file.length() <= 0) {
-                String message = Messages.FilesParser_Error_EmptyFile(module, file);
+            String message = getErrorMessage(file, module);
+            if (message != null) {
                 log(message);
                 result.addErrorMessage(module, message);
                 continue;
             }
 
-            parseFile(file, module, result);
+            if (!reuseAnnotations(file, module, result)) {
+                parseFile(file, module, result);
+            }
 
             result.addModule(module);
         }
     }
 
-    private ModuleDetector createModuleDetector(final File workspace) {
+    /**
+     * Creates the cache of the parsed report files if incremental parsing is
+     * enabled.
+     *
+     * @param workspace
+     *            the workspace root
+     * @return the cache or <code>null</code> if the annotations of the report
+     *         files should not be cached
+     */
+    private ReportCache createReportCache(final File workspace) {
+        if (isIncremental) {
+            File folder = CacheDirectory.getFile(workspace, getReportCacheName());
+            if (folder != null && (folder.isDirectory() || folder.mkdirs())) {
+                try {
+                    return ReportCache.load(folder, parser);
+                }
+                catch (IOException exception) {
+                    log("Can't create cache of parsed files: " + exception);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the name of the cache folder. Each plug-in and file pattern uses
+     * its own cache.
+     *
+     * @return the name of the cache folder
+     */
+    private String getReportCacheName() {
+        return "reports-" + pluginId.replaceAll("[^A-Za-z0-9]", StringUtils.EMPTY)
+                + "-" + Integer.toHexString(filePattern.hashCode());
+    }
+
+    private void saveReportCache() {
+        if (reportCache != null) {
+            try {
+                reportCache.save();
+            }
+            catch (IOException exception) {
+                log("Can't save cache of parsed files: " + exception);
+            }
+        }
+    }
+
+    /**
+     * Adds the cached annotations of the specified file to the result if the
+     * file has not been changed since it has been parsed.
+     *
+     * @param file
+     *            the file to parse
+     * @param module
+     *            the associated module
+     * @param result
+     *            the result of the parser
+     * @return <code>true</code> if the cached annotations have been added,
+     *         <code>false</code> if the file needs to be parsed
+     */
+    private boolean reuseAnnotations(final File file, final String module, final ParserResult result) {
+        if (reportCache == null) {
+            return false;
+        }
+        FileAnnotation[] annotations = reportCache.get(file, module);
+        if (annotations == null) {
+            return false;
+        }
+        result.addAnnotations(annotations);
+        logReuse(file, module, annotations.length);
+
+        return true;
+    }
+
+    private void logReuse(final File file, final String module, final int numberOfAnnotations) {
+        log("Reused " + numberOfAnnotations + " warnings of unchanged file " + file + " of module " + module + ".");
+    }
+
+    /**
+     * Stores the annotations of the specified file in the cache.
+     *
+     * @param file
+     *            the parsed file
+     * @param module
+     *            the associated module
+     * @param annotations
+     *            the annotations of the file
+     */
+    private void cacheAnnotations(final File file, final String module, final List<FileAnnotation> annotations) {
+        if (reportCache != null) {
+            try {
+                reportCache.put(file, module, annotations);
+            }
+            catch (IOException exception) {
+                log("Can't cache warnings of file " + file + ": " + exception);
+            }
+        }
+    }
+
+    /**
+     * Parses the specified collection of files using a pool of threads and
+     * appends the results to the provided container. Since the container is
+     * not thread safe, the annotations of each file are buffered and appended
+     * in the order of the files.
+     *
+     * @param workspace
+     *            the workspace root
+     * @param snapshot
+     *            the shared snapshot of the workspace, might be <code>null</code>
+     * @param fileNames
+     *            the names of the file to parse
+     * @param result
+     *            the result of the parsing
+     * @param threads
+     *            the number of threads to use
+     * @throws InterruptedException
+     *             if the user cancels the parsing
+     */
+    private void parseFilesInParallel(final File workspace, final WorkspaceSnapshot snapshot, final String[] fileNames,
+            final ParserResult result, final int threads) throws InterruptedException {
+        ModuleDetector detector = createModuleDetector(workspace, snapshot);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<ParsedFile> parsedFiles = new ArrayList<ParsedFile>();
+            for (String fileName : fileNames) {
+                final File file = new File(workspace, fileName);
+                final String module = getModuleName(detector, file);
+
+                String message = getErrorMessage(file, module);
+                FileAnnotation[] cached = null;
+                if (message == null && reportCache != null) {
+                    cached = reportCache.get(file, module);
+                }
+                Future<AnnotationBuffer> annotations = null;
+                if (message == null && cached == null) {
+                    annotations = executor.submit(new Callable<AnnotationBuffer>() {
+                        public AnnotationBuffer call() {
+                            AnnotationBuffer buffer = new AnnotationBuffer(null);
+                            try {
+                                parser.parse(file, module, buffer);
+                            }
+                            catch (InvocationTargetException exception) {
+                                buffer.exception = exception;
+                            }
+                            return buffer;
+                        }
+                    });
+                }
+                parsedFiles.add(new ParsedFile(file, module, message, cached, annotations));
+            }
+
+            for (ParsedFile parsedFile : parsedFiles) {
+                if (parsedFile.errorMessage != null) {
+                    log(parsedFile.errorMessage);
+                    result.addErrorMessage(parsedFile.module, parsedFile.errorMessage);
+                    continue;
+                }
+
+                if (parsedFile.cached == null) {
+                    addAnnotations(parsedFile, result);
+                }
+                else {
+                    result.addAnnotations(parsedFile.cached);
+                    logReuse(parsedFile.file, parsedFile.module, parsedFile.cached.length);
+                }
+
+                result.addModule(parsedFile.module);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the annotations of the specified file and appends them to the
+     * result. If the file could not be parsed then the annotations found so
+     * far and an error message are appended to the result.
+     *
+     * @param parsedFile
+     *            the file that is parsed
+     * @param result
+     *            the result of the parser
+     * @throws InterruptedException
+     *             if the user cancels the parsing
+     */
+    private void addAnnotations(final ParsedFile parsedFile, final ParserResult result) throws InterruptedException {
+        try {
+            AnnotationBuffer buffer = parsedFile.annotations.get();
+            result.addAnnotations(buffer.annotations);
+            if (buffer.exception == null) {
+                logSuccess(parsedFile.file, parsedFile.module, buffer.annotations.size());
+                cacheAnnotations(parsedFile.file, parsedFile.module, buffer.annotations);
+            }
+            else {
+                addErrorMessage(parsedFile.file, parsedFile.module, buffer.exception, result);
+            }
+        }
+        catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            else {
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    private int getNumberOfThreads() {
+        if (numberOfThreads > 0) {
+            return numberOfThreads;
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Returns an error message if the specified file can't be parsed.
+     *
+     * @param file
+     *            the file to parse
+     * @param module
+     *            the associated module
+     * @return the error message or <code>null</code> if the file can be
+     *         parsed
+     */
+    private String getErrorMessage(final File file, final String module) {
+        if (!file.canRead()) {
+            return Messages.FilesParser_Error_NoPermission(module, file);
+        }
+        if (file.length() <= 0) {
+            return Messages.FilesParser_Error_EmptyFile(module, file);
+        }
+        return null;
+    }
+
+    private ModuleDetector createModuleDetector(final File workspace, final WorkspaceSnapshot snapshot) {
         if (shouldDetectModules) {
-            return new ModuleDetector(workspace);
+            if (snapshot == null) {
+                return new ModuleDetector(workspace);
+            }
+            return new ModuleDetector(snapshot);
         }
         else {
             return new NullModuleDetector();
@@ -341,7 +710,8 @@ public class FilesParser implements FileCallable<ParserResult> {
     }
 
     /**
-     * Parses the specified file and stores all found annotations. If the file
+     * Parses the specified file and stores all found annotations. The
+     * annotations are added to the result while the file is parsed. If the file
      * could not be parsed then an error message is appended to the result.
      *
      * @param file
@@ -355,17 +725,83 @@ public class FilesParser implements FileCallable<ParserResult> {
      */
     private void parseFile(final File file, final String module, final ParserResult result) throws InterruptedException {
         try {
-            Collection<FileAnnotation> annotations = parser.parse(file, module);
-            result.addAnnotations(annotations);
-
-            log("Successfully parsed file " + file + " of module " + module + " with " + annotations.size() + " warnings.");
+            if (reportCache == null) {
+                logSuccess(file, module, parser.parse(file, module, result));
+            }
+            else {
+                AnnotationBuffer buffer = new AnnotationBuffer(result);
+                logSuccess(file, module, parser.parse(file, module, buffer));
+                cacheAnnotations(file, module, buffer.annotations);
+            }
         }
         catch (InvocationTargetException exception) {
-            String errorMessage = Messages.FilesParser_Error_Exception(file) + "\n\n"
-                    + ExceptionUtils.getStackTrace((Throwable)ObjectUtils.defaultIfNull(exception.getCause(), exception));
-            result.addErrorMessage(module, errorMessage);
+            addErrorMessage(file, module, exception, result);
+        }
+    }
+
+    private void logSuccess(final File file, final String module, final int numberOfAnnotations) {
+        log("Successfully parsed file " + file + " of module " + module + " with " + numberOfAnnotations + " warnings.");
+    }
+
+    private void addErrorMessage(final File file, final String module, final InvocationTargetException exception,
+            final ParserResult result) {
+        String errorMessage = Messages.FilesParser_Error_Exception(file) + "\n\n"
+                + ExceptionUtils.getStackTrace((Throwable)ObjectUtils.defaultIfNull(exception.getCause(), exception));
+        result.addErrorMessage(module, errorMessage);
+
+        log(errorMessage);
+    }
+
+    /**
+     * A file that is parsed in parallel.
+     */
+    private static final class ParsedFile {
+        private final File file;
+        private final String module;
+        /** The error message if the file can't be parsed, <code>null</code> otherwise. */
+        private final String errorMessage;
+        /** The annotations of an unchanged file, <code>null</code> if the file is parsed. */
+        private final FileAnnotation[] cached;
+        private final Future<AnnotationBuffer> annotations;
+
+        ParsedFile(final File file, final String module, final String errorMessage, final FileAnnotation[] cached,
+                final Future<AnnotationBuffer> annotations) {
+            this.file = file;
+            this.module = module;
+            this.errorMessage = errorMessage;
+            this.cached = cached;
+            this.annotations = annotations;
+        }
+    }
 
-            log(errorMessage);
+    /**
+     * Buffers the annotations of a file that is parsed in parallel or that
+     * should be cached.
+     */
+    private static final class AnnotationBuffer implements AnnotationSink {
+        private final List<FileAnnotation> annotations = new ArrayList<FileAnnotation>();
+        /** The sink that receives the annotations as well, might be <code>null</code>. */
+        private final AnnotationSink delegate;
+        /** The exception if the file could not be parsed completely. */
+        private InvocationTargetException exception;
+
+        /**
+         * Creates a new instance of {@link AnnotationBuffer}.
+         *
+         * @param delegate
+         *            the sink that receives the annotations as well, might be
+         *            <code>null</code>
+         */
+        AnnotationBuffer(final AnnotationSink delegate) {
+            this.delegate = delegate;
+        }
+
+        /** {@inheritDoc} */
+        public void addAnnotation(final FileAnnotation annotation) {
+            annotations.add(annotation);
+            if (delegate != null) {
+                delegate.addAnnotation(annotation);
+            }
         }
     }
-}
\ No newline at end of file
+}
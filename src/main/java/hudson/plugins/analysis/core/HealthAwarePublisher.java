@@ -1,12 +1,26 @@
 package hudson.plugins.analysis.core;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Collection;
-
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 
@@ -19,7 +33,9 @@ import hudson.model.Result;
 import hudson.model.AbstractBuild;
 import hudson.model.Project;
 
+import hudson.plugins.analysis.util.FileDigest;
 import hudson.plugins.analysis.util.PluginLogger;
+import hudson.plugins.analysis.util.SourceFileStore;
 import hudson.plugins.analysis.util.model.AbstractAnnotation;
 import hudson.plugins.analysis.util.model.AnnotationContainer;
 import hudson.plugins.analysis.util.model.DefaultAnnotationContainer;
@@ -27,6 +43,8 @@ import hudson.plugins.analysis.util.model.FileAnnotation;
 import hudson.plugins.analysis.util.model.Priority;
 import hudson.plugins.analysis.util.model.WorkspaceFile;
 
+import hudson.remoting.Channel;
+import hudson.remoting.Pipe;
 import hudson.remoting.VirtualChannel;
 import hudson.tasks.BuildStep;
 import hudson.tasks.BuildStepMonitor;
@@ -54,6 +72,13 @@ import hudson.tasks.Maven;
 public abstract class HealthAwarePublisher extends Recorder implements HealthDescriptor, MatrixAggregatable {
     private static final long serialVersionUID = -7945220365563528457L;
     private static final String SLASH = "/";
+    /**
+     * System property that disables the transfer of all files with
+     * annotations in a single compressed stream if set to <code>false</code>.
+     */
+    private static final String BULK_TRANSFER_PROPERTY = HealthAwarePublisher.class.getName() + ".bulkTransfer";
+    /** Size of the read buffer of the bulk transfer. */
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     /** Default threshold priority limit. */
     private static final String DEFAULT_PRIORITY_THRESHOLD_LIMIT = "low";
@@ -321,7 +346,8 @@ public abstract class HealthAwarePublisher extends Recorder implements HealthDes
                 result.evaluateStatus(getThresholds(), useDeltaValues, logger);
             }
 
-            copyFilesWithAnnotationsToBuildFolder(build.getRootDir(), launcher.getChannel(), result.getAnnotations());
+            copyFilesWithAnnotationsToBuildFolder(build, launcher.getChannel(), result.getAnnotations(),
+                    result.removeWorkspaceFiles());
         }
         else {
             logger.log("Skipping publisher since build result is " + build.getResult());
@@ -330,14 +356,24 @@ public abstract class HealthAwarePublisher extends Recorder implements HealthDes
     }
 
     /**
-     * Copies all files with annotations from the workspace to the build folder.
+     * Copies all files with annotations from the workspace to the
+     * {@link SourceFileStore} of the job and references them in the build
+     * folder. Files whose content has been captured in the workspace already
+     * are stored directly. For the other files only the digests are fetched
+     * first, so that only files with new content are transferred. If the
+     * workspace is on an agent, then these files are transferred in a single
+     * compressed stream, see {@link #BULK_TRANSFER_PROPERTY}. Files that are
+     * already in or referenced by the build folder are skipped. Files that
+     * could not be stored are copied to the build folder.
      *
-     * @param rootDir
-     *            directory to store the copied files in
+     * @param build
+     *            the build to store the copied files for
      * @param channel
      *            channel to get the files from
      * @param annotations
      *            annotations determining the actual files to copy
+     * @param workspaceFiles
+     *            the captured content of the files
      * @throws IOException
      *             if the files could not be written
      * @throws FileNotFoundException
@@ -345,27 +381,206 @@ public abstract class HealthAwarePublisher extends Recorder implements HealthDes
      * @throws InterruptedException
      *             if the user cancels the processing
      */
-    private void copyFilesWithAnnotationsToBuildFolder(final File rootDir,
-            final VirtualChannel channel, final Collection<FileAnnotation> annotations) throws IOException,
-            FileNotFoundException, InterruptedException {
-        File directory = new File(rootDir, AbstractAnnotation.WORKSPACE_FILES);
+    private void copyFilesWithAnnotationsToBuildFolder(final AbstractBuild<?, ?> build,
+            final VirtualChannel channel, final Collection<FileAnnotation> annotations,
+            final Map<String, byte[]> workspaceFiles) throws IOException, FileNotFoundException, InterruptedException {
+        File directory = new File(build.getRootDir(), AbstractAnnotation.WORKSPACE_FILES);
         if (!directory.exists() && !directory.mkdir()) {
             throw new IOException("Can't create directory for workspace files that contain annotations: " + directory.getAbsolutePath());
         }
+        SourceFileStore store = SourceFileStore.getStore(build);
+        Map<String, String> existingReferences = readReferences(build.getRootDir());
+        Map<String, String> references = new HashMap<String, String>();
+
         AnnotationContainer container = new DefaultAnnotationContainer(annotations);
+        Map<String, File> missingFiles = new LinkedHashMap<String, File>();
         for (WorkspaceFile file : container.getFiles()) {
             File masterFile = new File(directory, file.getTempName());
-            if (!masterFile.exists()) {
+            if (!masterFile.exists() && !existingReferences.containsKey(file.getTempName())) {
+                byte[] content = workspaceFiles.get(file.getName());
+                if (content == null) {
+                    missingFiles.put(file.getName(), masterFile);
+                }
+                else {
+                    try {
+                        String digest = FileDigest.create(content);
+                        store.put(digest, content);
+                        references.put(file.getTempName(), digest);
+                    }
+                    catch (IOException exception) {
+                        logExceptionToFile(exception, masterFile, file.getName());
+                    }
+                }
+            }
+        }
+
+        if (!missingFiles.isEmpty()) {
+            copyFilesToStore(channel, store, missingFiles, references);
+        }
+        for (Map.Entry<String, File> file : missingFiles.entrySet()) {
+            File masterFile = file.getValue();
+            if (!references.containsKey(masterFile.getName()) && !masterFile.exists()) {
                 try {
-                    FileOutputStream outputStream = new FileOutputStream(masterFile);
+                    SourceFileStore.compress(new FilePath(channel, file.getKey()).read(), new FileOutputStream(masterFile));
+                }
+                catch (IOException exception) {
+                    logExceptionToFile(exception, masterFile, file.getKey());
+                }
+            }
+        }
+        store.addReferences(build.getRootDir(), references);
+    }
 
-                    new FilePath(channel, file.getName()).copyTo(outputStream);
+    private Map<String, String> readReferences(final File rootDir) {
+        try {
+            return SourceFileStore.readReferences(rootDir);
+        }
+        catch (IOException exception) {
+            return new HashMap<String, String>();
+        }
+    }
+
+    private boolean isBulkTransferEnabled() {
+        return !"false".equalsIgnoreCase(System.getProperty(BULK_TRANSFER_PROPERTY));
+    }
+
+    /**
+     * Copies the specified files from the workspace to the store. Only the
+     * files whose content is not yet stored are transferred. Files that could
+     * not be stored, e.g. since they could not be read or the connection to
+     * the agent failed, are not referenced afterwards.
+     *
+     * @param channel
+     *            channel to get the files from
+     * @param store
+     *            the store to copy the files to
+     * @param files
+     *            the files to copy: the key is the file name in the
+     *            workspace, the value the file in the build folder
+     * @param references
+     *            the references of the build, the references of the stored
+     *            files are added
+     * @throws InterruptedException
+     *             if the user cancels the processing
+     */
+    private void copyFilesToStore(final VirtualChannel channel, final SourceFileStore store,
+            final Map<String, File> files, final Map<String, String> references) throws InterruptedException {
+        Map<String, String> digests;
+        try {
+            digests = new FilePath(channel, files.keySet().iterator().next())
+                    .act(new WorkspaceFilesDigester(new ArrayList<String>(files.keySet())));
+        }
+        catch (IOException exception) {
+            return; // the files are copied one by one
+        }
+
+        Map<String, String> newFiles = new HashMap<String, String>();
+        Set<String> newDigests = new HashSet<String>();
+        for (Map.Entry<String, String> digest : digests.entrySet()) {
+            if (!store.retain(digest.getValue()) && newDigests.add(digest.getValue())) {
+                newFiles.put(digest.getKey(), digest.getValue()); // files with identical content are transferred once
+            }
+        }
+        if (newFiles.size() > 1 && channel instanceof Channel && isBulkTransferEnabled()) {
+            copyFilesInBulk(channel, store, newFiles);
+        }
+        for (Map.Entry<String, String> file : newFiles.entrySet()) {
+            if (!store.getFile(file.getValue()).exists()) {
+                try {
+                    File temp = store.createTempFile();
+                    new FilePath(channel, file.getKey()).copyTo(new FileOutputStream(temp));
+                    store.put(file.getValue(), temp);
                 }
                 catch (IOException exception) {
-                    logExceptionToFile(exception, masterFile, file.getName());
+                    // ignore, the file is copied to the build folder
                 }
             }
         }
+
+        for (Map.Entry<String, String> digest : digests.entrySet()) {
+            if (store.getFile(digest.getValue()).exists()) {
+                references.put(files.get(digest.getKey()).getName(), digest.getValue());
+            }
+        }
+    }
+
+    /**
+     * Copies the specified files from the workspace to the store using a
+     * single compressed stream. Files that could not be transferred, e.g.
+     * since the connection to the agent failed, are still missing afterwards.
+     *
+     * @param channel
+     *            channel to get the files from
+     * @param store
+     *            the store to copy the files to
+     * @param files
+     *            the files to copy: the key is the file name in the
+     *            workspace, the value the digest of its content. The digests
+     *            are used as entry names, so they must be unique.
+     * @throws InterruptedException
+     *             if the user cancels the processing
+     */
+    private void copyFilesInBulk(final VirtualChannel channel, final SourceFileStore store, final Map<String, String> files)
+            throws InterruptedException {
+        Pipe pipe = Pipe.createRemoteToLocal();
+        try {
+            Future<Map<String, IOException>> future = new FilePath(channel, files.keySet().iterator().next())
+                    .actAsync(new WorkspaceFilesPacker(files, pipe.getOut()));
+            unzip(pipe.getIn(), store, new HashSet<String>(files.values()));
+            future.get();
+        }
+        catch (IOException exception) {
+            // ignore, the remaining files are copied one by one
+        }
+        catch (ExecutionException exception) {
+            // ignore, the remaining files are copied one by one
+        }
+        finally {
+            IOUtils.closeQuietly(pipe.getIn());
+        }
+    }
+
+    /**
+     * Extracts the files of the specified archive stream to the store. Each
+     * file is written to a temporary file first, so a broken transfer does not
+     * leave incomplete files.
+     *
+     * @param input
+     *            the archive stream, is read completely
+     * @param store
+     *            the store to copy the files to
+     * @param digests
+     *            the digests of the expected files, other entries are skipped
+     * @throws IOException
+     *             if the archive could not be read or a file could not be
+     *             written
+     */
+    private void unzip(final InputStream input, final SourceFileStore store, final Set<String> digests) throws IOException {
+        InputStream buffered = new BufferedInputStream(input, BUFFER_SIZE);
+        ZipInputStream zip = new ZipInputStream(buffered);
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            if (digests.contains(entry.getName())) {
+                File temp = store.createTempFile();
+                OutputStream output = new FileOutputStream(temp);
+                try {
+                    IOUtils.copy(zip, output);
+                    output.close();
+                }
+                finally {
+                    IOUtils.closeQuietly(output);
+                }
+                try {
+                    store.put(entry.getName(), temp);
+                }
+                catch (IOException exception) {
+                    // ignore, the file is copied one by one
+                }
+            }
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (buffered.read(buffer) >= 0) {
+            // read the central directory, so the writer is not blocked
+        }
     }
 
     /**
@@ -455,6 +670,21 @@ public abstract class HealthAwarePublisher extends Recorder implements HealthDes
         }
     }
 
+    /**
+     * Lets the specified parser share a single snapshot of the workspace with
+     * the parsers of the other publishers of the build. Call this method in
+     * {@link #perform(AbstractBuild, PluginLogger)} before the parser is
+     * invoked. The snapshot is released when the build has been finished.
+     *
+     * @param build
+     *            the build
+     * @param parser
+     *            the parser that should share the snapshot
+     */
+    protected void shareWorkspaceSnapshot(final AbstractBuild<?, ?> build, final FilesParser parser) {
+        parser.setBuildId(WorkspaceSnapshotReleaser.register(build));
+    }
+
     /**
      * Performs the publishing of the results of this plug-in.
      *
@@ -1,9 +1,12 @@
 package hudson.plugins.analysis.core;
 
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.Collection;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.maven.project.MavenProject;
@@ -23,7 +26,9 @@ import hudson.model.Result;
 
 import hudson.plugins.analysis.Messages;
 import hudson.plugins.analysis.util.PluginLogger;
+import hudson.plugins.analysis.util.SourceFileStore;
 import hudson.plugins.analysis.util.StringPluginLogger;
+import hudson.plugins.analysis.util.WorkspaceSnapshot;
 import hudson.plugins.analysis.util.model.AbstractAnnotation;
 import hudson.plugins.analysis.util.model.AnnotationContainer;
 import hudson.plugins.analysis.util.model.DefaultAnnotationContainer;
@@ -248,7 +253,7 @@ public abstract class HealthAwareReporter<T extends BuildResult> extends MavenRe
 
         final ParserResult result;
         try {
-            result = perform(build, pom, mojo, logger);
+            result = performAndReleaseSnapshot(build, pom, mojo, logger);
 
             if (result.getModules().isEmpty() && result.getNumberOfAnnotations() == 0) {
                 logger.log("No report found for mojo " + mojo.getGoal());
@@ -268,6 +273,9 @@ public abstract class HealthAwareReporter<T extends BuildResult> extends MavenRe
             result.addErrorMessage(pom.getName(), Messages.Reporter_Error_NoEncoding(Charset.defaultCharset().displayName()));
         }
 
+        // the captured files are not sent to the master as part of the result
+        copyFilesWithAnnotationsToBuildFolder(logger, build.getRootDir(), result.getAnnotations(), result.removeWorkspaceFiles());
+
         String resultLog = build.execute(new BuildCallable<String, IOException>() {
             public String call(final MavenBuild mavenBuild) throws IOException, InterruptedException {
                 return registerResults(result, mavenBuild);
@@ -275,13 +283,67 @@ public abstract class HealthAwareReporter<T extends BuildResult> extends MavenRe
         });
         logger.logLines(resultLog);
 
-        copyFilesWithAnnotationsToBuildFolder(logger, build.getRootDir(), result.getAnnotations());
-
         return true;
     }
 
+    /**
+     * Performs the reporter for the specified mojo and releases the snapshot
+     * of the workspace that has been shared by the parsers of the reporter,
+     * see {@link #shareWorkspaceSnapshot(MavenBuildProxy, MavenProject, MojoInfo, FilesParser)}.
+     *
+     * @param build
+     *            the build
+     * @param pom
+     *            the pom of the module
+     * @param mojo
+     *            the executed mojo
+     * @param logger
+     *            the logger
+     * @return the created result
+     * @throws InterruptedException
+     *             if the user canceled the operation
+     * @throws IOException
+     *             if the result could not be created
+     */
+    private ParserResult performAndReleaseSnapshot(final MavenBuildProxy build, final MavenProject pom,
+            final MojoInfo mojo, final PluginLogger logger) throws InterruptedException, IOException {
+        try {
+            return perform(build, pom, mojo, logger);
+        }
+        finally {
+            WorkspaceSnapshot.release(getBuildId(build, pom, mojo));
+        }
+    }
+
+    /**
+     * Lets the specified parser share a single snapshot of the workspace with
+     * the other parsers of this reporter and mojo. Call this method in
+     * {@link #perform(MavenBuildProxy, MavenProject, MojoInfo, PluginLogger)}
+     * for the parsers that scan the files of the module, the snapshot is
+     * released when the mojo has been reported, since the next mojo might
+     * create new files.
+     *
+     * @param build
+     *            the build
+     * @param pom
+     *            the pom of the module
+     * @param mojo
+     *            the executed mojo
+     * @param parser
+     *            the parser that should share the snapshot
+     */
+    protected void shareWorkspaceSnapshot(final MavenBuildProxy build, final MavenProject pom, final MojoInfo mojo,
+            final FilesParser parser) {
+        parser.setBuildId(getBuildId(build, pom, mojo));
+    }
+
+    private String getBuildId(final MavenBuildProxy build, final MavenProject pom, final MojoInfo mojo) {
+        return pom.getId() + "#" + build.getNumber() + "#" + mojo.getGoal();
+    }
+
     private String registerResults(final ParserResult result, final MavenBuild mavenBuild) {
         T buildResult = createResult(mavenBuild, result);
+        buildResult.removeWorkspaceFiles();
 
         StringPluginLogger pluginLogger = new StringPluginLogger(pluginName);
         buildResult.evaluateStatus(thresholds, useDeltaValues, pluginLogger);
@@ -359,6 +421,8 @@ public abstract class HealthAwareReporter<T extends BuildResult> extends MavenRe
 
     /**
      * Copies all files with annotations from the workspace to the build folder.
+     * Files whose content has been captured in the workspace already are
+     * written directly.
      *
      * @param logger
      *            logger to log any problems
@@ -366,6 +430,8 @@ public abstract class HealthAwareReporter<T extends BuildResult> extends MavenRe
      *            directory to store the copied files in
      * @param annotations
      *            annotations determining the actual files to copy
+     * @param workspaceFiles
+     *            the captured content of the files
      * @throws IOException
      *             if the files could not be written
      * @throws FileNotFoundException
@@ -373,8 +439,8 @@ public abstract class HealthAwareReporter<T extends BuildResult> extends MavenRe
      * @throws InterruptedException
      *             if the user cancels the processing
      */
-    private void copyFilesWithAnnotationsToBuildFolder(final PluginLogger logger, final FilePath buildRoot, final Collection<FileAnnotation> annotations) throws IOException,
-            FileNotFoundException, InterruptedException {
+    private void copyFilesWithAnnotationsToBuildFolder(final PluginLogger logger, final FilePath buildRoot, final Collection<FileAnnotation> annotations,
+            final Map<String, byte[]> workspaceFiles) throws IOException, FileNotFoundException, InterruptedException {
         FilePath directory = new FilePath(buildRoot, AbstractAnnotation.WORKSPACE_FILES);
         if (!directory.exists()) {
             directory.mkdirs();
@@ -384,7 +450,15 @@ public abstract class HealthAwareReporter<T extends BuildResult> extends MavenRe
             FilePath masterFile = new FilePath(directory, file.getTempName());
             if (!masterFile.exists()) {
                 try {
-                    new FilePath((Channel)null, file.getName()).copyTo(masterFile);
+                    byte[] content = workspaceFiles.get(file.getName());
+                    InputStream source;
+                    if (content == null) {
+                        source = new FilePath((Channel)null, file.getName()).read();
+                    }
+                    else {
+                        source = new ByteArrayInputStream(content);
+                    }
+                    SourceFileStore.compress(source, masterFile.write());
                 }
                 catch (IOException exception) {
                     String message = "Can't copy source file: source=" + file.getName() + ", destination=" + masterFile.getName();
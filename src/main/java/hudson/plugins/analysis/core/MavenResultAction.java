@@ -1,6 +1,5 @@
 package hudson.plugins.analysis.core;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -16,7 +15,6 @@ import org.kohsuke.stapler.StaplerProxy;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
-import hudson.FilePath;
 import hudson.maven.AggregatableAction;
 import hudson.maven.MavenAggregatedReport;
 import hudson.maven.MavenBuild;
@@ -26,9 +24,9 @@ import hudson.model.HealthReport;
 import hudson.model.AbstractBuild;
 
 import hudson.plugins.analysis.util.PluginLogger;
+import hudson.plugins.analysis.util.SourceFileStore;
 import hudson.plugins.analysis.util.StringPluginLogger;
 import hudson.plugins.analysis.util.ToolTipProvider;
-import hudson.plugins.analysis.util.model.AbstractAnnotation;
 
 /**
  * Base class for Maven aggregated build reports.
@@ -104,20 +102,24 @@ public abstract class MavenResultAction<T extends BuildResult> implements Staple
 
             setResult(createAggregatedResult(existingResult, additionalResult));
 
-            copySourceFilesToModuleBuildFolder(newBuild);
+            referenceSourceFilesOfModuleBuild(newBuild);
         }
     }
 
-    private void copySourceFilesToModuleBuildFolder(final MavenBuild newBuild) {
-        FilePath filePath = new FilePath(new File(newBuild.getRootDir(), AbstractAnnotation.WORKSPACE_FILES));
+    /**
+     * References the source files of the specified module build in the
+     * aggregated build. The files are not copied, they are resolved in the
+     * module build on demand.
+     *
+     * @param newBuild
+     *            the module build
+     */
+    private void referenceSourceFilesOfModuleBuild(final MavenBuild newBuild) {
         try {
-            filePath.copyRecursiveTo("*.tmp", new FilePath(new File(getOwner().getRootDir(), AbstractAnnotation.WORKSPACE_FILES)));
+            SourceFileStore.getStore(getOwner()).addModule(getOwner().getRootDir(), newBuild.getRootDir());
         }
         catch (IOException exception) {
-            Logger.getLogger(getClass().getName()).log(Level.SEVERE, "Can't copy workspace files: ", exception);
-        }
-        catch (InterruptedException exception) {
-            // ignore, user canceled the operation
+            Logger.getLogger(getClass().getName()).log(Level.SEVERE, "Can't reference workspace files: ", exception);
         }
     }
 
@@ -1,5 +1,6 @@
 package hudson.plugins.analysis.core;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -14,21 +15,22 @@ import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Multimap;
 
 import edu.umd.cs.findbugs.annotations.SuppressWarnings;
 import hudson.FilePath;
+import hudson.FilePath.FileCallable;
 
 import hudson.plugins.analysis.Messages;
 import hudson.plugins.analysis.util.FileFinder;
+import hudson.plugins.analysis.util.WorkspaceFileIndex;
+import hudson.plugins.analysis.util.WorkspaceSnapshot;
 import hudson.plugins.analysis.util.model.FileAnnotation;
 import hudson.plugins.analysis.util.model.Priority;
+import hudson.remoting.VirtualChannel;
 
 /**
  * Stores the collection of parsed annotations and associated error messages.
@@ -36,7 +38,7 @@ import hudson.plugins.analysis.util.model.Priority;
  *
  * @author Ulli Hafner
  */
-public class ParserResult implements Serializable {
+public class ParserResult implements Serializable, AnnotationSink {
     private static final long serialVersionUID = -8414545334379193330L;
     private static final String SLASH = "/";
 
@@ -54,13 +56,19 @@ public class ParserResult implements Serializable {
     private final Set<String> modules = new HashSet<String>();
     /** The workspace. */
     private final Workspace workspace;
-    /** A mapping of relative file names to absolute file names. */
-    @SuppressWarnings("Se")
-    private final Multimap<String, String> fileNameCache = HashMultimap.create();
+    /** The index of all workspace files, built on demand. */
+    private transient WorkspaceFileIndex fileIndex;
     /** The log messages. @since 1.20 **/
     private String logMessage;
     /** Total number of modules. @since 1.31 **/
     private int numberOfModules;
+    /**
+     * The content of the files with annotations that has been captured in the
+     * workspace, the key is the absolute file name with UNIX separators.
+     * Might be <code>null</code>.
+     */
+    @SuppressWarnings("Se")
+    private Map<String, byte[]> workspaceFiles;
 
     /**
      * Facade for the remote workspace.
@@ -73,6 +81,32 @@ public class ParserResult implements Serializable {
         String getPath();
 
         String[] findFiles(String pattern) throws IOException, InterruptedException;
+
+        /**
+         * Returns the absolute paths of the specified relative file names.
+         * File names that do not exist in this workspace are not part of the
+         * returned mapping. All file names are resolved in one call.
+         *
+         * @param fileNames
+         *            the relative file names
+         * @return the mapping of relative file names to absolute paths
+         * @throws IOException
+         *             if the workspace could not be accessed
+         * @throws InterruptedException
+         *             if the user cancels the resolving
+         */
+        Map<String, String> resolve(Collection<String> fileNames) throws IOException, InterruptedException;
+
+        /**
+         * Creates an index of all files in this workspace.
+         *
+         * @return the index
+         * @throws IOException
+         *             if the workspace could not be accessed
+         * @throws InterruptedException
+         *             if the user cancels the indexing
+         */
+        WorkspaceFileIndex createFileIndex() throws IOException, InterruptedException;
     }
 
     /**
@@ -89,7 +123,20 @@ public class ParserResult implements Serializable {
      *            the workspace to find the files in
      */
     public ParserResult(final FilePath workspace) {
-        this(new FilePathAdapter(workspace));
+        this(new FilePathAdapter(workspace, null));
+    }
+
+    /**
+     * Creates a new instance of {@link ParserResult}. The files of the
+     * workspace are found in the specified snapshot.
+     *
+     * @param workspace
+     *            the workspace to find the files in
+     * @param snapshot
+     *            the snapshot of the workspace, might be <code>null</code>
+     */
+    ParserResult(final FilePath workspace, final WorkspaceSnapshot snapshot) {
+        this(new FilePathAdapter(workspace, snapshot));
     }
 
     /**
@@ -129,6 +176,9 @@ public class ParserResult implements Serializable {
         addAnnotations(additionalProject.getAnnotations());
         addErrors(additionalProject.getErrorMessages());
         addModules(additionalProject.getModules());
+        for (Map.Entry<String, byte[]> file : additionalProject.getWorkspaceFiles().entrySet()) {
+            addWorkspaceFile(file.getKey(), file.getValue());
+        }
     }
 
     /**
@@ -158,7 +208,48 @@ public class ParserResult implements Serializable {
     }
 
     /**
-     * Returns the file name from the cache of all workspace files. The cache will
+     * Finds the files with relative filenames and replaces the names with the
+     * absolute paths. All names are resolved using a single call to the
+     * workspace.
+     *
+     * @param newAnnotations
+     *            the annotations
+     */
+    private void expandRelativePaths(final Collection<FileAnnotation> newAnnotations) {
+        Set<String> relativeFileNames = new HashSet<String>();
+        for (FileAnnotation annotation : newAnnotations) {
+            if (hasRelativeFileName(annotation)) {
+                relativeFileNames.add(annotation.getFileName());
+            }
+        }
+        if (relativeFileNames.isEmpty()) {
+            return;
+        }
+
+        try {
+            Map<String, String> absoluteFileNames = workspace.resolve(relativeFileNames);
+            for (FileAnnotation annotation : newAnnotations) {
+                if (hasRelativeFileName(annotation)) {
+                    String absoluteFileName = absoluteFileNames.get(annotation.getFileName());
+                    if (absoluteFileName == null) {
+                        findFileByScanningAllWorkspaceFiles(annotation);
+                    }
+                    else {
+                        annotation.setFileName(absoluteFileName);
+                    }
+                }
+            }
+        }
+        catch (IOException exception) {
+            // ignore
+        }
+        catch (InterruptedException exception) {
+            // ignore
+        }
+    }
+
+    /**
+     * Returns the file name from the index of all workspace files. The index will
      * be built only once.
      *
      * @param annotation
@@ -169,28 +260,18 @@ public class ParserResult implements Serializable {
      *             If the user cancels this action
      */
     private void findFileByScanningAllWorkspaceFiles(final FileAnnotation annotation) throws IOException, InterruptedException {
-        if (fileNameCache.isEmpty()) {
-            populateFileNameCache();
-        }
-
-        String fileName = FilenameUtils.getName(annotation.getFileName());
-        if (fileNameCache.containsKey(fileName)) {
-            int matchesCount = 0;
-            String absoluteFileName = null;
-            for (String match : fileNameCache.get(fileName)) {
-                if (match.contains(annotation.getFileName())) {
-                    absoluteFileName = workspace.getPath() + SLASH + match;
-                    matchesCount++;
-                }
-            }
-            if (matchesCount == 1) {
-                annotation.setFileName(absoluteFileName);
-            }
-            else {
-                LOGGER.log(Level.FINE, String.format(
-                        "Absolute filename could not be resolved for: %s. Found multiple matches: %s. ",
-                        annotation.getFileName(), fileNameCache.get(fileName)));
-            }
+        if (fileIndex == null) {
+            createFileIndex();
+        }
+
+        List<String> matches = fileIndex.find(annotation.getFileName());
+        if (matches.size() == 1) {
+            annotation.setFileName(workspace.getPath() + SLASH + matches.get(0));
+        }
+        else if (matches.size() > 1) {
+            LOGGER.log(Level.FINE, String.format(
+                    "Absolute filename could not be resolved for: %s. Found multiple matches: %s. ",
+                    annotation.getFileName(), matches));
         }
         else {
             LOGGER.log(Level.FINE, String.format(
@@ -200,21 +281,17 @@ public class ParserResult implements Serializable {
     }
 
     /**
-     * Builds a cache of file names in the remote file system.
+     * Builds an index of the file names in the remote file system.
      *
      * @throws IOException
      *             if the file could not be read
      * @throws InterruptedException
      *             if the user cancels the search
      */
-    // TODO: Maybe the file pattern should be exposed on the UI in order to speed up the scanning, see HUDSON-2927
-    private void populateFileNameCache() throws IOException, InterruptedException {
-        LOGGER.log(Level.FINE, "Building cache of all workspace files to obtain absolute filenames for all warnings: " + workspace.getPath());
+    private void createFileIndex() throws IOException, InterruptedException {
+        LOGGER.log(Level.FINE, "Building index of all workspace files to obtain absolute filenames for all warnings: " + workspace.getPath());
 
-        String[] allFiles = workspace.findFiles("**/*");
-        for (String file : allFiles) {
-            fileNameCache.put(FilenameUtils.getName(file), FilenameUtils.separatorsToUnix(file));
-        }
+        fileIndex = workspace.createFileIndex();
     }
 
     /**
@@ -238,20 +315,51 @@ public class ParserResult implements Serializable {
         if (!annotations.contains(annotation)) {
             expandRelativePaths(annotation);
 
-            annotations.add(annotation);
-            Integer count = annotationCountByPriority.get(annotation.getPriority());
-            annotationCountByPriority.put(annotation.getPriority(), count + 1);
+            add(annotation);
         }
     }
 
     /**
-     * Adds the specified annotations to this container.
+     * Adds the specified annotations to this container. The relative file
+     * names of all annotations are resolved at once.
      *
      * @param newAnnotations the annotations to add
      */
     public final void addAnnotations(final Collection<? extends FileAnnotation> newAnnotations) {
+        List<FileAnnotation> added = new ArrayList<FileAnnotation>(newAnnotations.size());
         for (FileAnnotation annotation : newAnnotations) {
-            addAnnotation(annotation);
+            if (!annotations.contains(annotation)) {
+                added.add(annotation);
+            }
+        }
+
+        expandRelativePaths(added);
+
+        for (FileAnnotation annotation : added) {
+            add(annotation);
+        }
+    }
+
+    private void add(final FileAnnotation annotation) {
+        if (annotations.add(annotation)) {
+            Integer count = annotationCountByPriority.get(annotation.getPriority());
+            annotationCountByPriority.put(annotation.getPriority(), count + 1);
+        }
+    }
+
+    /**
+     * Rebuilds the set of annotations. Must be called after properties that
+     * are part of the hash code of the annotations have been changed, e.g.
+     * the package name. Annotations that are equal now are merged.
+     */
+    void rehashAnnotations() {
+        List<FileAnnotation> all = new ArrayList<FileAnnotation>(annotations);
+        annotations.clear();
+        for (Priority priority : Priority.values()) {
+            annotationCountByPriority.put(priority, 0);
+        }
+        for (FileAnnotation annotation : all) {
+            add(annotation);
         }
     }
 
@@ -421,6 +529,55 @@ public class ParserResult implements Serializable {
         return getNumberOfAnnotations() + " annotations";
     }
 
+    /**
+     * Adds the content of a file with annotations that has been captured in
+     * the workspace. The content will be stored in the build folder instead
+     * of copying the file from the workspace again.
+     *
+     * @param fileName
+     *            the absolute name of the file
+     * @param content
+     *            the content of the file
+     */
+    void addWorkspaceFile(final String fileName, final byte[] content) {
+        if (workspaceFiles == null) {
+            workspaceFiles = new HashMap<String, byte[]>();
+        }
+        workspaceFiles.put(fileName.replace('\\', '/'), content);
+    }
+
+    /**
+     * Returns the content of the files with annotations that has been
+     * captured in the workspace.
+     *
+     * @return the content of the files, the key is the absolute file name
+     *         with UNIX separators
+     */
+    public Map<String, byte[]> getWorkspaceFiles() {
+        if (workspaceFiles == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(workspaceFiles);
+    }
+
+    /**
+     * Returns the content of the files with annotations that has been
+     * captured in the workspace and releases it. Call this method before the
+     * result is sent to another machine if the content is not required
+     * there anymore.
+     *
+     * @return the content of the files, the key is the absolute file name
+     *         with UNIX separators
+     */
+    Map<String, byte[]> removeWorkspaceFiles() {
+        Map<String, byte[]> files = workspaceFiles;
+        workspaceFiles = null;
+        if (files == null) {
+            return Collections.emptyMap();
+        }
+        return files;
+    }
+
     /**
      * Sets the log messages of the parsing process.
      *
@@ -448,20 +605,26 @@ public class ParserResult implements Serializable {
         private static final long serialVersionUID = 1976601889843466249L;
 
         private final FilePath wrapped;
+        /** The local snapshot of the workspace, might be <code>null</code>. */
+        private final transient WorkspaceSnapshot snapshot;
 
         /**
          * Creates a new instance of {@link FilePathAdapter}.
          *
          * @param workspace
          *            the {@link FilePath} to wrap
+         * @param snapshot
+         *            the local snapshot of the workspace, might be
+         *            <code>null</code>
          */
-        FilePathAdapter(final FilePath workspace) {
+        FilePathAdapter(final FilePath workspace, final WorkspaceSnapshot snapshot) {
             wrapped = workspace;
+            this.snapshot = snapshot;
         }
 
         /** {@inheritDoc} */
         public Workspace child(final String fileName) {
-            return new FilePathAdapter(wrapped.child(fileName));
+            return new FilePathAdapter(wrapped.child(fileName), null);
         }
 
         /** {@inheritDoc} */
@@ -476,8 +639,71 @@ public class ParserResult implements Serializable {
 
         /** {@inheritDoc} */
         public String[] findFiles(final String pattern) throws IOException, InterruptedException {
+            if (snapshot != null) {
+                return snapshot.find(pattern);
+            }
             return wrapped.act(new FileFinder(pattern));
         }
+
+        /** {@inheritDoc} */
+        public Map<String, String> resolve(final Collection<String> fileNames) throws IOException, InterruptedException {
+            Map<String, String> absoluteFileNames = new HashMap<String, String>();
+            for (String fileName : wrapped.act(new ExistingFilesFinder(fileNames))) {
+                absoluteFileNames.put(fileName, wrapped.child(fileName).getRemote());
+            }
+            return absoluteFileNames;
+        }
+
+        /** {@inheritDoc} */
+        public WorkspaceFileIndex createFileIndex() throws IOException, InterruptedException {
+            if (snapshot != null) {
+                return snapshot.getFileIndex();
+            }
+            return wrapped.act(new FileIndexBuilder());
+        }
+    }
+
+    /**
+     * Creates the index of all files in the workspace.
+     */
+    private static class FileIndexBuilder implements FileCallable<WorkspaceFileIndex> {
+        private static final long serialVersionUID = 8240768471650317361L;
+
+        /** {@inheritDoc} */
+        public WorkspaceFileIndex invoke(final File workspace, final VirtualChannel channel) throws IOException {
+            return WorkspaceFileIndex.create(workspace);
+        }
+    }
+
+    /**
+     * Returns the relative file names that exist in the workspace.
+     */
+    private static class ExistingFilesFinder implements FileCallable<List<String>> {
+        private static final long serialVersionUID = -4279406374328659462L;
+
+        /** The relative file names to check. */
+        private final List<String> fileNames;
+
+        /**
+         * Creates a new instance of {@link ExistingFilesFinder}.
+         *
+         * @param fileNames
+         *            the relative file names to check
+         */
+        ExistingFilesFinder(final Collection<String> fileNames) {
+            this.fileNames = new ArrayList<String>(fileNames);
+        }
+
+        /** {@inheritDoc} */
+        public List<String> invoke(final File workspace, final VirtualChannel channel) throws IOException {
+            List<String> existing = new ArrayList<String>();
+            for (String fileName : fileNames) {
+                if (new File(workspace, fileName).exists()) {
+                    existing.add(fileName);
+                }
+            }
+            return existing;
+        }
     }
 
     /**
@@ -505,6 +731,16 @@ public class ParserResult implements Serializable {
         public String[] findFiles(final String pattern) throws IOException, InterruptedException {
             return new String[0];
         }
+
+        /** {@inheritDoc} */
+        public Map<String, String> resolve(final Collection<String> fileNames) {
+            return Collections.emptyMap();
+        }
+
+        /** {@inheritDoc} */
+        public WorkspaceFileIndex createFileIndex() {
+            return new WorkspaceFileIndex(new String[0]);
+        }
     }
 
     private static final Logger LOGGER = Logger.getLogger(ParserResult.class.getName());
@@ -0,0 +1,305 @@
+package hudson.plugins.analysis.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+import hudson.plugins.analysis.util.CacheDirectory;
+import hudson.plugins.analysis.util.FileDigest;
+import hudson.plugins.analysis.util.model.AnnotationStream;
+import hudson.plugins.analysis.util.model.BinaryAnnotationStorage;
+import hudson.plugins.analysis.util.model.FileAnnotation;
+
+/**
+ * Caches the annotations of the report files that have been parsed in a
+ * previous build. The manifest of the cache records the size, modification
+ * time and content digest of each report file, the annotations of a report are
+ * stored in a {@link BinaryAnnotationStorage} next to the manifest. The
+ * content digest of a report is computed only if the size or the modification
+ * time of the report has been changed.
+ * <p>
+ * The cache is bound to the parser that created the annotations: if the
+ * configuration of the parser changes, then all cached annotations are
+ * discarded. This class is not thread safe.
+ * </p>
+ *
+ * @author Ulli Hafner
+ */
+public class ReportCache {
+    /** Identifies the file format (RPTS). */
+    private static final int MAGIC = 0x52505453;
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+    /** Size of the read and write buffers. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Name of the manifest file. */
+    private static final String MANIFEST = "manifest";
+    /** Suffix of the annotation files. */
+    private static final String ANNOTATIONS_SUFFIX = ".bin";
+
+    /** The folder of the cache. */
+    private final File folder;
+    /** The fingerprint of the parser that created the annotations. */
+    private final String parserFingerprint;
+    /** The cached reports, the key is the absolute path of the report. */
+    private final Map<String, Report> reports = new HashMap<String, Report>();
+    /** The reports that have been used since the cache has been loaded. */
+    private final Set<String> usedReports = new HashSet<String>();
+    /** Resolves annotation classes and serializes values of unknown types. */
+    private final AnnotationStream xstream = new AnnotationStream();
+    /** The ID of the next annotation file. */
+    private int nextId;
+
+    /**
+     * Loads the cache from the specified folder. If the cache does not exist,
+     * could not be read, or has been created by a parser with a different
+     * configuration, then an empty cache is returned.
+     *
+     * @param folder
+     *            the folder of the cache
+     * @param parser
+     *            the parser that creates the annotations
+     * @return the cache
+     * @throws IOException
+     *             if the fingerprint of the parser could not be computed
+     */
+    public static ReportCache load(final File folder, final Serializable parser) throws IOException {
+        ReportCache cache = new ReportCache(folder, getFingerprint(parser));
+        if (cache.getManifest().exists()) {
+            try {
+                cache.read();
+            }
+            catch (IOException exception) {
+                cache.reports.clear();
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns the fingerprint of the specified parser, i.e. the digest of its
+     * serialized form.
+     *
+     * @param parser
+     *            the parser
+     * @return the fingerprint
+     * @throws IOException
+     *             if the parser could not be serialized
+     */
+    private static String getFingerprint(final Serializable parser) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(parser);
+        output.close();
+
+        return FileDigest.create(bytes.toByteArray());
+    }
+
+    /**
+     * Creates a new instance of {@link ReportCache}.
+     *
+     * @param folder
+     *            the folder of the cache
+     * @param parserFingerprint
+     *            the fingerprint of the parser that creates the annotations
+     */
+    private ReportCache(final File folder, final String parserFingerprint) {
+        this.folder = folder;
+        this.parserFingerprint = parserFingerprint;
+    }
+
+    /**
+     * Returns the cached annotations of the specified report. Each returned
+     * annotation gets a new key.
+     *
+     * @param report
+     *            the report
+     * @param module
+     *            the module of the report
+     * @return the annotations or <code>null</code> if the report has been
+     *         changed or has not been cached yet
+     */
+    public FileAnnotation[] get(final File report, final String module) {
+        String fileName = report.getAbsolutePath();
+        Report cached = reports.get(fileName);
+        if (cached == null || !cached.module.equals(StringUtils.defaultString(module))) {
+            return null;
+        }
+        try {
+            long size = report.length();
+            long lastModified = report.lastModified();
+            if (cached.size != size || cached.lastModified != lastModified) {
+                if (!cached.digest.equals(FileDigest.create(report))) {
+                    return null;
+                }
+                cached.size = size;
+                cached.lastModified = lastModified;
+            }
+            FileAnnotation[] annotations = getStorage(cached.id).readWithNewKeys();
+            usedReports.add(fileName);
+
+            return annotations;
+        }
+        catch (IOException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the annotations of the specified report in the cache.
+     *
+     * @param report
+     *            the report
+     * @param module
+     *            the module of the report
+     * @param annotations
+     *            the annotations of the report
+     * @throws IOException
+     *             if the annotations could not be stored
+     */
+    public void put(final File report, final String module,
+            final Collection<? extends FileAnnotation> annotations) throws IOException {
+        String fileName = report.getAbsolutePath();
+        Report cached = reports.remove(fileName);
+        int id = cached == null ? nextId++ : cached.id;
+
+        long size = report.length();
+        long lastModified = report.lastModified();
+        String digest = FileDigest.create(report);
+        getStorage(id).write(annotations);
+
+        reports.put(fileName, new Report(id, StringUtils.defaultString(module), size, lastModified, digest));
+        usedReports.add(fileName);
+    }
+
+    /**
+     * Saves the manifest of the cache. The reports that have not been used
+     * since the cache has been loaded are removed from the cache.
+     *
+     * @throws IOException
+     *             if the manifest could not be written
+     */
+    public void save() throws IOException {
+        for (Iterator<Map.Entry<String, Report>> iterator = reports.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<String, Report> entry = iterator.next();
+            if (!usedReports.contains(entry.getKey())) {
+                getStorage(entry.getValue().id).getFile().delete();
+                iterator.remove();
+            }
+        }
+        write();
+    }
+
+    private BinaryAnnotationStorage getStorage(final int id) {
+        return new BinaryAnnotationStorage(new File(folder, id + ANNOTATIONS_SUFFIX), xstream);
+    }
+
+    private File getManifest() {
+        return new File(folder, MANIFEST);
+    }
+
+    private void read() throws IOException {
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(getManifest()), BUFFER_SIZE));
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Not a report cache: " + getManifest());
+            }
+            if (!parserFingerprint.equals(input.readUTF())) {
+                deleteAnnotationFiles();
+                return;
+            }
+            nextId = input.readInt();
+            int size = input.readInt();
+            for (int i = 0; i < size; i++) {
+                String fileName = input.readUTF();
+                reports.put(fileName, new Report(input.readInt(), input.readUTF(), input.readLong(),
+                        input.readLong(), input.readUTF()));
+            }
+        }
+        finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    private void deleteAnnotationFiles() {
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(ANNOTATIONS_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private void write() throws IOException {
+        File manifest = getManifest();
+        File temp = CacheDirectory.createTempFile(manifest);
+        DataOutputStream output = null;
+        boolean written = false;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(parserFingerprint);
+            output.writeInt(nextId);
+            output.writeInt(reports.size());
+            for (Map.Entry<String, Report> entry : reports.entrySet()) {
+                Report report = entry.getValue();
+                output.writeUTF(entry.getKey());
+                output.writeInt(report.id);
+                output.writeUTF(report.module);
+                output.writeLong(report.size);
+                output.writeLong(report.lastModified);
+                output.writeUTF(report.digest);
+            }
+            output.close();
+            written = true;
+        }
+        finally {
+            IOUtils.closeQuietly(output);
+            if (!written) {
+                temp.delete();
+            }
+        }
+        CacheDirectory.replace(temp, manifest);
+    }
+
+    /**
+     * The state of a cached report.
+     */
+    private static final class Report {
+        /** The ID of the file that stores the annotations. */
+        private final int id;
+        private final String module;
+        private long size;
+        private long lastModified;
+        private final String digest;
+
+        Report(final int id, final String module, final long size, final long lastModified, final String digest) {
+            this.id = id;
+            this.module = module;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package hudson.plugins.analysis.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+
+import hudson.plugins.analysis.util.SourceFileStore;
+
+/**
+ * Removes the source files from the {@link SourceFileStore} of a job that are
+ * not referenced anymore after a build has been deleted. The files are
+ * removed in the background: all builds of a job that are deleted within
+ * one minute (e.g., by the log rotation) are handled by a single collection.
+ * The sources of a deleted Maven module build are stored in the aggregated
+ * builds that reference them before the module build is removed.
+ *
+ * @author Ulli Hafner
+ */
+@Extension
+@SuppressWarnings("rawtypes")
+public class SourceFileStoreCleaner extends RunListener<Run> {
+    /** Delay in seconds before the stored files of a job are collected. */
+    private static final long DELAY = 60;
+    private static final Logger LOGGER = Logger.getLogger(SourceFileStoreCleaner.class.getName());
+
+    /** The deleted builds of each job whose stored files are not collected yet. */
+    private static final Map<File, Set<File>> PENDING = new HashMap<File, Set<File>>();
+    /** Collects the stored files in the background. */
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, SourceFileStoreCleaner.class.getSimpleName());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Creates a new instance of {@link SourceFileStoreCleaner}.
+     */
+    public SourceFileStoreCleaner() {
+        super(Run.class);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onDeleted(final Run run) {
+        File jobRoot = run.getParent().getRootDir();
+        SourceFileStore store = new SourceFileStore(jobRoot);
+        try {
+            store.copyToReferrers(run.getRootDir());
+        }
+        catch (IOException exception) {
+            LOGGER.log(Level.WARNING, "Can't store the sources of a module build in the aggregated builds: ", exception);
+        }
+        if (!store.exists()) {
+            return;
+        }
+        synchronized (PENDING) {
+            Set<File> deleted = PENDING.get(jobRoot);
+            if (deleted == null) {
+                deleted = new HashSet<File>();
+                PENDING.put(jobRoot, deleted);
+                EXECUTOR.schedule(new Collector(jobRoot), DELAY, TimeUnit.SECONDS);
+            }
+            deleted.add(run.getRootDir());
+        }
+    }
+
+    /**
+     * Removes the stored files of a job that are not referenced by the
+     * remaining builds.
+     */
+    private static final class Collector implements Runnable {
+        private final File jobRoot;
+
+        Collector(final File jobRoot) {
+            this.jobRoot = jobRoot;
+        }
+
+        /** {@inheritDoc} */
+        public void run() {
+            Set<File> deleted;
+            synchronized (PENDING) {
+                deleted = PENDING.remove(jobRoot);
+            }
+            try {
+                new SourceFileStore(jobRoot).collectGarbage(deleted);
+            }
+            catch (IOException exception) {
+                LOGGER.log(Level.WARNING, "Can't remove unused source files: ", exception);
+            }
+        }
+    }
+}
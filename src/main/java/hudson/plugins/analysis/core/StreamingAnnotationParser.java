@@ -0,0 +1,33 @@
+package hudson.plugins.analysis.core;
+
+import java.io.File;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * A parser for annotations that delivers the annotations to an
+ * {@link AnnotationSink} while the file is read. In contrast to an
+ * {@link AnnotationParser} the annotations of a file are never collected in
+ * memory by the parser.
+ *
+ * @author Ulli Hafner
+ * @see AnnotationParserAdapter
+ */
+public interface StreamingAnnotationParser extends Serializable {
+    /**
+     * Parses the specified file and adds all found annotations to the
+     * specified sink. If the file could not be parsed completely then the
+     * annotations that have been found before the error remain in the sink.
+     *
+     * @param file
+     *            the file to parse
+     * @param moduleName
+     *            name of the maven module
+     * @param sink
+     *            the sink that receives the annotations
+     * @return the number of annotations that have been added to the sink
+     * @throws InvocationTargetException
+     *             if the file could not be parsed (wrap your exception in this exception)
+     */
+    int parse(final File file, final String moduleName, final AnnotationSink sink) throws InvocationTargetException;
+}
@@ -0,0 +1,59 @@
+package hudson.plugins.analysis.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import hudson.FilePath.FileCallable;
+
+import hudson.plugins.analysis.util.FileDigest;
+
+import hudson.remoting.VirtualChannel;
+
+/**
+ * Computes the digests of the content of several files of the workspace. This
+ * callable is executed on the machine that owns the workspace, so only the
+ * digests are sent to the master.
+ *
+ * @author Ulli Hafner
+ */
+class WorkspaceFilesDigester implements FileCallable<Map<String, String>> {
+    private static final long serialVersionUID = 4467934231690329467L;
+
+    /** The absolute names of the files. */
+    private final Collection<String> fileNames;
+
+    /**
+     * Creates a new instance of {@link WorkspaceFilesDigester}.
+     *
+     * @param fileNames
+     *            the absolute names of the files
+     */
+    WorkspaceFilesDigester(final Collection<String> fileNames) {
+        this.fileNames = fileNames;
+    }
+
+    /**
+     * Computes the digests. Files that could not be read are skipped.
+     *
+     * @param file
+     *            not used
+     * @param channel
+     *            not used
+     * @return the digests of the files, the key is the absolute file name
+     */
+    public Map<String, String> invoke(final File file, final VirtualChannel channel) {
+        Map<String, String> digests = new HashMap<String, String>();
+        for (String fileName : fileNames) {
+            try {
+                digests.put(fileName, FileDigest.create(new File(fileName)));
+            }
+            catch (IOException exception) {
+                // skip, the file is copied and reported on its own
+            }
+        }
+        return digests;
+    }
+}
@@ -0,0 +1,91 @@
+package hudson.plugins.analysis.core;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import hudson.FilePath.FileCallable;
+
+import hudson.remoting.VirtualChannel;
+
+/**
+ * Packs several files of the workspace into a single compressed ZIP stream.
+ * This callable is executed on the machine that owns the workspace, the
+ * stream is typically the writing end of a pipe to the master.
+ *
+ * @author Ulli Hafner
+ */
+class WorkspaceFilesPacker implements FileCallable<Map<String, IOException>> {
+    private static final long serialVersionUID = -3311823542127093405L;
+    /** Size of the write buffer. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The entry names of the files to pack, the key is the absolute file name. */
+    private final Map<String, String> entries;
+    /** The stream to write the archive to. */
+    private final OutputStream output;
+
+    /**
+     * Creates a new instance of {@link WorkspaceFilesPacker}.
+     *
+     * @param entries
+     *            the entry names of the files to pack, the key is the
+     *            absolute file name
+     * @param output
+     *            the stream to write the archive to, will be closed
+     */
+    WorkspaceFilesPacker(final Map<String, String> entries, final OutputStream output) {
+        this.entries = entries;
+        this.output = output;
+    }
+
+    /**
+     * Writes the archive. Files that could not be opened are skipped.
+     *
+     * @param file
+     *            not used
+     * @param channel
+     *            not used
+     * @return the exceptions of the files that could not be opened, the key
+     *         is the absolute file name
+     * @throws IOException
+     *             if the archive could not be written
+     */
+    public Map<String, IOException> invoke(final File file, final VirtualChannel channel) throws IOException {
+        Map<String, IOException> failures = new HashMap<String, IOException>();
+        ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(output, BUFFER_SIZE));
+        try {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                InputStream input;
+                try {
+                    input = new FileInputStream(new File(entry.getKey()));
+                }
+                catch (IOException exception) {
+                    failures.put(entry.getKey(), exception);
+                    continue;
+                }
+                try {
+                    zip.putNextEntry(new ZipEntry(entry.getValue()));
+                    IOUtils.copy(input, zip);
+                    zip.closeEntry();
+                }
+                finally {
+                    IOUtils.closeQuietly(input);
+                }
+            }
+        }
+        finally {
+            zip.close();
+        }
+        return failures;
+    }
+}
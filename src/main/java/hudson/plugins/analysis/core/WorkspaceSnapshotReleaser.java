@@ -0,0 +1,104 @@
+package hudson.plugins.analysis.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+
+import hudson.model.AbstractBuild;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import hudson.plugins.analysis.util.WorkspaceSnapshot;
+
+import hudson.remoting.VirtualChannel;
+
+/**
+ * Releases the {@link WorkspaceSnapshot} that has been shared by the
+ * publishers of a build when the build has been finished. The snapshot is
+ * released on the machine that owns the workspace.
+ *
+ * @author Ulli Hafner
+ */
+@Extension
+@SuppressWarnings("rawtypes")
+public class WorkspaceSnapshotReleaser extends RunListener<AbstractBuild> {
+    /** The IDs of the running builds that share a snapshot. */
+    private static final Set<String> BUILD_IDS = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * Registers the specified build so that its snapshot is released when the
+     * build has been finished.
+     *
+     * @param build
+     *            the build that shares a snapshot
+     * @return the unique ID of the build
+     */
+    static String register(final AbstractBuild<?, ?> build) {
+        String buildId = getBuildId(build);
+        BUILD_IDS.add(buildId);
+
+        return buildId;
+    }
+
+    private static String getBuildId(final AbstractBuild<?, ?> build) {
+        return build.getProject().getFullName() + "#" + build.getNumber();
+    }
+
+    /**
+     * Creates a new instance of {@link WorkspaceSnapshotReleaser}.
+     */
+    public WorkspaceSnapshotReleaser() {
+        super(AbstractBuild.class);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void onCompleted(final AbstractBuild build, final TaskListener listener) {
+        String buildId = getBuildId(build);
+        if (BUILD_IDS.remove(buildId)) {
+            FilePath workspace = build.getWorkspace();
+            if (workspace != null) {
+                try {
+                    workspace.act(new Releaser(buildId));
+                }
+                catch (IOException exception) {
+                    Logger.getLogger(getClass().getName()).log(Level.WARNING, "Can't release workspace snapshot: ", exception);
+                }
+                catch (InterruptedException exception) {
+                    Logger.getLogger(getClass().getName()).log(Level.WARNING, "Can't release workspace snapshot: ", exception);
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the snapshots of a build on the machine that owns the
+     * workspace.
+     */
+    private static class Releaser implements FileCallable<Void> {
+        private static final long serialVersionUID = 5409414785839744617L;
+
+        /** The unique ID of the build. */
+        private final String buildId;
+
+        Releaser(final String buildId) {
+            this.buildId = buildId;
+        }
+
+        /** {@inheritDoc} */
+        public Void invoke(final File workspace, final VirtualChannel channel) {
+            WorkspaceSnapshot.release(buildId);
+
+            return null;
+        }
+    }
+}
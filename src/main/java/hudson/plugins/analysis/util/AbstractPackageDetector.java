@@ -7,13 +7,17 @@ import java.io.FileNotFoundException;
 import org.apache.commons.io.IOUtils;
 
 /**
- * Base class for package detectors.
+ * Base class for package detectors. Since the package or namespace is
+ * declared in the header of a file, the detectors scan at most
+ * {@link #MAXIMUM_HEADER_LINES} lines and stop at the first type declaration.
  *
  * @author Ulli Hafner
  */
 public abstract class AbstractPackageDetector implements PackageDetector {
     /** Identifies an unknown package. */
     protected static final String UNKNOWN_PACKAGE = "-";
+    /** Maximum number of lines that are scanned for a package declaration. */
+    protected static final int MAXIMUM_HEADER_LINES = 1000;
 
     /** {@inheritDoc} */
     public String detectPackageName(final String fileName) {
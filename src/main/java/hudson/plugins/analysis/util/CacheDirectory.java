@@ -0,0 +1,134 @@
+package hudson.plugins.analysis.util;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Provides the location of the caches that are stored on the machine that
+ * owns the workspace, i.e. on the agent. The caches are never stored in the
+ * workspace itself: the folder of a workspace is created below a root folder
+ * outside of the SCM checkout. The root folder is
+ * <code>&lt;java.io.tmpdir&gt;/hudson-analysis-&lt;user.name&gt;</code> and
+ * might be changed with the system property
+ * <code>hudson.plugins.analysis.util.CacheDirectory.root</code>. All caches
+ * validate their entries, so a cache that has been removed is simply created
+ * again.
+ *
+ * @author Ulli Hafner
+ */
+public final class CacheDirectory {
+    /** Name of the system property that overrides the root folder. */
+    private static final String ROOT_PROPERTY = CacheDirectory.class.getName() + ".root";
+    /** Prefix of the default root folder name. */
+    private static final String ROOT_PREFIX = "hudson-analysis-";
+    /** Suffix of temporary files that will be renamed after a successful write. */
+    private static final String TEMP_SUFFIX = ".tmp";
+    /** Minimum length of the prefix of a temporary file. */
+    private static final int MINIMUM_PREFIX_LENGTH = 3;
+
+    /**
+     * Returns the cache file with the specified name of the given workspace.
+     * The parent folder of the file is created if required.
+     *
+     * @param workspace
+     *            the workspace
+     * @param name
+     *            the name of the cache file
+     * @return the cache file or <code>null</code> if the cache folder could
+     *         not be created
+     */
+    public static File getFile(final File workspace, final String name) {
+        File folder = getFolder(workspace);
+        if (folder.isDirectory() || folder.mkdirs()) {
+            return new File(folder, name);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the cache folder of the specified workspace. The folder is not
+     * created.
+     *
+     * @param workspace
+     *            the workspace
+     * @return the cache folder
+     */
+    public static File getFolder(final File workspace) {
+        return new File(getRoot(), getFolderName(workspace));
+    }
+
+    /**
+     * Returns the root folder of all caches.
+     *
+     * @return the root folder
+     */
+    static File getRoot() {
+        String root = System.getProperty(ROOT_PROPERTY);
+        if (root == null || root.trim().length() == 0) {
+            return new File(System.getProperty("java.io.tmpdir"), ROOT_PREFIX + System.getProperty("user.name"));
+        }
+        return new File(root);
+    }
+
+    /**
+     * Returns the name of the cache folder of the specified workspace. The
+     * name is unique for the absolute path of the workspace.
+     *
+     * @param workspace
+     *            the workspace
+     * @return the name of the folder
+     */
+    private static String getFolderName(final File workspace) {
+        File absolute = workspace.getAbsoluteFile();
+        return absolute.getName() + "-" + Integer.toHexString(absolute.getPath().hashCode());
+    }
+
+    /**
+     * Creates a new temporary file in the folder of the specified file. The
+     * name of the temporary file is unique, so concurrent builds that write
+     * the same file do not overwrite each other's temporary file.
+     *
+     * @param file
+     *            the file that will be replaced by the temporary file
+     * @return the temporary file
+     * @throws IOException
+     *             if the file could not be created
+     * @see #replace(File, File)
+     */
+    public static File createTempFile(final File file) throws IOException {
+        String prefix = file.getName();
+        while (prefix.length() < MINIMUM_PREFIX_LENGTH) {
+            prefix += "_";
+        }
+        return File.createTempFile(prefix, TEMP_SUFFIX, file.getParentFile());
+    }
+
+    /**
+     * Replaces the specified file with the given temporary file. If the file
+     * could not be replaced, then the temporary file is deleted.
+     *
+     * @param temp
+     *            the temporary file that has been written
+     * @param file
+     *            the file to replace
+     * @throws IOException
+     *             if the file could not be replaced
+     */
+    public static void replace(final File temp, final File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            temp.delete();
+            throw new IOException("Can't replace existing file " + file);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Can't rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * Creates a new instance of {@link CacheDirectory}.
+     */
+    private CacheDirectory() {
+        // prevents instantiation
+    }
+}
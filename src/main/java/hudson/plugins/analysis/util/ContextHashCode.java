@@ -1,8 +1,15 @@
 package hudson.plugins.analysis.util;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.LineIterator;
+import org.apache.commons.lang.StringUtils;
 
 /**
  * Creates a hash code from the source code of the warning line and the
@@ -14,6 +21,8 @@ public class ContextHashCode {
     /** Number of lines before and after current line to consider. */
     private static final int LINES_LOOK_AHEAD = 3;
     private static final int BUFFER_SIZE = 1000;
+    /** Number of lines of the context: the lines before, the line itself and the lines after. */
+    private static final int WINDOW_SIZE = 2 * LINES_LOOK_AHEAD + 2;
 
     /**
      * Creates a hash code from the source code of the warning line and the
@@ -31,21 +40,118 @@ public class ContextHashCode {
      *             if the contents of the file could not be read
      */
     public int create(final String fileName, final int line, final String encoding) throws IOException {
-        LineIterator lineIterator = EncodingValidator.readFile(fileName, encoding);
+        return create(fileName, new int[] {line}, encoding)[0];
+    }
 
-        StringBuilder context = new StringBuilder(BUFFER_SIZE);
-        for (int i = 0; lineIterator.hasNext(); i++) {
-            String currentLine = lineIterator.nextLine();
-            if (i >= line - LINES_LOOK_AHEAD) {
-                context.append(currentLine);
+    /**
+     * Creates the hash codes from the source code of several warning lines
+     * of the same file and the surrounding context. The file is read only
+     * once: the last lines are kept in a sliding window, and the hash code of
+     * a warning is computed as soon as its context has been read completely.
+     *
+     * @param fileName
+     *            the absolute path of the file to read
+     * @param lines
+     *            the lines of the warnings
+     * @param encoding
+     *            the encoding of the file, if <code>null</code> or empty then
+     *            the default encoding of the platform is used
+     * @return the hash codes of the source code, the hash code of the line
+     *         <code>lines[i]</code> is returned at position <code>i</code>
+     * @throws IOException
+     *             if the contents of the file could not be read
+     */
+    public int[] create(final String fileName, final int[] lines, final String encoding) throws IOException {
+        return create(EncodingValidator.readFile(fileName, encoding), lines);
+    }
+
+    /**
+     * Creates the hash codes from the source code of several warning lines
+     * of the same file and the surrounding context. The content of the file
+     * has been read already.
+     *
+     * @param fileName
+     *            the absolute path of the file
+     * @param content
+     *            the content of the file
+     * @param lines
+     *            the lines of the warnings
+     * @param encoding
+     *            the encoding of the file, if <code>null</code> or empty then
+     *            the default encoding of the platform is used
+     * @return the hash codes of the source code, the hash code of the line
+     *         <code>lines[i]</code> is returned at position <code>i</code>
+     * @throws IOException
+     *             if the contents of the file could not be read
+     */
+    public int[] create(final String fileName, final byte[] content, final int[] lines, final String encoding) throws IOException {
+        InputStream stream = new ByteArrayInputStream(content);
+        if (StringUtils.isNotBlank(encoding)) {
+            return create(IOUtils.lineIterator(stream, encoding), lines);
+        }
+        return create(IOUtils.lineIterator(stream, null), lines);
+    }
+
+    private int[] create(final LineIterator lineIterator, final int[] lines) {
+        int[] sortedLines = lines.clone();
+        Arrays.sort(sortedLines);
+        Map<Integer, Integer> hashCodes = new HashMap<Integer, Integer>();
+
+        try {
+            String[] window = new String[WINDOW_SIZE];
+            int next = 0;
+            int lineNumber = 0;
+            for (; lineIterator.hasNext() && next < sortedLines.length; lineNumber++) {
+                window[lineNumber % WINDOW_SIZE] = lineIterator.nextLine();
+                while (next < sortedLines.length && getLastLine(sortedLines[next]) == lineNumber) {
+                    next = put(hashCodes, window, sortedLines, next, lineNumber);
+                }
             }
-            if (i > line + LINES_LOOK_AHEAD) {
-                break;
+            while (next < sortedLines.length) {
+                next = put(hashCodes, window, sortedLines, next, lineNumber - 1);
             }
         }
-        lineIterator.close();
+        finally {
+            lineIterator.close();
+        }
+
+        int[] result = new int[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            result[i] = hashCodes.get(lines[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Computes the hash code of the context of the line at the specified
+     * position and stores it in the specified map.
+     *
+     * @return the position of the next line with a different value
+     */
+    private int put(final Map<Integer, Integer> hashCodes, final String[] window,
+            final int[] sortedLines, final int position, final int lastLine) {
+        int line = sortedLines[position];
+        hashCodes.put(line, createHashCode(window, Math.max(0, line - LINES_LOOK_AHEAD), lastLine));
+
+        int next = position + 1;
+        while (next < sortedLines.length && sortedLines[next] == line) {
+            next++;
+        }
+        return next;
+    }
 
+    /**
+     * Returns the last line of the context of the specified line.
+     */
+    private int getLastLine(final int line) {
+        return Math.max(0, line + LINES_LOOK_AHEAD + 1);
+    }
+
+    private int createHashCode(final String[] window, final int from, final int to) {
+        StringBuilder context = new StringBuilder(BUFFER_SIZE);
+        for (int i = from; i <= to; i++) {
+            context.append(window[i % WINDOW_SIZE]);
+        }
         return context.toString().hashCode();
     }
 }
-
@@ -0,0 +1,330 @@
+package hudson.plugins.analysis.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Caches the context hash codes of source files across builds. The hash codes
+ * are stored for the digest of the file content (and the encoding), so the
+ * hash codes of files that did not change since a previous build are not
+ * computed again. The digest of a file is computed only if the size or the
+ * modification time of the file has been changed.
+ * <p>
+ * Entries that have not been used by several consecutive builds are removed
+ * when the cache is saved.
+ * </p>
+ *
+ * @author Ulli Hafner
+ */
+public class ContextHashCodeCache extends ContextHashCode {
+    /** Identifies the file format (CTXH). */
+    private static final int MAGIC = 0x43545848;
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+    /** Number of saves an unused entry survives. */
+    private static final int MAXIMUM_AGE = 10;
+    /** Size of the read and write buffers. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Separates the digest and the encoding of a key. */
+    private static final String SEPARATOR = "|";
+
+    /** The file to read and write. */
+    private final File file;
+    /** The size, modification time and digest of each source file. */
+    private final Map<String, FileState> files = new HashMap<String, FileState>();
+    /** The hash codes of each file content. */
+    private final Map<String, Content> contents = new HashMap<String, Content>();
+
+    /**
+     * Loads the cache from the specified file. If the file does not exist or
+     * could not be read, then an empty cache is returned.
+     *
+     * @param file
+     *            the file of the cache
+     * @return the cache
+     */
+    public static ContextHashCodeCache load(final File file) {
+        ContextHashCodeCache cache = new ContextHashCodeCache(file);
+        if (file.exists()) {
+            try {
+                cache.read();
+            }
+            catch (IOException exception) {
+                cache.files.clear();
+                cache.contents.clear();
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Creates a new instance of {@link ContextHashCodeCache}.
+     *
+     * @param file
+     *            the file of the cache
+     */
+    public ContextHashCodeCache(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * {@inheritDoc} If the hash codes are not cached yet, then they are
+     * computed and stored in the cache. If the file has been changed, then it
+     * is read only once: the digest and the hash codes are computed from the
+     * same content.
+     */
+    @Override
+    public int[] create(final String fileName, final int[] lines, final String encoding) throws IOException {
+        int[] hashCodes = getCachedHashCodes(fileName, lines, encoding);
+        if (hashCodes == null) {
+            hashCodes = create(fileName, FileUtils.readFileToByteArray(new File(fileName)), lines, encoding);
+        }
+        return hashCodes;
+    }
+
+    /**
+     * {@inheritDoc} If the hash codes are not cached yet, then they are
+     * computed and stored in the cache.
+     */
+    @Override
+    public int[] create(final String fileName, final byte[] content, final int[] lines, final String encoding) throws IOException {
+        String key = getDigest(new File(fileName), content) + SEPARATOR + StringUtils.defaultString(encoding);
+        int[] hashCodes = get(key, lines);
+        if (hashCodes == null) {
+            hashCodes = super.create(fileName, content, lines, encoding);
+            put(key, lines, hashCodes);
+        }
+        return hashCodes;
+    }
+
+    /**
+     * Returns the cached hash codes of the specified lines of a file. The file
+     * is not read: if the size or the modification time of the file has been
+     * changed since the hash codes have been cached, then <code>null</code>
+     * is returned.
+     *
+     * @param fileName
+     *            the absolute path of the file
+     * @param lines
+     *            the lines of the warnings
+     * @param encoding
+     *            the encoding of the file
+     * @return the hash codes of the source code, or <code>null</code> if the
+     *         hash codes need to be computed by reading the file
+     */
+    public int[] getCachedHashCodes(final String fileName, final int[] lines, final String encoding) {
+        String digest = getCachedDigest(new File(fileName));
+        if (digest == null) {
+            return null;
+        }
+        return get(digest + SEPARATOR + StringUtils.defaultString(encoding), lines);
+    }
+
+    /**
+     * Saves the cache to its file. Entries that have not been used for
+     * several saves are removed.
+     *
+     * @throws IOException
+     *             if the file could not be written
+     */
+    public synchronized void save() throws IOException {
+        for (Iterator<Content> iterator = contents.values().iterator(); iterator.hasNext();) {
+            Content content = iterator.next();
+            if (content.used) {
+                content.age = 0;
+            }
+            else if (++content.age > MAXIMUM_AGE) {
+                iterator.remove();
+            }
+        }
+        Set<String> digests = new HashSet<String>();
+        for (String key : contents.keySet()) {
+            digests.add(StringUtils.substringBefore(key, SEPARATOR));
+        }
+        for (Iterator<FileState> iterator = files.values().iterator(); iterator.hasNext();) {
+            if (!digests.contains(iterator.next().digest)) {
+                iterator.remove();
+            }
+        }
+        write();
+    }
+
+    private synchronized int[] get(final String key, final int[] lines) {
+        Content content = contents.get(key);
+        if (content == null) {
+            return null;
+        }
+        content.used = true;
+
+        int[] hashCodes = new int[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            Integer hashCode = content.hashCodes.get(lines[i]);
+            if (hashCode == null) {
+                return null;
+            }
+            hashCodes[i] = hashCode;
+        }
+        return hashCodes;
+    }
+
+    private synchronized void put(final String key, final int[] lines, final int[] hashCodes) {
+        Content content = contents.get(key);
+        if (content == null) {
+            content = new Content();
+            contents.put(key, content);
+        }
+        content.used = true;
+        for (int i = 0; i < lines.length; i++) {
+            content.hashCodes.put(lines[i], hashCodes[i]);
+        }
+    }
+
+    /**
+     * Returns the digest of the specified file. If the file has been changed,
+     * then the digest is computed from the specified content.
+     *
+     * @param source
+     *            the file
+     * @param content
+     *            the content of the file
+     * @return the digest
+     * @throws IOException
+     *             if the digest could not be computed
+     */
+    private String getDigest(final File source, final byte[] content) throws IOException {
+        long size = source.length();
+        long lastModified = source.lastModified();
+        String digest = getCachedDigest(source);
+        if (digest == null) {
+            digest = FileDigest.create(content);
+            synchronized (this) {
+                files.put(source.getAbsolutePath(), new FileState(size, lastModified, digest));
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Returns the digest of the specified file if the size and the
+     * modification time of the file are unchanged.
+     *
+     * @param source
+     *            the file
+     * @return the digest of the file, or <code>null</code> if the file has
+     *         been changed
+     */
+    private synchronized String getCachedDigest(final File source) {
+        FileState state = files.get(source.getAbsolutePath());
+        if (state != null && state.size == source.length() && state.lastModified == source.lastModified()) {
+            return state.digest;
+        }
+        return null;
+    }
+
+    private void read() throws IOException {
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Not a context hash code cache: " + file);
+            }
+            int numberOfFiles = input.readInt();
+            for (int i = 0; i < numberOfFiles; i++) {
+                String path = input.readUTF();
+                files.put(path, new FileState(input.readLong(), input.readLong(), input.readUTF()));
+            }
+            int numberOfContents = input.readInt();
+            for (int i = 0; i < numberOfContents; i++) {
+                String key = input.readUTF();
+                Content content = new Content();
+                content.age = input.readInt();
+                int size = input.readInt();
+                for (int line = 0; line < size; line++) {
+                    content.hashCodes.put(input.readInt(), input.readInt());
+                }
+                contents.put(key, content);
+            }
+        }
+        finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    private void write() throws IOException {
+        File temp = CacheDirectory.createTempFile(file);
+        DataOutputStream output = null;
+        boolean written = false;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(files.size());
+            for (Map.Entry<String, FileState> entry : files.entrySet()) {
+                FileState state = entry.getValue();
+                output.writeUTF(entry.getKey());
+                output.writeLong(state.size);
+                output.writeLong(state.lastModified);
+                output.writeUTF(state.digest);
+            }
+            output.writeInt(contents.size());
+            for (Map.Entry<String, Content> entry : contents.entrySet()) {
+                Content content = entry.getValue();
+                output.writeUTF(entry.getKey());
+                output.writeInt(content.age);
+                output.writeInt(content.hashCodes.size());
+                for (Map.Entry<Integer, Integer> hashCode : content.hashCodes.entrySet()) {
+                    output.writeInt(hashCode.getKey());
+                    output.writeInt(hashCode.getValue());
+                }
+            }
+            output.close();
+            written = true;
+        }
+        finally {
+            IOUtils.closeQuietly(output);
+            if (!written) {
+                temp.delete();
+            }
+        }
+        CacheDirectory.replace(temp, file);
+    }
+
+    /**
+     * Size, modification time and digest of a source file.
+     */
+    private static final class FileState {
+        private final long size;
+        private final long lastModified;
+        private final String digest;
+
+        FileState(final long size, final long lastModified, final String digest) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * The context hash codes of the lines of a file content.
+     */
+    private static final class Content {
+        private final Map<Integer, Integer> hashCodes = new HashMap<Integer, Integer>();
+        private int age;
+        private boolean used;
+    }
+}
@@ -2,6 +2,7 @@ package hudson.plugins.analysis.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.LineIterator;
@@ -14,6 +15,10 @@ import org.apache.commons.lang.StringUtils;
  */
 // CHECKSTYLE:CONSTANTS-OFF
 public class CsharpNamespaceDetector extends AbstractPackageDetector {
+    /** Pattern of a type declaration outside of a namespace. */
+    private static final Pattern TYPE_PATTERN = Pattern.compile("^((public|internal|abstract|sealed|static|partial|unsafe)\\s+)*"
+            + "(class|struct|interface|enum|delegate)\\s+.*");
+
     /** {@inheritDoc} */
     public boolean accepts(final String fileName) {
         return fileName.endsWith(".cs");
@@ -23,7 +28,7 @@ public class CsharpNamespaceDetector extends AbstractPackageDetector {
     public String detectPackageName(final InputStream stream) {
         try {
             LineIterator iterator = IOUtils.lineIterator(stream, "UTF-8");
-            while (iterator.hasNext()) {
+            for (int lines = 0; lines < MAXIMUM_HEADER_LINES && iterator.hasNext(); lines++) {
                 String line = iterator.nextLine();
                 if (line.matches("^namespace .*$")) {
                     if (line.contains("{")) {
@@ -33,6 +38,9 @@ public class CsharpNamespaceDetector extends AbstractPackageDetector {
                         return StringUtils.substringAfter(line, " ").trim();
                     }
                 }
+                if (TYPE_PATTERN.matcher(line).matches()) {
+                    break;
+                }
             }
         }
         catch (IOException exception) {
@@ -0,0 +1,86 @@
+package hudson.plugins.analysis.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Computes the digest of the content of a file. Caches use the digest to
+ * detect whether a file has been changed.
+ *
+ * @author Ulli Hafner
+ */
+public final class FileDigest {
+    /** Size of the read buffer. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Returns the MD5 digest of the specified file as hexadecimal string.
+     *
+     * @param file
+     *            the file
+     * @return the digest of the file
+     * @throws IOException
+     *             if the file could not be read
+     */
+    public static String create(final File file) throws IOException {
+        InputStream input = null;
+        try {
+            input = new FileInputStream(file);
+            MessageDigest digest = createMessageDigest();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, length);
+            }
+            return toHex(digest.digest());
+        }
+        finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Returns the MD5 digest of the specified bytes as hexadecimal string.
+     *
+     * @param bytes
+     *            the bytes
+     * @return the digest of the bytes
+     * @throws IOException
+     *             if the digest is not supported
+     */
+    public static String create(final byte[] bytes) throws IOException {
+        return toHex(createMessageDigest().digest(bytes));
+    }
+
+    private static MessageDigest createMessageDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException exception) {
+            IOException ioException = new IOException("MD5 is not supported");
+            ioException.initCause(exception);
+            throw ioException;
+        }
+    }
+
+    private static String toHex(final byte[] digest) {
+        StringBuilder hex = new StringBuilder();
+        for (byte value : digest) {
+            hex.append(Integer.toHexString((value & 0xFF) | 0x100).substring(1));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Creates a new instance of {@link FileDigest}.
+     */
+    private FileDigest() {
+        // prevents instantiation
+    }
+}
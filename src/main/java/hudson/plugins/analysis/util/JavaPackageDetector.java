@@ -16,6 +16,8 @@ import org.apache.commons.io.LineIterator;
 public class JavaPackageDetector extends AbstractPackageDetector {
     /** Package pattern. */
     private final Pattern pattern;
+    /** Pattern of a type declaration, the package must be declared before. */
+    private final Pattern typePattern;
 
     /**
      * Creates a new instance of {@link JavaPackageDetector}.
@@ -24,18 +26,23 @@ public class JavaPackageDetector extends AbstractPackageDetector {
         super();
 
         pattern = Pattern.compile("^\\s*package\\s*([a-z]+(\\.[a-zA-Z_][a-zA-Z0-9_]*)*)\\s*;.*");
+        typePattern = Pattern.compile("^\\s*((public|protected|private|abstract|final|static|strictfp)\\s+)*"
+                + "(class|interface|enum|@interface)\\s+[a-zA-Z_$][a-zA-Z0-9_$]*(\\s*[<{].*|\\s+(extends|implements)\\b.*|\\s*)$");
     }
 
     /** {@inheritDoc}*/
     public String detectPackageName(final InputStream stream) {
         try {
             LineIterator iterator = IOUtils.lineIterator(stream, null);
-            while (iterator.hasNext()) {
+            for (int lines = 0; lines < MAXIMUM_HEADER_LINES && iterator.hasNext(); lines++) {
                 String line = iterator.nextLine();
                 Matcher matcher = pattern.matcher(line);
                 if (matcher.matches()) {
                     return matcher.group(1);
                 }
+                if (typePattern.matcher(line).matches()) {
+                    break;
+                }
             }
         }
         catch (IOException exception) {
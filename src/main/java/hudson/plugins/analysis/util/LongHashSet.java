@@ -0,0 +1,146 @@
+package hudson.plugins.analysis.util;
+
+/**
+ * A set of primitive <code>long</code> values. The values are stored in an
+ * open addressing hash table with linear probing, so no objects are created
+ * when adding or looking up values.
+ *
+ * @author Ulli Hafner
+ */
+public final class LongHashSet {
+    /** Marks an unused slot of the table. */
+    private static final long EMPTY = 0;
+    /** Minimum capacity of the table. */
+    private static final int MINIMUM_CAPACITY = 16;
+    /** Multiplier to spread the bits of the values (golden ratio). */
+    private static final long PHI = 0x9E3779B97F4A7C15L;
+
+    /** The slots of the table, {@link #EMPTY} marks an unused slot. */
+    private long[] table;
+    /** Determines whether the value {@link #EMPTY} is part of this set. */
+    private boolean containsEmpty;
+    /** Number of used slots. */
+    private int size;
+
+    /**
+     * Creates a new instance of {@link LongHashSet} that can hold the
+     * specified number of values without resizing.
+     *
+     * @param expectedSize
+     *            the expected number of values
+     */
+    public LongHashSet(final int expectedSize) {
+        table = new long[getCapacity(expectedSize)];
+    }
+
+    /**
+     * Creates a new instance of {@link LongHashSet}.
+     */
+    public LongHashSet() {
+        this(0);
+    }
+
+    private static int getCapacity(final int expectedSize) {
+        int capacity = MINIMUM_CAPACITY;
+        while (capacity < expectedSize * 2L) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Adds the specified value to this set.
+     *
+     * @param value
+     *            the value to add
+     * @return <code>true</code> if the value has been added,
+     *         <code>false</code> if the value is already part of this set
+     */
+    public boolean add(final long value) {
+        if (value == EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            return true;
+        }
+        if ((size + 1) * 2 > table.length) {
+            resize();
+        }
+        if (insert(table, value)) {
+            size++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the specified value is part of this set.
+     *
+     * @param value
+     *            the value to look for
+     * @return <code>true</code> if the value is part of this set,
+     *         <code>false</code> otherwise
+     */
+    public boolean contains(final long value) {
+        if (value == EMPTY) {
+            return containsEmpty;
+        }
+        int mask = table.length - 1;
+        for (int index = indexOf(value, mask); table[index] != EMPTY; index = (index + 1) & mask) {
+            if (table[index] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of values in this set.
+     *
+     * @return the number of values
+     */
+    public int size() {
+        if (containsEmpty) {
+            return size + 1;
+        }
+        return size;
+    }
+
+    /**
+     * Returns whether this set is empty.
+     *
+     * @return <code>true</code> if this set contains no values
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    private void resize() {
+        long[] resized = new long[table.length * 2];
+        for (long value : table) {
+            if (value != EMPTY) {
+                insert(resized, value);
+            }
+        }
+        table = resized;
+    }
+
+    private static boolean insert(final long[] slots, final long value) {
+        int mask = slots.length - 1;
+        int index = indexOf(value, mask);
+        while (slots[index] != EMPTY) {
+            if (slots[index] == value) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        slots[index] = value;
+        return true;
+    }
+
+    private static int indexOf(final long value, final int mask) {
+        long hash = value * PHI;
+        return (int)(hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,42 @@
+package hudson.plugins.analysis.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A map in access order that holds at most the specified number of entries:
+ * if the map is full, then the least recently used entry is removed. Like
+ * {@link LinkedHashMap} this map is not synchronized.
+ *
+ * @param <K>
+ *            the type of the keys
+ * @param <V>
+ *            the type of the values
+ * @author Ulli Hafner
+ */
+public class LruMap<K, V> extends LinkedHashMap<K, V> {
+    private static final long serialVersionUID = 4396553417046374226L;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** The maximum number of entries. */
+    private final int maximumSize;
+
+    /**
+     * Creates a new instance of {@link LruMap}.
+     *
+     * @param maximumSize
+     *            the maximum number of entries
+     */
+    public LruMap(final int maximumSize) {
+        super(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+        this.maximumSize = maximumSize;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+        return size() > maximumSize;
+    }
+}
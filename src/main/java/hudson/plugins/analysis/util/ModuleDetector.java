@@ -6,18 +6,28 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
-import org.apache.commons.digester.Digester;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
-import org.xml.sax.SAXException;
 
 /**
  * Detects module names by parsing the name of a source file, the Maven pom.xml
@@ -45,19 +55,30 @@ public class ModuleDetector {
             + PLUS + ALL_DIRECTORIES + ANT_PROJECT
             + PLUS + ALL_DIRECTORIES + OSGI_BUNDLE;
 
+    /** The properties files that localize the headers of an OSGi bundle. */
+    private static final String[] BUNDLE_PROPERTIES = {"plugin.properties", "OSGI-INF/l10n/bundle.properties"};
+    /** Name of the file that caches the module names of the descriptors. */
+    private static final String CACHE_NAME = "module-mapping.cache";
+    /** Minimum number of descriptors that are parsed by one thread of the pool. */
+    private static final int MINIMUM_FILES_PER_THREAD = 16;
+    private static final String PROJECT = "project";
+    private static final String NAME = "name";
+    /** Creates the parsers of the pom.xml and build.xml files. */
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
     /** The factory to create input streams with. */
     private FileInputStreamFactory factory = new DefaultFileInputStreamFactory();
     /** Maps file names to module names. */
     private final Map<String, String> fileNameToModuleName;
-    /** Sorted list of file name prefixes. */
-    private final List<String> prefixes;
+    /** Sorted array of file name prefixes. */
+    private final String[] prefixes;
 
     /**
      * Creates a new instance of {@link ModuleDetector}.
      */
     protected ModuleDetector() {
         fileNameToModuleName = new HashMap<String, String>();
-        prefixes = new ArrayList<String>();
+        prefixes = new String[0];
     }
 
     /**
@@ -70,6 +91,23 @@ public class ModuleDetector {
         this(workspace, new DefaultFileInputStreamFactory());
     }
 
+    /**
+     * Creates a new instance of {@link ModuleDetector}. The Maven pom.xml, Ant
+     * build.xml and OSGi MANIFEST.MF files are taken from the specified
+     * snapshot, so the workspace is not scanned again. The module names of
+     * these files are cached between builds, only new or changed files are
+     * parsed again. The mapping is stored in the snapshot, so that all
+     * detectors of the same build share the mapping.
+     *
+     * @param snapshot
+     *            the snapshot of the workspace
+     */
+    public ModuleDetector(final WorkspaceSnapshot snapshot) {
+        factory = new SnapshotFileInputStreamFactory(snapshot);
+        fileNameToModuleName = getFilesToModuleMapping(snapshot);
+        prefixes = createPrefixes(fileNameToModuleName);
+    }
+
     /**
      * Creates a new instance of {@link ModuleDetector}.
      *
@@ -80,9 +118,52 @@ public class ModuleDetector {
      */
     ModuleDetector(final File workspace, final FileInputStreamFactory fileInputStreamFactory) {
         factory = fileInputStreamFactory;
-        fileNameToModuleName = createFilesToModuleMapping(workspace);
-        prefixes = new ArrayList<String>(fileNameToModuleName.keySet());
-        Collections.sort(prefixes);
+        fileNameToModuleName = createFilesToModuleMapping(workspace, null);
+        prefixes = createPrefixes(fileNameToModuleName);
+    }
+
+    private String[] createPrefixes(final Map<String, String> mapping) {
+        String[] sorted = mapping.keySet().toArray(new String[mapping.size()]);
+        Arrays.sort(sorted);
+
+        return sorted;
+    }
+
+    /**
+     * Returns the mapping of path prefixes to module names of the specified
+     * snapshot. If the snapshot has no mapping yet, then the mapping is
+     * created using the module names of the previous build.
+     *
+     * @param snapshot
+     *            the snapshot of the workspace
+     * @return the mapping of path prefixes to module names
+     */
+    private Map<String, String> getFilesToModuleMapping(final WorkspaceSnapshot snapshot) {
+        synchronized (snapshot) {
+            Map<String, String> mapping = snapshot.getModuleMapping();
+            if (mapping == null) {
+                mapping = Collections.unmodifiableMap(createCachedFilesToModuleMapping(snapshot.getRoot()));
+                snapshot.setModuleMapping(mapping);
+            }
+            return mapping;
+        }
+    }
+
+    private Map<String, String> createCachedFilesToModuleMapping(final File workspace) {
+        File file = CacheDirectory.getFile(workspace, CACHE_NAME);
+        if (file == null) {
+            return createFilesToModuleMapping(workspace, null);
+        }
+
+        ModuleMappingCache cache = ModuleMappingCache.load(file);
+        Map<String, String> mapping = createFilesToModuleMapping(workspace, cache);
+        try {
+            cache.save();
+        }
+        catch (IOException exception) {
+            // ignore, the descriptors will be parsed again in the next build
+        }
+        return mapping;
     }
 
     /**
@@ -90,31 +171,181 @@ public class ModuleDetector {
      *
      * @param workspace
      *            the workspace to start scanning for files
+     * @param cache
+     *            the module names of the previous build, might be
+     *            <code>null</code>
      * @return the mapping of path prefixes to module names
      */
-    private Map<String, String> createFilesToModuleMapping(final File workspace) {
+    private Map<String, String> createFilesToModuleMapping(final File workspace, final ModuleMappingCache cache) {
         Map<String, String> mapping = new HashMap<String, String>();
 
         String[] projects = find(workspace);
+        Map<String, String> moduleNames = getModuleNames(projects, cache);
         for (String fileName : projects) {
             if (fileName.endsWith(ANT_PROJECT)) {
-                addMapping(mapping, fileName, ANT_PROJECT, parseBuildXml(fileName));
+                addMapping(mapping, fileName, ANT_PROJECT, moduleNames.get(fileName));
             }
         }
         for (String fileName : projects) {
             if (fileName.endsWith(MAVEN_POM)) {
-                addMapping(mapping, fileName, MAVEN_POM, parsePom(fileName));
+                addMapping(mapping, fileName, MAVEN_POM, moduleNames.get(fileName));
             }
         }
         for (String fileName : projects) {
             if (fileName.endsWith(OSGI_BUNDLE)) {
-                addMapping(mapping, fileName, OSGI_BUNDLE, parseManifest(fileName));
+                addMapping(mapping, fileName, OSGI_BUNDLE, moduleNames.get(fileName));
             }
         }
 
         return mapping;
     }
 
+    /**
+     * Returns the module names of the specified descriptors. Only the
+     * descriptors whose cached module name is out of date are parsed.
+     *
+     * @param projects
+     *            absolute paths of the descriptors
+     * @param cache
+     *            the module names of the previous build, might be
+     *            <code>null</code>
+     * @return the module names, the key is the absolute path of the descriptor
+     */
+    private Map<String, String> getModuleNames(final String[] projects, final ModuleMappingCache cache) {
+        Map<String, String> moduleNames = new HashMap<String, String>();
+        List<String> changed = new ArrayList<String>();
+        for (String fileName : new LinkedHashSet<String>(Arrays.asList(projects))) {
+            String suffix = getSuffix(fileName);
+            if (suffix != null) {
+                String moduleName = cache == null ? null : cache.get(fileName, getDependencies(fileName, suffix));
+                if (moduleName == null) {
+                    changed.add(fileName);
+                }
+                else {
+                    moduleNames.put(fileName, moduleName);
+                }
+            }
+        }
+
+        Map<String, String> parsed = parse(changed);
+        if (cache != null) {
+            for (Map.Entry<String, String> entry : parsed.entrySet()) {
+                String fileName = entry.getKey();
+                cache.put(fileName, entry.getValue(), getDependencies(fileName, getSuffix(fileName)));
+            }
+        }
+        moduleNames.putAll(parsed);
+
+        return moduleNames;
+    }
+
+    private String getSuffix(final String fileName) {
+        for (String suffix : new String[] {ANT_PROJECT, MAVEN_POM, OSGI_BUNDLE}) {
+            if (fileName.endsWith(suffix)) {
+                return suffix;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses the specified descriptors. If there are enough descriptors, then
+     * they are parsed in parallel by a pool with a thread for each available
+     * processor.
+     *
+     * @param fileNames
+     *            absolute paths of the descriptors
+     * @return the module names, the key is the absolute path of the
+     *         descriptor. Descriptors that have not been parsed since the
+     *         thread has been interrupted are missing.
+     */
+    private Map<String, String> parse(final List<String> fileNames) {
+        Map<String, String> moduleNames = new HashMap<String, String>();
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), fileNames.size() / MINIMUM_FILES_PER_THREAD);
+        if (threads <= 1) {
+            for (String fileName : fileNames) {
+                moduleNames.put(fileName, parse(fileName));
+            }
+            return moduleNames;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>(fileNames.size());
+            for (final String fileName : fileNames) {
+                results.add(executor.submit(new Callable<String>() {
+                    public String call() {
+                        return parse(fileName);
+                    }
+                }));
+            }
+            for (int i = 0; i < fileNames.size(); i++) {
+                moduleNames.put(fileNames.get(i), getModuleName(results.get(i)));
+            }
+        }
+        catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return moduleNames;
+    }
+
+    private String getModuleName(final Future<String> result) throws InterruptedException {
+        try {
+            return result.get();
+        }
+        catch (ExecutionException exception) {
+            return StringUtils.EMPTY;
+        }
+    }
+
+    /**
+     * Returns the module name of the specified descriptor.
+     *
+     * @param fileName
+     *            absolute path of the descriptor
+     * @return the module name or an empty string if the name could not be
+     *         resolved
+     */
+    private String parse(final String fileName) {
+        String suffix = getSuffix(fileName);
+        String moduleName;
+        if (ANT_PROJECT.equals(suffix)) {
+            moduleName = parseBuildXml(fileName);
+        }
+        else if (MAVEN_POM.equals(suffix)) {
+            moduleName = parsePom(fileName);
+        }
+        else {
+            moduleName = parseManifest(fileName);
+        }
+        return StringUtils.defaultString(moduleName);
+    }
+
+    /**
+     * Returns the other files the module name of the specified descriptor
+     * depends on.
+     *
+     * @param fileName
+     *            absolute path of the descriptor
+     * @param suffix
+     *            the type of the descriptor
+     * @return the absolute paths of the dependencies
+     */
+    private String[] getDependencies(final String fileName, final String suffix) {
+        if (OSGI_BUNDLE.equals(suffix)) {
+            String path = StringUtils.substringBefore(fileName, OSGI_BUNDLE);
+            String[] dependencies = new String[BUNDLE_PROPERTIES.length];
+            for (int i = 0; i < dependencies.length; i++) {
+                dependencies[i] = path + BUNDLE_PROPERTIES[i];
+            }
+            return dependencies;
+        }
+        return new String[0];
+    }
+
     private void addMapping(final Map<String, String> mapping, final String fileName, final String suffix, final String moduleName) {
         if (StringUtils.isNotBlank(moduleName)) {
             mapping.put(StringUtils.substringBeforeLast(fileName, suffix), moduleName);
@@ -123,22 +354,60 @@ public class ModuleDetector {
 
     /**
      * Uses the path prefixes of pom.xml or build.xml files to guess a module
-     * name for the specified file.
+     * name for the specified file. The module of the longest matching prefix
+     * is returned.
      *
      * @param originalFileName
      *            file name to guess a module for, must be an absolute path
      * @return a module name or an empty string
      */
     public String guessModuleName(final String originalFileName) {
-        String fullPath = originalFileName.replace('\\', '/');
+        String prefix = findLongestPrefix(originalFileName.replace('\\', '/'));
+        if (prefix == null) {
+            return StringUtils.EMPTY;
+        }
+        return fileNameToModuleName.get(prefix);
+    }
 
-        String guessedModule = StringUtils.EMPTY;
-        for (String path : prefixes) {
-            if (fullPath.startsWith(path)) {
-                guessedModule = fileNameToModuleName.get(path);
+    /**
+     * Finds the longest prefix of the specified path using binary searches in
+     * the sorted prefixes. All strings that are sorted between a prefix and
+     * the path start with this prefix, so the greatest prefix that is smaller
+     * than the path is either a prefix of the path or the common part of both
+     * strings is the next candidate to search for.
+     *
+     * @param path
+     *            the path
+     * @return the longest prefix or <code>null</code> if there is no
+     *         matching prefix
+     */
+    private String findLongestPrefix(final String path) {
+        String query = path;
+        while (true) {
+            int index = Arrays.binarySearch(prefixes, query);
+            if (index >= 0) {
+                return prefixes[index];
+            }
+            int floor = -index - 2;
+            if (floor < 0) {
+                return null;
+            }
+            String candidate = prefixes[floor];
+            if (query.startsWith(candidate)) {
+                return candidate;
+            }
+            query = query.substring(0, getCommonPrefixLength(query, candidate));
+        }
+    }
+
+    private int getCommonPrefixLength(final String first, final String second) {
+        int length = Math.min(first.length(), second.length());
+        for (int i = 0; i < length; i++) {
+            if (first.charAt(i) != second.charAt(i)) {
+                return i;
             }
         }
-        return guessedModule;
+        return length;
     }
 
     /**
@@ -166,7 +435,8 @@ public class ModuleDetector {
     }
 
     /**
-     * Returns the project name stored in the build.xml.
+     * Returns the project name stored in the build.xml. The parser stops at
+     * the root element.
      *
      * @param buildXml
      *            Ant build.xml file name
@@ -175,34 +445,30 @@ public class ModuleDetector {
      */
     private String parseBuildXml(final String buildXml) {
         InputStream file = null;
+        XMLStreamReader reader = null;
         try {
             file = factory.create(buildXml);
-            Digester digester = new Digester();
-            digester.setValidating(false);
-            digester.setClassLoader(ModuleDetector.class.getClassLoader());
-
-            digester.push(new StringBuffer());
-            String xPath = "project";
-            digester.addCallMethod(xPath, "append", 1);
-            digester.addCallParam(xPath, 0, "name");
-
-            StringBuffer result = (StringBuffer)digester.parse(file);
-            return result.toString();
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(file);
+            if (isProject(reader)) {
+                return StringUtils.defaultString(reader.getAttributeValue(null, NAME));
+            }
         }
         catch (IOException exception) {
             // ignore
         }
-        catch (SAXException exception) {
+        catch (XMLStreamException exception) {
             // ignore
         }
         finally {
+            close(reader);
             IOUtils.closeQuietly(file);
         }
         return StringUtils.EMPTY;
     }
 
     /**
-     * Returns the project name stored in the POM.
+     * Returns the project name stored in the POM. The parser stops at the
+     * name element of the project.
      *
      * @param pom
      *            Maven POM file name
@@ -211,30 +477,84 @@ public class ModuleDetector {
      */
     private String parsePom(final String pom) {
         InputStream file = null;
+        XMLStreamReader reader = null;
         try {
             file = factory.create(pom);
-            Digester digester = new Digester();
-            digester.setValidating(false);
-            digester.setClassLoader(ModuleDetector.class.getClassLoader());
-
-            digester.push(new StringBuffer());
-            digester.addCallMethod("project/name", "append", 0);
-
-            StringBuffer result = (StringBuffer)digester.parse(file);
-            return result.toString();
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(file);
+            if (!isProject(reader)) {
+                return StringUtils.EMPTY;
+            }
+            int depth = 1;
+            while (depth > 0) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (depth == 1 && NAME.equals(reader.getLocalName())) {
+                        return reader.getElementText().trim();
+                    }
+                    depth++;
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
         }
         catch (IOException exception) {
             // ignore
         }
-        catch (SAXException exception) {
+        catch (XMLStreamException exception) {
             // ignore
         }
         finally {
+            close(reader);
             IOUtils.closeQuietly(file);
         }
         return StringUtils.EMPTY;
     }
 
+    /**
+     * Moves the reader to the root element, skipping comments and the
+     * document type declaration.
+     *
+     * @param reader
+     *            the reader
+     * @return <code>true</code> if the root element is a project element
+     * @throws XMLStreamException
+     *             if the document could not be read
+     */
+    private boolean isProject(final XMLStreamReader reader) throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                return PROJECT.equals(reader.getLocalName());
+            }
+        }
+        return false;
+    }
+
+    private void close(final XMLStreamReader reader) {
+        try {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+        catch (XMLStreamException exception) {
+            // ignore
+        }
+    }
+
+    /**
+     * Creates the factory of the XML parsers. The factory is shared by all
+     * threads, DTDs and external entities are not loaded.
+     *
+     * @return the factory
+     */
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+
+        return xmlInputFactory;
+    }
+
     /**
      * Scans a Manifest file for OSGi Bundle Information.
      *
@@ -275,8 +595,9 @@ public class ModuleDetector {
 
     private Properties readProperties(final String path) {
         Properties properties = new Properties();
-        readProperties(path, properties, "plugin.properties");
-        readProperties(path, properties, "OSGI-INF/l10n/bundle.properties");
+        for (String fileName : BUNDLE_PROPERTIES) {
+            readProperties(path, properties, fileName);
+        }
 
         return properties;
     }
@@ -323,5 +644,23 @@ public class ModuleDetector {
             return new FileFinder(PATTERN).find(root);
         }
     }
-}
 
+    /**
+     * An input stream factory that finds the files in a {@link WorkspaceSnapshot}.
+     */
+    private static final class SnapshotFileInputStreamFactory implements FileInputStreamFactory {
+        private final WorkspaceSnapshot snapshot;
+
+        SnapshotFileInputStreamFactory(final WorkspaceSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        public InputStream create(final String fileName) throws FileNotFoundException {
+            return new FileInputStream(new File(fileName));
+        }
+
+        public String[] find(final File root, final String pattern) {
+            return snapshot.find(PATTERN);
+        }
+    }
+}
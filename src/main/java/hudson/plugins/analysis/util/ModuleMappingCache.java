@@ -0,0 +1,252 @@
+package hudson.plugins.analysis.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Caches the module names that have been read from the Maven pom.xml, Ant
+ * build.xml and OSGi MANIFEST.MF files of a workspace in a previous build. For
+ * each descriptor the cache records the size and modification time of the
+ * descriptor and of the files the module name depends on (e.g. the
+ * localization properties of an OSGi bundle). A cached module name is valid as
+ * long as none of these files has been changed, created or deleted.
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ *
+ * @author Ulli Hafner
+ */
+public class ModuleMappingCache {
+    /** Identifies the file format (MODM). */
+    private static final int MAGIC = 0x4D4F444D;
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+    /** Size of the read and write buffers. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The file of the cache. */
+    private final File file;
+    /** The cached module names, the key is the absolute path of the descriptor. */
+    private final Map<String, Descriptor> descriptors = new HashMap<String, Descriptor>();
+    /** The descriptors that have been used since the cache has been loaded. */
+    private final Set<String> usedDescriptors = new HashSet<String>();
+    /** Determines whether the cache has been changed since it has been loaded. */
+    private boolean isModified;
+
+    /**
+     * Loads the cache from the specified file. If the cache does not exist or
+     * could not be read, then an empty cache is returned.
+     *
+     * @param file
+     *            the file of the cache
+     * @return the cache
+     */
+    public static ModuleMappingCache load(final File file) {
+        ModuleMappingCache cache = new ModuleMappingCache(file);
+        if (file.exists()) {
+            try {
+                cache.read();
+            }
+            catch (IOException exception) {
+                cache.descriptors.clear();
+                cache.isModified = true;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Creates a new instance of {@link ModuleMappingCache}.
+     *
+     * @param file
+     *            the file of the cache
+     */
+    private ModuleMappingCache(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the cached module name of the specified descriptor.
+     *
+     * @param descriptor
+     *            absolute path of the descriptor
+     * @param dependencies
+     *            absolute paths of the other files the module name depends on
+     * @return the module name or <code>null</code> if the descriptor or one
+     *         of its dependencies has been changed or if the descriptor has
+     *         not been cached yet
+     */
+    public String get(final String descriptor, final String... dependencies) {
+        Descriptor cached = descriptors.get(descriptor);
+        if (cached == null || !cached.isValid(descriptor, dependencies)) {
+            return null;
+        }
+        usedDescriptors.add(descriptor);
+
+        return cached.moduleName;
+    }
+
+    /**
+     * Stores the module name of the specified descriptor in the cache.
+     *
+     * @param descriptor
+     *            absolute path of the descriptor
+     * @param moduleName
+     *            the module name, might be empty if the descriptor does not
+     *            define a module name
+     * @param dependencies
+     *            absolute paths of the other files the module name depends on
+     */
+    public void put(final String descriptor, final String moduleName, final String... dependencies) {
+        String[] fileNames = new String[dependencies.length + 1];
+        fileNames[0] = descriptor;
+        System.arraycopy(dependencies, 0, fileNames, 1, dependencies.length);
+
+        long[] sizes = new long[fileNames.length];
+        long[] lastModified = new long[fileNames.length];
+        for (int i = 0; i < fileNames.length; i++) {
+            File stamped = new File(fileNames[i]);
+            sizes[i] = stamped.length();
+            lastModified[i] = stamped.lastModified();
+        }
+        descriptors.put(descriptor, new Descriptor(moduleName, fileNames, sizes, lastModified));
+        usedDescriptors.add(descriptor);
+        isModified = true;
+    }
+
+    /**
+     * Saves the cache. The descriptors that have not been used since the
+     * cache has been loaded are removed from the cache. If nothing has been
+     * changed, then the file is not written again.
+     *
+     * @throws IOException
+     *             if the cache could not be written
+     */
+    public void save() throws IOException {
+        for (Iterator<String> iterator = descriptors.keySet().iterator(); iterator.hasNext();) {
+            if (!usedDescriptors.contains(iterator.next())) {
+                iterator.remove();
+                isModified = true;
+            }
+        }
+        if (isModified) {
+            write();
+            isModified = false;
+        }
+    }
+
+    private void read() throws IOException {
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Not a module mapping cache: " + file);
+            }
+            int size = input.readInt();
+            for (int i = 0; i < size; i++) {
+                String descriptor = input.readUTF();
+                String moduleName = input.readUTF();
+                int count = input.readInt();
+                String[] fileNames = new String[count];
+                long[] sizes = new long[count];
+                long[] lastModified = new long[count];
+                for (int stamp = 0; stamp < count; stamp++) {
+                    fileNames[stamp] = input.readUTF();
+                    sizes[stamp] = input.readLong();
+                    lastModified[stamp] = input.readLong();
+                }
+                descriptors.put(descriptor, new Descriptor(moduleName, fileNames, sizes, lastModified));
+            }
+        }
+        finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    private void write() throws IOException {
+        File temp = CacheDirectory.createTempFile(file);
+        DataOutputStream output = null;
+        boolean written = false;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(descriptors.size());
+            for (Map.Entry<String, Descriptor> entry : descriptors.entrySet()) {
+                Descriptor descriptor = entry.getValue();
+                output.writeUTF(entry.getKey());
+                output.writeUTF(descriptor.moduleName);
+                output.writeInt(descriptor.fileNames.length);
+                for (int stamp = 0; stamp < descriptor.fileNames.length; stamp++) {
+                    output.writeUTF(descriptor.fileNames[stamp]);
+                    output.writeLong(descriptor.sizes[stamp]);
+                    output.writeLong(descriptor.lastModified[stamp]);
+                }
+            }
+            output.close();
+            written = true;
+        }
+        finally {
+            IOUtils.closeQuietly(output);
+            if (!written) {
+                temp.delete();
+            }
+        }
+        CacheDirectory.replace(temp, file);
+    }
+
+    /**
+     * The module name of a descriptor and the state of the files it has been
+     * read from. The first file is the descriptor itself.
+     */
+    private static final class Descriptor {
+        private final String moduleName;
+        private final String[] fileNames;
+        private final long[] sizes;
+        private final long[] lastModified;
+
+        Descriptor(final String moduleName, final String[] fileNames, final long[] sizes, final long[] lastModified) {
+            this.moduleName = moduleName;
+            this.fileNames = fileNames;
+            this.sizes = sizes;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Returns whether the descriptor and its dependencies are unchanged.
+         *
+         * @param descriptor
+         *            absolute path of the descriptor
+         * @param dependencies
+         *            absolute paths of the dependencies
+         * @return <code>true</code> if none of the files has been changed
+         */
+        boolean isValid(final String descriptor, final String... dependencies) {
+            if (fileNames.length != dependencies.length + 1) {
+                return false;
+            }
+            for (int i = 0; i < fileNames.length; i++) {
+                String fileName = i == 0 ? descriptor : dependencies[i - 1];
+                File stamped = new File(fileName);
+                if (!fileNames[i].equals(fileName)
+                        || sizes[i] != stamped.length() || lastModified[i] != stamped.lastModified()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
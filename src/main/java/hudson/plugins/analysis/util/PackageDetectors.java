@@ -1,11 +1,21 @@
 package hudson.plugins.analysis.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Provides convenient methods to determine the package or namespace names of a
  * file.
+ * <p>
+ * Since the package name is typically requested for each annotation of a
+ * file, the detected package names are cached by file name. A cached package
+ * name is used as long as the size and the modification time of the file are
+ * unchanged. The number of cached files can be changed with the system
+ * property <code>hudson.plugins.analysis.util.PackageDetectors.maximumSize</code>.
+ * </p>
  *
  * @author Ulli Hafner
  */
@@ -13,6 +23,30 @@ public final class PackageDetectors {
     /** The detectors to use. */
     private static final List<AbstractPackageDetector> DETECTORS = Arrays.asList(
             new JavaPackageDetector(), new CsharpNamespaceDetector());
+    /** Default number of cached files. */
+    private static final int DEFAULT_MAXIMUM_SIZE = 10000;
+    private static final String UNDEFINED = "undefined";
+
+    /** Maximum number of cached files. */
+    private static final int MAXIMUM_SIZE = Integer.getInteger(PackageDetectors.class.getName() + ".maximumSize", DEFAULT_MAXIMUM_SIZE);
+    private static final Map<String, CachedPackage> PACKAGES = new LruMap<String, CachedPackage>(MAXIMUM_SIZE);
+
+    /**
+     * Returns whether one of the detectors accepts the specified file.
+     *
+     * @param fileName
+     *            the filename of the file
+     * @return <code>true</code> if the package name of the file can be
+     *         detected, <code>false</code> otherwise
+     */
+    public static boolean accepts(final String fileName) {
+        for (PackageDetector detector : DETECTORS) {
+            if (detector.accepts(fileName)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     /**
      * Detects the package name of the specified file based on several detector
@@ -25,10 +59,52 @@ public final class PackageDetectors {
     public static String detectPackageName(final String fileName) {
         for (PackageDetector detector : DETECTORS) {
             if (detector.accepts(fileName)) {
-                return detector.detectPackageName(fileName);
+                return detectPackageName(detector, fileName);
             }
         }
-        return "undefined";
+        return UNDEFINED;
+    }
+
+    /**
+     * Detects the package name of the specified file whose content has been
+     * read already.
+     *
+     * @param fileName
+     *            the filename of the file
+     * @param content
+     *            the content of the file
+     * @return the package name or an empty string
+     */
+    public static String detectPackageName(final String fileName, final byte[] content) {
+        for (PackageDetector detector : DETECTORS) {
+            if (detector.accepts(fileName)) {
+                File file = new File(fileName);
+                String packageName = detector.detectPackageName(new ByteArrayInputStream(content));
+                synchronized (PACKAGES) {
+                    PACKAGES.put(fileName, new CachedPackage(packageName, file.length(), file.lastModified()));
+                }
+                return packageName;
+            }
+        }
+        return UNDEFINED;
+    }
+
+    private static String detectPackageName(final PackageDetector detector, final String fileName) {
+        File file = new File(fileName);
+        long size = file.length();
+        long lastModified = file.lastModified();
+        synchronized (PACKAGES) {
+            CachedPackage cached = PACKAGES.get(fileName);
+            if (cached != null && cached.size == size && cached.lastModified == lastModified) {
+                return cached.packageName;
+            }
+        }
+
+        String packageName = detector.detectPackageName(fileName);
+        synchronized (PACKAGES) {
+            PACKAGES.put(fileName, new CachedPackage(packageName, size, lastModified));
+        }
+        return packageName;
     }
 
     /**
@@ -37,5 +113,20 @@ public final class PackageDetectors {
     private PackageDetectors() {
         // prevents instantiation
     }
-}
 
+    /**
+     * The package name of a file and the state of the file it has been
+     * detected from.
+     */
+    private static final class CachedPackage {
+        private final String packageName;
+        private final long size;
+        private final long lastModified;
+
+        CachedPackage(final String packageName, final long size, final long lastModified) {
+            this.packageName = packageName;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
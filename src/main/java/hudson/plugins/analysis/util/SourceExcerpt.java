@@ -0,0 +1,276 @@
+package hudson.plugins.analysis.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+import hudson.plugins.analysis.util.model.LineRange;
+
+/**
+ * An excerpt of a source file that contains only the lines around some line
+ * ranges of the file. An excerpt starts with a header line, followed by a line
+ * with the number of lines of the whole file and the windows of the excerpt,
+ * i.e. the first line and the number of lines of each window. Then the lines
+ * of all windows follow. Lines are separated by <code>\n</code>, so only
+ * encodings that are compatible with ASCII are supported, see
+ * {@link #isSupported(String)}.
+ * <p>
+ * {@link #expand(InputStream)} restores the line numbers of the excerpt: the
+ * lines outside of the windows are empty, the first of them is marked with
+ * an ellipsis.
+ * </p>
+ *
+ * @author Ulli Hafner
+ */
+public final class SourceExcerpt {
+    /** First line of an excerpt, source files never start with a NUL character. */
+    private static final byte[] HEADER = {0, 'e', 'x', 'c', 'e', 'r', 'p', 't', '\n'};
+    /** Marks lines that are not part of the excerpt. */
+    private static final String GAP = "...";
+    private static final String ENCODING = "US-ASCII";
+    private static final String SEPARATOR = " ";
+    private static final String COUNT_SEPARATOR = ":";
+    /** Size of the read buffer. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Returns whether excerpts of files with the specified encoding are
+     * supported, i.e. whether the encoding is compatible with ASCII.
+     *
+     * @param encoding
+     *            the encoding of the files, if <code>null</code> or empty then
+     *            the default encoding of the platform is used
+     * @return <code>true</code> if excerpts are supported, <code>false</code>
+     *         otherwise
+     */
+    public static boolean isSupported(final String encoding) {
+        ByteBuffer lineSeparator = EncodingValidator.defaultCharset(encoding).encode("\n");
+
+        return lineSeparator.remaining() == 1 && lineSeparator.get() == '\n';
+    }
+
+    /**
+     * Creates an excerpt of the specified source file.
+     *
+     * @param input
+     *            the content of the source file, is read completely but not
+     *            closed
+     * @param ranges
+     *            the line ranges to keep, ranges that start with line 0 are
+     *            ignored
+     * @param context
+     *            the number of lines to keep before and after each range
+     * @return the excerpt
+     * @throws IOException
+     *             if the source file could not be read
+     */
+    public static byte[] create(final InputStream input, final Collection<LineRange> ranges, final int context) throws IOException {
+        List<int[]> windows = createWindows(ranges, context);
+        int[] counts = new int[windows.size()];
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int line = 1;
+        int window = 0;
+        boolean isTerminated = true;
+        int length;
+        while ((length = input.read(buffer)) > 0) {
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                if (buffer[i] == '\n') {
+                    window = findWindow(windows, window, line);
+                    if (isInWindow(windows, window, line)) {
+                        lines.write(buffer, start, i + 1 - start);
+                        counts[window]++;
+                    }
+                    line++;
+                    start = i + 1;
+                }
+            }
+            if (start < length) {
+                window = findWindow(windows, window, line);
+                if (isInWindow(windows, window, line)) {
+                    lines.write(buffer, start, length - start);
+                }
+            }
+            isTerminated = buffer[length - 1] == '\n';
+        }
+        if (!isTerminated) {
+            window = findWindow(windows, window, line);
+            if (isInWindow(windows, window, line)) {
+                lines.write('\n');
+                counts[window]++;
+            }
+            line++;
+        }
+
+        StringBuilder map = new StringBuilder();
+        map.append(line - 1);
+        for (int i = 0; i < windows.size(); i++) {
+            if (counts[i] > 0) {
+                map.append(SEPARATOR).append(windows.get(i)[0]).append(COUNT_SEPARATOR).append(counts[i]);
+            }
+        }
+        map.append('\n');
+
+        ByteArrayOutputStream excerpt = new ByteArrayOutputStream(HEADER.length + map.length() + lines.size());
+        excerpt.write(HEADER);
+        excerpt.write(map.toString().getBytes(ENCODING));
+        lines.writeTo(excerpt);
+
+        return excerpt.toByteArray();
+    }
+
+    private static int findWindow(final List<int[]> windows, final int start, final int line) {
+        int window = start;
+        while (window < windows.size() && windows.get(window)[1] < line) {
+            window++;
+        }
+        return window;
+    }
+
+    private static boolean isInWindow(final List<int[]> windows, final int window, final int line) {
+        return window < windows.size() && windows.get(window)[0] <= line;
+    }
+
+    /**
+     * Creates the sorted and disjoint windows of the excerpt.
+     *
+     * @param ranges
+     *            the line ranges to keep
+     * @param context
+     *            the number of lines to keep before and after each range
+     * @return the windows, each window consists of the first and last line
+     */
+    private static List<int[]> createWindows(final Collection<LineRange> ranges, final int context) {
+        List<int[]> sorted = new ArrayList<int[]>();
+        for (LineRange range : ranges) {
+            if (range.getStart() > 0) {
+                sorted.add(new int[] {Math.max(1, range.getStart() - context), range.getEnd() + context});
+            }
+        }
+        Collections.sort(sorted, new Comparator<int[]>() {
+            public int compare(final int[] first, final int[] second) {
+                return first[0] - second[0];
+            }
+        });
+
+        List<int[]> windows = new ArrayList<int[]>();
+        for (int[] window : sorted) {
+            int[] last = windows.isEmpty() ? null : windows.get(windows.size() - 1);
+            if (last != null && window[0] <= last[1] + 1) {
+                last[1] = Math.max(last[1], window[1]);
+            }
+            else {
+                windows.add(window);
+            }
+        }
+        return windows;
+    }
+
+    /**
+     * Returns the content of the specified source file. If the file is an
+     * excerpt, then the lines of the excerpt are returned at their original
+     * line numbers. Otherwise the file is returned as is.
+     *
+     * @param input
+     *            the source file or excerpt, will be closed
+     * @return the content of the source file
+     * @throws IOException
+     *             if the file could not be read
+     */
+    public static InputStream expand(final InputStream input) throws IOException {
+        InputStream buffered = new BufferedInputStream(input, BUFFER_SIZE);
+        try {
+            buffered.mark(HEADER.length);
+            byte[] header = new byte[HEADER.length];
+            int length = 0;
+            int count;
+            while (length < header.length && (count = buffered.read(header, length, header.length - length)) > 0) {
+                length += count;
+            }
+            if (length < HEADER.length || !Arrays.equals(header, HEADER)) {
+                buffered.reset();
+                return buffered;
+            }
+            InputStream expanded = expandExcerpt(buffered);
+            buffered.close();
+
+            return expanded;
+        }
+        catch (IOException exception) {
+            IOUtils.closeQuietly(buffered);
+            throw exception;
+        }
+    }
+
+    private static InputStream expandExcerpt(final InputStream input) throws IOException {
+        String[] map = StringUtils.split(new String(readLine(input), ENCODING).trim(), SEPARATOR);
+        int lines = Integer.parseInt(map[0]);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int line = 1;
+        for (int i = 1; i < map.length; i++) {
+            int start = Integer.parseInt(StringUtils.substringBefore(map[i], COUNT_SEPARATOR));
+            int count = Integer.parseInt(StringUtils.substringAfter(map[i], COUNT_SEPARATOR));
+            line = writeGap(output, line, start);
+            for (int window = 0; window < count; window++) {
+                output.write(readLine(input));
+                line++;
+            }
+        }
+        writeGap(output, line, lines + 1);
+
+        return new ByteArrayInputStream(output.toByteArray());
+    }
+
+    private static int writeGap(final ByteArrayOutputStream output, final int start, final int end) throws IOException {
+        for (int line = start; line < end; line++) {
+            if (line == start) {
+                output.write(GAP.getBytes(ENCODING));
+            }
+            output.write('\n');
+        }
+        return Math.max(start, end);
+    }
+
+    /**
+     * Reads the next line including the line separator.
+     *
+     * @param input
+     *            the input to read from
+     * @return the line
+     * @throws IOException
+     *             if the excerpt is truncated
+     */
+    private static byte[] readLine(final InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int value;
+        while ((value = input.read()) >= 0) {
+            line.write(value);
+            if (value == '\n') {
+                return line.toByteArray();
+            }
+        }
+        throw new IOException("Truncated source excerpt");
+    }
+
+    /**
+     * Creates a new instance of {@link SourceExcerpt}.
+     */
+    private SourceExcerpt() {
+        // prevents instantiation
+    }
+}
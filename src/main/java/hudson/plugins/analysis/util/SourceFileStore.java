@@ -0,0 +1,660 @@
+package hudson.plugins.analysis.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+import hudson.model.AbstractBuild;
+
+import hudson.plugins.analysis.util.model.AbstractAnnotation;
+
+/**
+ * Stores the source files with annotations of all builds of a job only once.
+ * The files are stored in the folder <code>source-files</code> of the job and
+ * are named by the MD5 digest of their content. The folder
+ * <code>workspace-files</code> of a build contains the index file
+ * <code>sources.index</code> that maps the temporary names of the files (see
+ * {@link AbstractAnnotation#getTempName(AbstractBuild)}) to the digests of
+ * their content. Files that have been copied to the folder
+ * <code>workspace-files</code> of a build directly are still used. New
+ * copies are compressed, see {@link #openInputStream(File)}.
+ * <p>
+ * Files that are not referenced by a build anymore are removed with
+ * {@link #collectGarbage(Collection)}. Since a running build writes its index after
+ * the files have been stored, recently stored or retained files are never
+ * removed. The number of cached indexes can be changed with the system property
+ * <code>hudson.plugins.analysis.util.SourceFileStore.maximumSize</code>.
+ * </p>
+ *
+ * @author Ulli Hafner
+ */
+public class SourceFileStore {
+    /** Folder of the job that contains the stored files. */
+    public static final String STORE_FOLDER = "source-files";
+    /** Name of the index file in the folder <code>workspace-files</code> of a build. */
+    public static final String INDEX_FILE = "sources.index";
+    /** Name of the index file of an aggregated build that maps the sources to module builds. */
+    public static final String MODULES_FILE = "modules.index";
+    /** Name of the index file of a module build that lists the aggregated builds that reference it. */
+    public static final String REFERRERS_FILE = "referrers.index";
+    /** Suffix of the sources that have been copied to the folder <code>workspace-files</code> of a build. */
+    private static final String COPY_SUFFIX = ".tmp";
+    /** Folder of the job that contains the builds. */
+    private static final String BUILDS_FOLDER = "builds";
+    private static final String ENCODING = "UTF-8";
+    private static final String SEPARATOR = " ";
+    private static final String TEMP_SUFFIX = ".part";
+    /** Time in milliseconds a stored or retained file is kept even if it is not referenced. */
+    private static final long GRACE_PERIOD = 60 * 60 * 1000L;
+    /** Size of the read and write buffers. */
+    private static final int BUFFER_SIZE = 16 * 1024;
+    /** Default number of cached indexes. */
+    private static final int DEFAULT_MAXIMUM_SIZE = 100;
+
+    /** Guards the writing of the index files. */
+    private static final Object LOCK = new Object();
+    /** Maximum number of cached indexes. */
+    private static final int MAXIMUM_SIZE = Integer.getInteger(SourceFileStore.class.getName() + ".maximumSize", DEFAULT_MAXIMUM_SIZE);
+    private static final Map<String, Index> INDEXES = new LruMap<String, Index>(MAXIMUM_SIZE);
+
+    /** The root folder of the job. */
+    private final File jobRoot;
+    /** The folder that contains the stored files. */
+    private final File root;
+
+    /**
+     * Returns the store of the job of the specified build.
+     *
+     * @param build
+     *            the build
+     * @return the store
+     */
+    public static SourceFileStore getStore(final AbstractBuild<?, ?> build) {
+        return new SourceFileStore(build.getParent().getRootDir());
+    }
+
+    /**
+     * Returns the file that contains the source of the specified temporary
+     * file of a build. If the build does not contain the temporary file, then
+     * the stored file referenced by the index of the build is returned. If an
+     * aggregated build does not reference the source itself, then the source
+     * is resolved in the module build that contains it, see
+     * {@link #addModule(File, File)}.
+     *
+     * @param owner
+     *            the build, might be <code>null</code> if the temporary
+     *            file is not resolved
+     * @param tempName
+     *            the absolute name of the temporary file, see
+     *            {@link AbstractAnnotation#getTempName(AbstractBuild)}
+     * @return the file that contains the source, this file does not exist if
+     *         the build neither contains nor references the source
+     */
+    public static File resolve(final AbstractBuild<?, ?> owner, final String tempName) {
+        File tempFile = new File(tempName);
+        if (!tempFile.exists() && owner != null) {
+            try {
+                File resolved = resolve(owner.getParent().getRootDir(), owner.getRootDir(), tempFile.getName());
+                if (resolved != null) {
+                    return resolved;
+                }
+            }
+            catch (IOException exception) {
+                // ignore and use the temporary file
+            }
+        }
+        return tempFile;
+    }
+
+    /**
+     * Returns the file that contains the source with the specified temporary
+     * name.
+     *
+     * @param jobRoot
+     *            the root folder of the job
+     * @param buildRoot
+     *            the root folder of the build
+     * @param tempName
+     *            the temporary name of the source
+     * @return the file that contains the source or <code>null</code> if the
+     *         build neither contains nor references the source
+     * @throws IOException
+     *             if an index could not be read
+     */
+    static File resolve(final File jobRoot, final File buildRoot, final String tempName) throws IOException {
+        File copy = new File(new File(buildRoot, AbstractAnnotation.WORKSPACE_FILES), tempName);
+        if (copy.exists()) {
+            return copy;
+        }
+        String digest = readReferences(buildRoot).get(tempName);
+        if (digest != null) {
+            return new SourceFileStore(jobRoot).getFile(digest);
+        }
+        String module = readIndex(getModulesFile(buildRoot)).get(tempName);
+        if (module != null) {
+            File moduleBuildRoot = getModuleBuildRoot(jobRoot, module);
+            return resolve(moduleBuildRoot.getParentFile().getParentFile(), moduleBuildRoot, tempName);
+        }
+        return null;
+    }
+
+    /**
+     * Opens the specified copy of a source file. Copies that have been
+     * compressed with {@link #compress(InputStream, OutputStream)} are
+     * decompressed while reading, other copies are read as is.
+     *
+     * @param file
+     *            the copy of the source file
+     * @return the stream to read the source from
+     * @throws IOException
+     *             if the file could not be opened
+     */
+    public static InputStream openInputStream(final File file) throws IOException {
+        InputStream input = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            input.mark(2);
+            int first = input.read();
+            int second = input.read();
+            input.reset();
+            if (first == (GZIPInputStream.GZIP_MAGIC & 0xFF) && second == GZIPInputStream.GZIP_MAGIC >> 8) {
+                return new GZIPInputStream(input, BUFFER_SIZE);
+            }
+            return input;
+        }
+        catch (IOException exception) {
+            IOUtils.closeQuietly(input);
+            throw exception;
+        }
+    }
+
+    /**
+     * Copies the specified source to the specified copy and compresses it.
+     * Source code typically compresses by a factor of 5 to 10. Both streams
+     * are closed afterwards.
+     *
+     * @param input
+     *            the source to copy
+     * @param output
+     *            the stream to write the compressed copy to
+     * @throws IOException
+     *             if the source could not be copied
+     */
+    public static void compress(final InputStream input, final OutputStream output) throws IOException {
+        try {
+            OutputStream compressed = new GZIPOutputStream(output, BUFFER_SIZE);
+            IOUtils.copy(input, compressed);
+            compressed.close();
+        }
+        finally {
+            IOUtils.closeQuietly(input);
+            IOUtils.closeQuietly(output);
+        }
+    }
+
+    /**
+     * Returns the references of the specified build.
+     *
+     * @param buildRoot
+     *            the root folder of the build
+     * @return the references: the key is the temporary name of the file, the
+     *         value the digest of its content
+     * @throws IOException
+     *             if the index could not be read
+     */
+    public static Map<String, String> readReferences(final File buildRoot) throws IOException {
+        return readIndex(getIndexFile(buildRoot));
+    }
+
+    private static Map<String, String> readIndex(final File file) throws IOException {
+        long lastModified = file.lastModified();
+        long size = file.length();
+        String key = file.getAbsolutePath();
+        synchronized (INDEXES) {
+            Index cached = INDEXES.get(key);
+            if (cached != null && cached.lastModified == lastModified && cached.size == size) {
+                return cached.references;
+            }
+        }
+        if (!file.exists()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, String> references = new HashMap<String, String>();
+        @SuppressWarnings("unchecked")
+        List<String> lines = FileUtils.readLines(file, ENCODING);
+        for (String line : lines) {
+            if (StringUtils.isNotBlank(line)) {
+                references.put(StringUtils.substringBefore(line, SEPARATOR), StringUtils.substringAfter(line, SEPARATOR));
+            }
+        }
+        return cache(key, new Index(references, size, lastModified));
+    }
+
+    private static Map<String, String> cache(final String key, final Index index) {
+        synchronized (INDEXES) {
+            INDEXES.put(key, index);
+        }
+        return index.references;
+    }
+
+    private static File getIndexFile(final File buildRoot) {
+        return new File(new File(buildRoot, AbstractAnnotation.WORKSPACE_FILES), INDEX_FILE);
+    }
+
+    private static File getModulesFile(final File buildRoot) {
+        return new File(new File(buildRoot, AbstractAnnotation.WORKSPACE_FILES), MODULES_FILE);
+    }
+
+    private static File getReferrersFile(final File buildRoot) {
+        return new File(new File(buildRoot, AbstractAnnotation.WORKSPACE_FILES), REFERRERS_FILE);
+    }
+
+    /**
+     * Returns the root folder of the module build that is referenced by an
+     * entry of the modules index of a build.
+     *
+     * @param jobRoot
+     *            the root folder of the job of the aggregated build
+     * @param module
+     *            the entry of the modules index
+     * @return the root folder of the module build
+     */
+    private static File getModuleBuildRoot(final File jobRoot, final String module) {
+        File moduleBuildRoot = new File(module);
+        if (moduleBuildRoot.isAbsolute()) {
+            return moduleBuildRoot;
+        }
+        return new File(jobRoot, module);
+    }
+
+    /**
+     * Adds the specified entries to the specified index file.
+     *
+     * @param file
+     *            the index file
+     * @param entries
+     *            the entries to add
+     * @throws IOException
+     *             if the index could not be written
+     */
+    private static void addToIndex(final File file, final Map<String, String> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        synchronized (LOCK) {
+            Map<String, String> index = new HashMap<String, String>(readIndex(file));
+            index.putAll(entries);
+
+            File temp = new File(file.getPath() + TEMP_SUFFIX);
+            StringBuilder content = new StringBuilder();
+            for (Map.Entry<String, String> entry : index.entrySet()) {
+                content.append(entry.getKey()).append(SEPARATOR).append(entry.getValue()).append('\n');
+            }
+            FileUtils.writeStringToFile(temp, content.toString(), ENCODING);
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Can't replace existing index " + file);
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Can't rename " + temp + " to " + file);
+            }
+            cache(file.getAbsolutePath(), new Index(index, file.length(), file.lastModified()));
+        }
+    }
+
+    /**
+     * Creates a new instance of {@link SourceFileStore}.
+     *
+     * @param jobRoot
+     *            the root folder of the job
+     */
+    public SourceFileStore(final File jobRoot) {
+        this.jobRoot = jobRoot;
+        root = new File(jobRoot, STORE_FOLDER);
+    }
+
+    /**
+     * Returns the stored file with the specified digest.
+     *
+     * @param digest
+     *            the digest of the content
+     * @return the stored file, this file does not exist if no such content
+     *         has been stored
+     */
+    public File getFile(final String digest) {
+        return new File(new File(root, digest.substring(0, 2)), digest);
+    }
+
+    /**
+     * Returns whether a file with the specified digest is stored. If so, the
+     * file is protected from being removed until the grace period expires.
+     *
+     * @param digest
+     *            the digest of the content
+     * @return <code>true</code> if the file is stored, <code>false</code>
+     *         otherwise
+     */
+    public boolean retain(final String digest) {
+        File file = getFile(digest);
+
+        return file.setLastModified(System.currentTimeMillis()) || file.exists();
+    }
+
+    /**
+     * Creates a temporary file in the store that can be filled with the
+     * content of a file and then stored with {@link #put(String, File)}.
+     *
+     * @return the temporary file
+     * @throws IOException
+     *             if the file could not be created
+     */
+    public File createTempFile() throws IOException {
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new IOException("Can't create directory for source files: " + root.getAbsolutePath());
+        }
+        return File.createTempFile("source", TEMP_SUFFIX, root);
+    }
+
+    /**
+     * Stores the specified content.
+     *
+     * @param digest
+     *            the digest of the content
+     * @param content
+     *            the content
+     * @throws IOException
+     *             if the content could not be stored
+     */
+    public void put(final String digest, final byte[] content) throws IOException {
+        if (!retain(digest)) {
+            File temp = createTempFile();
+            try {
+                compress(new ByteArrayInputStream(content), new FileOutputStream(temp));
+                install(digest, temp);
+            }
+            finally {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Stores the specified temporary file, see {@link #createTempFile()}. The
+     * temporary file is removed afterwards.
+     *
+     * @param digest
+     *            the expected digest of the content
+     * @param temp
+     *            the temporary file
+     * @throws IOException
+     *             if the content does not match the digest or could not be
+     *             stored
+     */
+    public void put(final String digest, final File temp) throws IOException {
+        try {
+            if (!digest.equals(FileDigest.create(temp))) {
+                throw new IOException("Content of " + temp + " does not match the digest " + digest);
+            }
+            if (!retain(digest)) {
+                File compressed = createTempFile();
+                try {
+                    compress(new FileInputStream(temp), new FileOutputStream(compressed));
+                    install(digest, compressed);
+                }
+                finally {
+                    compressed.delete();
+                }
+            }
+        }
+        finally {
+            temp.delete();
+        }
+    }
+
+    private void install(final String digest, final File temp) throws IOException {
+        File file = getFile(digest);
+        File folder = file.getParentFile();
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Can't create directory for source files: " + folder.getAbsolutePath());
+        }
+        if (!temp.renameTo(file) && !file.exists()) {
+            throw new IOException("Can't rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * Adds the specified references to the index of the specified build. The
+     * referenced files need to be stored already.
+     *
+     * @param buildRoot
+     *            the root folder of the build
+     * @param references
+     *            the references to add: the key is the temporary name of
+     *            the file, the value the digest of its content
+     * @throws IOException
+     *             if the index could not be written
+     */
+    public void addReferences(final File buildRoot, final Map<String, String> references) throws IOException {
+        addToIndex(getIndexFile(buildRoot), references);
+    }
+
+    /**
+     * References the sources of the specified module build in the specified
+     * aggregated build of this job. The sources are neither copied nor
+     * stored again, they are resolved in the module build on demand. The
+     * aggregated build is registered in the module build, so the sources are
+     * stored in this job before the module build is deleted, see
+     * {@link #copyToReferrers(File)}. The module build needs to be stored in
+     * the folder <code>builds</code> of its job.
+     *
+     * @param buildRoot
+     *            the root folder of the aggregated build of this job
+     * @param moduleBuildRoot
+     *            the root folder of the module build
+     * @throws IOException
+     *             if the index of the module build could not be read or the
+     *             index of the aggregated build could not be written
+     */
+    public void addModule(final File buildRoot, final File moduleBuildRoot) throws IOException {
+        String module = getRelativePath(moduleBuildRoot);
+        Map<String, String> modules = new HashMap<String, String>();
+        String[] copies = new File(moduleBuildRoot, AbstractAnnotation.WORKSPACE_FILES).list();
+        if (copies != null) {
+            for (String copy : copies) {
+                if (copy.endsWith(COPY_SUFFIX)) {
+                    modules.put(copy, module);
+                }
+            }
+        }
+        for (String tempName : readReferences(moduleBuildRoot).keySet()) {
+            modules.put(tempName, module);
+        }
+        addToIndex(getModulesFile(buildRoot), modules);
+        String referrer = buildRoot.getAbsolutePath();
+        addToIndex(getReferrersFile(moduleBuildRoot),
+                Collections.singletonMap(Integer.toHexString(referrer.hashCode()), referrer));
+    }
+
+    /**
+     * Stores the sources of the specified module build of this job in the
+     * aggregated builds that reference them, see
+     * {@link #addModule(File, File)}. Call this method before the module
+     * build is deleted, otherwise the aggregated builds can't show these
+     * sources anymore.
+     *
+     * @param moduleBuildRoot
+     *            the root folder of the module build
+     * @return the number of stored references
+     * @throws IOException
+     *             if a source could not be stored
+     */
+    public int copyToReferrers(final File moduleBuildRoot) throws IOException {
+        File module = moduleBuildRoot.getCanonicalFile();
+        int count = 0;
+        for (String referrer : readIndex(getReferrersFile(moduleBuildRoot)).values()) {
+            File buildRoot = new File(referrer);
+            File referrerJobRoot = buildRoot.getParentFile().getParentFile();
+            SourceFileStore referrerStore = new SourceFileStore(referrerJobRoot);
+
+            Map<String, String> references = new HashMap<String, String>();
+            for (Map.Entry<String, String> entry : readIndex(getModulesFile(buildRoot)).entrySet()) {
+                if (getModuleBuildRoot(referrerJobRoot, entry.getValue()).getCanonicalFile().equals(module)) {
+                    File source = resolve(jobRoot, moduleBuildRoot, entry.getKey());
+                    if (source != null && source.exists()) {
+                        references.put(entry.getKey(), referrerStore.put(source));
+                    }
+                }
+            }
+            referrerStore.addReferences(buildRoot, references);
+            count += references.size();
+        }
+        return count;
+    }
+
+    /**
+     * Stores the content of the specified copy of a source file.
+     *
+     * @param copy
+     *            the copy, see {@link #openInputStream(File)}
+     * @return the digest of the content
+     * @throws IOException
+     *             if the content could not be stored
+     */
+    private String put(final File copy) throws IOException {
+        InputStream input = openInputStream(copy);
+        try {
+            byte[] content = IOUtils.toByteArray(input);
+            String digest = FileDigest.create(content);
+            put(digest, content);
+
+            return digest;
+        }
+        finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Returns the path of the specified folder relative to the root folder
+     * of this job, so that the job can be moved.
+     *
+     * @param folder
+     *            the folder
+     * @return the relative path, or the absolute path if the folder is not
+     *         contained in the root folder of this job
+     */
+    private String getRelativePath(final File folder) {
+        String prefix = jobRoot.getAbsolutePath() + File.separator;
+        String path = folder.getAbsolutePath();
+        if (path.startsWith(prefix)) {
+            return path.substring(prefix.length()).replace('\\', '/');
+        }
+        return path;
+    }
+
+    /**
+     * Returns whether this store contains any files.
+     *
+     * @return <code>true</code> if the folder of the store exists,
+     *         <code>false</code> otherwise
+     */
+    public boolean exists() {
+        return root.isDirectory();
+    }
+
+    /**
+     * Removes the stored files that are not referenced by a build of the job
+     * anymore. Files that have been stored or retained recently are kept. The
+     * indexes of all builds of the job are read, so the deletion of several
+     * builds should be handled by a single call.
+     *
+     * @param deletedBuildRoots
+     *            the root folders of the builds that are deleted, their
+     *            references are ignored
+     * @return the number of removed files
+     * @throws IOException
+     *             if the index of a build could not be read, nothing is
+     *             removed in this case
+     */
+    public int collectGarbage(final Collection<File> deletedBuildRoots) throws IOException {
+        if (!exists()) {
+            return 0;
+        }
+        Set<File> deleted = new HashSet<File>();
+        for (File deletedBuildRoot : deletedBuildRoots) {
+            deleted.add(deletedBuildRoot.getCanonicalFile());
+        }
+        Set<String> referenced = getReferencedDigests(deleted);
+
+        int count = 0;
+        long limit = System.currentTimeMillis() - GRACE_PERIOD;
+        for (File file : listFiles(root)) {
+            Collection<File> candidates;
+            if (file.isDirectory()) {
+                candidates = listFiles(file);
+            }
+            else {
+                candidates = Collections.singleton(file);
+            }
+            for (File candidate : candidates) {
+                if (!referenced.contains(candidate.getName()) && candidate.lastModified() < limit && candidate.delete()) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private Set<String> getReferencedDigests(final Set<File> deletedBuildRoots) throws IOException {
+        Set<String> referenced = new HashSet<String>();
+        for (File build : listFiles(new File(jobRoot, BUILDS_FOLDER))) {
+            if (build.isDirectory() && !build.getName().startsWith(".")
+                    && !deletedBuildRoots.contains(build.getCanonicalFile())) {
+                referenced.addAll(readReferences(build).values());
+            }
+        }
+        return referenced;
+    }
+
+    private Collection<File> listFiles(final File folder) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(files);
+    }
+
+    /**
+     * The references of a build and the state of the index file they have
+     * been read from.
+     */
+    private static final class Index {
+        private final Map<String, String> references;
+        private final long size;
+        private final long lastModified;
+
+        Index(final Map<String, String> references, final long size, final long lastModified) {
+            this.references = Collections.unmodifiableMap(references);
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package hudson.plugins.analysis.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Index of all files of a workspace that finds the files that end with a given
+ * relative path. The index stores the path of each file with reversed segments
+ * (e.g. <code>File.java/model/util</code> for
+ * <code>util/model/File.java</code>) in a sorted array. So all files that end
+ * with a given path are found with a binary search.
+ * <p>
+ * The index is created by a walk through the workspace that skips the folders
+ * of version control systems and build tools, see {@link #DEFAULT_EXCLUDES}.
+ * The skipped folder names can be changed with the system property
+ * <code>hudson.plugins.analysis.util.WorkspaceFileIndex.excludes</code>
+ * (comma separated list of folder names).
+ * </p>
+ *
+ * @author Ulli Hafner
+ */
+public class WorkspaceFileIndex implements Serializable {
+    private static final long serialVersionUID = 6309834127634817306L;
+
+    /** Names of the folders that are skipped by default. */
+    public static final String DEFAULT_EXCLUDES = ".git,.svn,.hg,CVS,node_modules,target";
+    /** System property that overrides the names of the skipped folders. */
+    private static final String EXCLUDES_PROPERTY = WorkspaceFileIndex.class.getName() + ".excludes";
+    private static final String SLASH = "/";
+
+    /** The paths of all files with reversed segments, sorted. */
+    private final String[] reversedPaths;
+
+    /**
+     * Returns the names of the folders that are skipped by default, see
+     * {@link #DEFAULT_EXCLUDES}.
+     *
+     * @return the names of the skipped folders
+     */
+    public static Set<String> getExcludes() {
+        String excludes = System.getProperty(EXCLUDES_PROPERTY, DEFAULT_EXCLUDES);
+
+        return new HashSet<String>(Arrays.asList(StringUtils.stripAll(StringUtils.split(excludes, ','))));
+    }
+
+    /**
+     * Creates an index of all files in the specified workspace. The folders
+     * of {@link #getExcludes()} are skipped.
+     *
+     * @param workspace
+     *            root directory of the workspace
+     * @return the index
+     * @throws IOException
+     *             if the workspace could not be read
+     */
+    public static WorkspaceFileIndex create(final File workspace) throws IOException {
+        return create(workspace, getExcludes());
+    }
+
+    /**
+     * Creates an index of all files in the specified workspace.
+     *
+     * @param workspace
+     *            root directory of the workspace
+     * @param excludes
+     *            the names of the folders to skip
+     * @return the index
+     * @throws IOException
+     *             if the workspace could not be read
+     */
+    public static WorkspaceFileIndex create(final File workspace, final Set<String> excludes) throws IOException {
+        List<String> fileNames = WorkspaceSnapshot.findFiles(workspace, excludes);
+
+        return new WorkspaceFileIndex(fileNames.toArray(new String[fileNames.size()]));
+    }
+
+    /**
+     * Creates a new instance of {@link WorkspaceFileIndex}.
+     *
+     * @param fileNames
+     *            the relative names of all files of the workspace
+     */
+    public WorkspaceFileIndex(final String[] fileNames) {
+        this(fileNames, Collections.<String>emptySet());
+    }
+
+    /**
+     * Creates a new instance of {@link WorkspaceFileIndex}.
+     *
+     * @param fileNames
+     *            the relative names of all files of the workspace
+     * @param excludes
+     *            the names of the folders whose files are not indexed
+     */
+    public WorkspaceFileIndex(final String[] fileNames, final Set<String> excludes) {
+        List<String> paths = new ArrayList<String>(fileNames.length);
+        for (String fileName : fileNames) {
+            String path = FilenameUtils.separatorsToUnix(fileName);
+            if (!isExcluded(path, excludes)) {
+                paths.add(reverse(path));
+            }
+        }
+        reversedPaths = paths.toArray(new String[paths.size()]);
+        Arrays.sort(reversedPaths);
+    }
+
+    private static boolean isExcluded(final String path, final Set<String> excludes) {
+        if (!excludes.isEmpty()) {
+            String[] segments = StringUtils.split(path, SLASH);
+            for (int i = 0; i < segments.length - 1; i++) {
+                if (excludes.contains(segments[i])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of files in this index.
+     *
+     * @return the number of files
+     */
+    public int size() {
+        return reversedPaths.length;
+    }
+
+    /**
+     * Returns the relative names of all files that end with the specified
+     * relative path. A match needs to cover complete path segments, i.e.
+     * <code>to/File.java</code> matches <code>path/to/File.java</code> but not
+     * <code>path/proto/File.java</code>.
+     *
+     * @param fileName
+     *            the relative path to find
+     * @return the relative names of the matching files (using UNIX separators)
+     */
+    public List<String> find(final String fileName) {
+        String suffix = reverse(StringUtils.removeStart(FilenameUtils.separatorsToUnix(fileName), "./"));
+        if (suffix.length() == 0) {
+            return Collections.emptyList();
+        }
+
+        List<String> matches = new ArrayList<String>();
+        int index = Arrays.binarySearch(reversedPaths, suffix);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        String prefix = suffix + SLASH;
+        for (int i = index; i < reversedPaths.length; i++) {
+            String path = reversedPaths[i];
+            if (path.equals(suffix) || path.startsWith(prefix)) {
+                matches.add(reverse(path));
+            }
+            else if (!path.startsWith(suffix)) {
+                break;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Reverses the segments of the specified path.
+     *
+     * @param path
+     *            the path (using UNIX separators)
+     * @return the path with reversed segments
+     */
+    private static String reverse(final String path) {
+        String[] segments = StringUtils.split(path, SLASH);
+        StringBuilder reversed = new StringBuilder(path.length());
+        for (int i = segments.length - 1; i >= 0; i--) {
+            reversed.append(segments[i]);
+            if (i > 0) {
+                reversed.append(SLASH);
+            }
+        }
+        return reversed.toString();
+    }
+}
@@ -0,0 +1,321 @@
+package hudson.plugins.analysis.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+/**
+ * The names of all files of a workspace, collected by a single walk through
+ * the workspace. The snapshot answers the queries of the {@link FileFinder},
+ * the {@link ModuleDetector} and the {@link WorkspaceFileIndex} from memory.
+ * <p>
+ * The snapshots of the publishers of the same build are shared: the most
+ * recently used snapshots are kept in memory of the machine that owns the
+ * workspace. The number of kept snapshots can be changed with the system
+ * property <code>hudson.plugins.analysis.util.WorkspaceSnapshot.maximumSize</code>.
+ * Since the snapshot does not see files that are created after the walk, a
+ * snapshot should be shared only by publishers that run after the build. The
+ * snapshots of a build should be released when the build has been finished,
+ * see {@link #release(String)}.
+ * </p>
+ *
+ * @author Ulli Hafner
+ */
+public final class WorkspaceSnapshot {
+    /** Default number of kept snapshots. */
+    private static final int DEFAULT_MAXIMUM_SIZE = 4;
+    /** Names of the folders of version control systems that are skipped. */
+    private static final Set<String> VCS_FOLDERS = new HashSet<String>(Arrays.asList(
+            ".git", ".svn", ".hg", ".bzr", "CVS", "SCCS", "_darcs"));
+    private static final String SEPARATORS = ", ";
+
+    /** Maximum number of kept snapshots. */
+    private static final int MAXIMUM_SIZE = Integer.getInteger(WorkspaceSnapshot.class.getName() + ".maximumSize", DEFAULT_MAXIMUM_SIZE);
+    /** The shared snapshots, each snapshot is created by the first caller only. */
+    private static final Map<String, FutureTask<WorkspaceSnapshot>> SNAPSHOTS
+            = new LruMap<String, FutureTask<WorkspaceSnapshot>>(MAXIMUM_SIZE);
+
+    /**
+     * Returns the snapshot of the specified workspace for the specified build.
+     * If there is no snapshot for the build yet, then a new snapshot is
+     * created. Concurrent callers for the same build wait for the snapshot
+     * of the first caller, so the workspace is walked only once.
+     *
+     * @param workspace
+     *            root directory of the workspace
+     * @param buildId
+     *            the unique ID of the build, might be <code>null</code> if
+     *            the snapshot should not be shared
+     * @return the snapshot
+     * @throws IOException
+     *             if the workspace could not be read
+     */
+    public static WorkspaceSnapshot get(final File workspace, final String buildId) throws IOException {
+        if (StringUtils.isBlank(buildId)) {
+            return create(workspace);
+        }
+
+        String key = getKeyPrefix(buildId) + workspace.getAbsolutePath();
+        FutureTask<WorkspaceSnapshot> snapshot;
+        boolean isCreator = false;
+        synchronized (SNAPSHOTS) {
+            snapshot = SNAPSHOTS.get(key);
+            if (snapshot == null) {
+                snapshot = new FutureTask<WorkspaceSnapshot>(new Callable<WorkspaceSnapshot>() {
+                    public WorkspaceSnapshot call() throws IOException {
+                        return create(workspace);
+                    }
+                });
+                SNAPSHOTS.put(key, snapshot);
+                isCreator = true;
+            }
+        }
+        if (isCreator) {
+            snapshot.run();
+        }
+        try {
+            return snapshot.get();
+        }
+        catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the snapshot of " + workspace);
+        }
+        catch (ExecutionException exception) {
+            synchronized (SNAPSHOTS) {
+                if (SNAPSHOTS.get(key) == snapshot) {
+                    SNAPSHOTS.remove(key);
+                }
+            }
+            Throwable cause = exception.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Releases the snapshots of the specified build.
+     *
+     * @param buildId
+     *            the unique ID of the build
+     */
+    public static void release(final String buildId) {
+        String prefix = getKeyPrefix(buildId);
+        synchronized (SNAPSHOTS) {
+            for (Iterator<String> iterator = SNAPSHOTS.keySet().iterator(); iterator.hasNext();) {
+                if (iterator.next().startsWith(prefix)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static String getKeyPrefix(final String buildId) {
+        return buildId + File.pathSeparator;
+    }
+
+    /**
+     * Creates a new snapshot of the specified workspace. The folders of
+     * version control systems are skipped.
+     *
+     * @param workspace
+     *            root directory of the workspace
+     * @return the snapshot
+     * @throws IOException
+     *             if the workspace could not be read
+     */
+    public static WorkspaceSnapshot create(final File workspace) throws IOException {
+        List<String> fileNames = findFiles(workspace, VCS_FOLDERS);
+
+        return new WorkspaceSnapshot(workspace, fileNames.toArray(new String[fileNames.size()]));
+    }
+
+    /**
+     * Returns the relative names of all files below the specified folder.
+     * Symbolic links to folders are followed only once.
+     *
+     * @param root
+     *            root directory of the workspace
+     * @param excludes
+     *            the names of the folders to skip
+     * @return the relative names of all files (using the platform separator)
+     * @throws IOException
+     *             if the workspace could not be read
+     */
+    static List<String> findFiles(final File root, final Set<String> excludes) throws IOException {
+        List<String> fileNames = new ArrayList<String>();
+        Set<String> visited = new HashSet<String>();
+        visited.add(root.getCanonicalPath());
+        walk(root, StringUtils.EMPTY, excludes, visited, fileNames);
+
+        return fileNames;
+    }
+
+    private static void walk(final File folder, final String prefix, final Set<String> excludes,
+            final Set<String> visited, final List<String> fileNames) throws IOException {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String name = child.getName();
+            if (child.isDirectory()) {
+                if (!excludes.contains(name) && visited.add(child.getCanonicalPath())) {
+                    walk(child, prefix + name + File.separator, excludes, visited, fileNames);
+                }
+            }
+            else {
+                fileNames.add(prefix + name);
+            }
+        }
+    }
+
+    /** Root directory of the workspace. */
+    private final File root;
+    /** The relative names of all files. */
+    private final String[] fileNames;
+    /** The index of the files, created on demand. */
+    private WorkspaceFileIndex fileIndex;
+    /** The module names of the path prefixes, created by the first {@link ModuleDetector}. */
+    private Map<String, String> moduleMapping;
+
+    /**
+     * Creates a new instance of {@link WorkspaceSnapshot}.
+     *
+     * @param root
+     *            root directory of the workspace
+     * @param fileNames
+     *            the relative names of all files of the workspace
+     */
+    WorkspaceSnapshot(final File root, final String[] fileNames) {
+        this.root = root;
+        this.fileNames = fileNames;
+    }
+
+    /**
+     * Returns the root directory of the workspace.
+     *
+     * @return the root directory
+     */
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the number of files in the workspace.
+     *
+     * @return the number of files
+     */
+    public int size() {
+        return fileNames.length;
+    }
+
+    /**
+     * Returns the relative names of the files that match the specified Ant
+     * pattern. Like in an Ant file set, several patterns can be separated by
+     * comma or space, and the default excludes of Ant are skipped.
+     *
+     * @param pattern
+     *            the Ant pattern(s) to match
+     * @return the relative names of the matching files
+     */
+    public String[] find(final String pattern) {
+        String[] includes = normalize(StringUtils.split(pattern, SEPARATORS));
+        String[] excludes = normalize(DirectoryScanner.getDefaultExcludes());
+
+        List<String> matches = new ArrayList<String>();
+        for (String fileName : fileNames) {
+            if (matches(includes, fileName) && !matches(excludes, fileName)) {
+                matches.add(fileName);
+            }
+        }
+        return matches.toArray(new String[matches.size()]);
+    }
+
+    private boolean matches(final String[] patterns, final String fileName) {
+        for (String pattern : patterns) {
+            if (SelectorUtils.matchPath(pattern, fileName, true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String[] normalize(final String[] patterns) {
+        String[] normalized = new String[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            normalized[i] = normalize(patterns[i]);
+        }
+        return normalized;
+    }
+
+    /**
+     * Normalizes the specified pattern in the same way as an Ant directory
+     * scanner does.
+     *
+     * @param pattern
+     *            the pattern
+     * @return the normalized pattern
+     */
+    private String normalize(final String pattern) {
+        String normalized = pattern.replace('/', File.separatorChar).replace('\\', File.separatorChar);
+        if (normalized.endsWith(File.separator)) {
+            normalized += "**";
+        }
+        return normalized;
+    }
+
+    /**
+     * Returns the index of the files of this workspace. The folders that are
+     * skipped by the {@link WorkspaceFileIndex} are not part of the index.
+     *
+     * @return the index
+     */
+    public synchronized WorkspaceFileIndex getFileIndex() {
+        if (fileIndex == null) {
+            fileIndex = new WorkspaceFileIndex(fileNames, WorkspaceFileIndex.getExcludes());
+        }
+        return fileIndex;
+    }
+
+    /**
+     * Returns the mapping of path prefixes to module names that has been
+     * created by a {@link ModuleDetector} for this snapshot.
+     *
+     * @return the mapping or <code>null</code> if there is no mapping yet
+     */
+    synchronized Map<String, String> getModuleMapping() {
+        return moduleMapping;
+    }
+
+    /**
+     * Sets the mapping of path prefixes to module names for this snapshot.
+     *
+     * @param moduleMapping
+     *            the mapping, must not be changed afterwards
+     */
+    synchronized void setModuleMapping(final Map<String, String> moduleMapping) {
+        this.moduleMapping = moduleMapping;
+    }
+}
@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
@@ -30,8 +31,8 @@ public abstract class AbstractAnnotation implements FileAnnotation, Serializable
     public static final String WORKSPACE_FILES = "workspace-files";
     /** Unique identifier of this class. */
     private static final long serialVersionUID = -1092014926477547148L;
-    /** Current key of this annotation. */
-    private static long currentKey;
+    /** Current key of this annotation. Annotations might be created by several threads in parallel. */
+    private static final AtomicLong CURRENT_KEY = new AtomicLong();
 
     /** The message of this annotation. */
     private final String message;
@@ -63,6 +64,15 @@ public abstract class AbstractAnnotation implements FileAnnotation, Serializable
     /** Relative path of this duplication. @since 1.10 */
     private String pathName;
 
+    /**
+     * Creates a new unique key for an annotation.
+     *
+     * @return the key
+     */
+    static long createKey() {
+        return CURRENT_KEY.getAndIncrement();
+    }
+
     /**
      * Creates a new instance of <code>AbstractAnnotation</code>.
      *
@@ -82,13 +92,13 @@ public abstract class AbstractAnnotation implements FileAnnotation, Serializable
         this.category = StringUtils.defaultString(category);
         this.type = StringUtils.defaultString(type);
 
-        key = currentKey++;
+        key = createKey();
 
         lineRanges = new ArrayList<LineRange>();
         lineRanges.add(new LineRange(start, end));
         primaryLineNumber = start;
 
-        contextHashCode = currentKey;
+        contextHashCode = key + 1;
     }
 
     /**
@@ -120,7 +130,7 @@ public abstract class AbstractAnnotation implements FileAnnotation, Serializable
      *            the annotation to copy the values from
      */
     public AbstractAnnotation(final AbstractAnnotation copy) {
-        key = currentKey++;
+        key = createKey();
 
         message = copy.getMessage();
         priority = copy.getPriority();
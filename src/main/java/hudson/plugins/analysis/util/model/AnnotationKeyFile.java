@@ -0,0 +1,145 @@
+package hudson.plugins.analysis.util.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Stores the keys of a subset of the annotations of a build, e.g. the keys of
+ * the new warnings. The annotations of the subset can be resolved afterwards
+ * using the {@link AnnotationContainer} that contains all annotations.
+ *
+ * @author Ulli Hafner
+ */
+public class AnnotationKeyFile {
+    /** Identifies the file format (KEYS). */
+    private static final int MAGIC = 0x4B455953;
+    /** Size of the read and write buffers. */
+    private static final int BUFFER_SIZE = 8 * 1024;
+    /** Suffix of the temporary file that will be renamed after a successful write. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** The file to read and write. */
+    private final File file;
+
+    /**
+     * Creates a new instance of {@link AnnotationKeyFile}.
+     *
+     * @param file
+     *            the file to read and write
+     */
+    public AnnotationKeyFile(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns whether the underlying file exists.
+     *
+     * @return <code>true</code> if the file exists, <code>false</code> otherwise
+     */
+    public boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * Writes the keys of the specified annotations to the underlying file. An
+     * existing file will be replaced.
+     *
+     * @param annotations
+     *            the annotations to write the keys of
+     * @throws IOException
+     *             if the file could not be written
+     */
+    public void write(final Collection<? extends FileAnnotation> annotations) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE));
+            output.writeInt(MAGIC);
+            output.writeInt(annotations.size());
+            for (FileAnnotation annotation : annotations) {
+                output.writeLong(annotation.getKey());
+            }
+            output.close();
+        }
+        finally {
+            IOUtils.closeQuietly(output);
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Can't replace existing keys file " + file);
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Can't rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * Reads the keys from the underlying file and returns the corresponding
+     * annotations of the specified container.
+     *
+     * @param container
+     *            the container that contains all annotations
+     * @return the annotations of the stored keys
+     * @throws IOException
+     *             if the file could not be read or if the container does not
+     *             contain an annotation with one of the stored keys
+     */
+    public Set<FileAnnotation> read(final AnnotationContainer container) throws IOException {
+        Set<FileAnnotation> annotations = new HashSet<FileAnnotation>();
+        try {
+            for (long key : readKeys()) {
+                annotations.add(container.getAnnotation(key));
+            }
+        }
+        catch (NoSuchElementException exception) {
+            IOException ioException = new IOException("Keys of " + file + " do not match the annotations");
+            ioException.initCause(exception);
+            throw ioException;
+        }
+        return annotations;
+    }
+
+    /**
+     * Reads the keys from the underlying file.
+     *
+     * @return the keys
+     * @throws IOException
+     *             if the file could not be read
+     */
+    public Collection<Long> readKeys() throws IOException {
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Not a keys file: " + file);
+            }
+            int size = input.readInt();
+            Collection<Long> keys = new ArrayList<Long>(size);
+            for (int i = 0; i < size; i++) {
+                keys.add(input.readLong());
+            }
+            return keys;
+        }
+        finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+}
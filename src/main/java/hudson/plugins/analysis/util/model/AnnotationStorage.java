@@ -0,0 +1,46 @@
+package hudson.plugins.analysis.util.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Reads and writes the annotations of a build from and to a file.
+ *
+ * @author Ulli Hafner
+ */
+public interface AnnotationStorage {
+    /**
+     * Returns whether the underlying file exists.
+     *
+     * @return <code>true</code> if the file exists, <code>false</code> otherwise
+     */
+    boolean exists();
+
+    /**
+     * Returns the file that is used to store the annotations.
+     *
+     * @return the file
+     */
+    File getFile();
+
+    /**
+     * Reads all annotations from the underlying file.
+     *
+     * @return the annotations
+     * @throws IOException
+     *             if the file could not be read
+     */
+    FileAnnotation[] read() throws IOException;
+
+    /**
+     * Writes the specified annotations to the underlying file. An existing file
+     * will be replaced.
+     *
+     * @param annotations
+     *            the annotations to write
+     * @throws IOException
+     *             if the file could not be written
+     */
+    void write(Collection<? extends FileAnnotation> annotations) throws IOException;
+}
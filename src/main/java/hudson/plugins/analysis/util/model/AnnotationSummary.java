@@ -0,0 +1,203 @@
+package hudson.plugins.analysis.util.model;
+
+import java.io.Serializable;
+
+import hudson.plugins.analysis.Messages;
+
+/**
+ * Aggregated counts of the annotations of an {@link AnnotationContainer}. A
+ * summary is small compared to the annotations it has been created from, so it
+ * can be used to answer all count queries of the overview pages without
+ * loading the annotations themselves.
+ *
+ * @author Ulli Hafner
+ */
+public class AnnotationSummary implements Serializable {
+    private static final long serialVersionUID = -3523720286155425468L;
+
+    /** Determines the title of the package category. */
+    private enum PackageCategory {
+        /** Java packages. */
+        PACKAGE,
+        /** C# name spaces. */
+        NAMESPACE,
+        /** Folders. */
+        PATH
+    }
+
+    /** The number of high priority annotations. */
+    private final int high;
+    /** The number of normal priority annotations. */
+    private final int normal;
+    /** The number of low priority annotations. */
+    private final int low;
+    /** The kind of the packages. */
+    private final PackageCategory packageCategory;
+
+    /** The number of modules with annotations. */
+    private final int modules;
+    /** The number of packages with annotations. */
+    private final int packages;
+    /** The number of files with annotations. */
+    private final int files;
+    /** The number of categories with annotations. */
+    private final int categories;
+    /** The number of types with annotations. */
+    private final int types;
+
+    /**
+     * Creates a new instance of {@link AnnotationSummary} that contains the
+     * counts of the specified container.
+     *
+     * @param container
+     *            the container to summarize
+     */
+    public AnnotationSummary(final AnnotationContainer container) {
+        high = container.getNumberOfAnnotations(Priority.HIGH);
+        normal = container.getNumberOfAnnotations(Priority.NORMAL);
+        low = container.getNumberOfAnnotations(Priority.LOW);
+        packageCategory = getPackageCategory(container);
+
+        modules = container.getModules().size();
+        packages = container.getPackages().size();
+        files = container.getFiles().size();
+        categories = container.getCategories().size();
+        types = container.getTypes().size();
+    }
+
+    /**
+     * Creates an empty summary.
+     */
+    public AnnotationSummary() {
+        this(new JavaProject());
+    }
+
+    private static PackageCategory getPackageCategory(final AnnotationContainer container) {
+        if (container.hasAnnotations()) {
+            FileAnnotation annotation = container.getAnnotations().iterator().next();
+            if (annotation.getFileName().endsWith(".cs")) {
+                return PackageCategory.NAMESPACE;
+            }
+            if (!annotation.hasPackageName()) {
+                return PackageCategory.PATH;
+            }
+        }
+        return PackageCategory.PACKAGE;
+    }
+
+    /**
+     * Returns the total number of annotations.
+     *
+     * @return the number of annotations
+     */
+    public int getNumberOfAnnotations() {
+        return high + normal + low;
+    }
+
+    /**
+     * Returns the number of annotations with the specified priority.
+     *
+     * @param priority
+     *            the priority
+     * @return the number of annotations with the specified priority
+     */
+    public int getNumberOfAnnotations(final Priority priority) {
+        if (priority == Priority.HIGH) {
+            return high;
+        }
+        else if (priority == Priority.NORMAL) {
+            return normal;
+        }
+        else {
+            return low;
+        }
+    }
+
+    /**
+     * Returns the number of high priority annotations.
+     *
+     * @return the number of high priority annotations
+     */
+    public int getNumberOfHighAnnotations() {
+        return high;
+    }
+
+    /**
+     * Returns the number of normal priority annotations.
+     *
+     * @return the number of normal priority annotations
+     */
+    public int getNumberOfNormalAnnotations() {
+        return normal;
+    }
+
+    /**
+     * Returns the number of low priority annotations.
+     *
+     * @return the number of low priority annotations
+     */
+    public int getNumberOfLowAnnotations() {
+        return low;
+    }
+
+    /**
+     * Returns the package category title for the summarized files.
+     *
+     * @return the package category title
+     * @see AnnotationContainer#getPackageCategoryTitle()
+     */
+    public String getPackageCategoryTitle() {
+        if (packageCategory == PackageCategory.NAMESPACE) {
+            return Messages.NamespaceDetail_title();
+        }
+        if (packageCategory == PackageCategory.PATH) {
+            return Messages.PathDetail_title();
+        }
+        return Messages.PackageDetail_title();
+    }
+
+    /**
+     * Returns the number of modules with annotations.
+     *
+     * @return the number of modules
+     */
+    public int getNumberOfModules() {
+        return modules;
+    }
+
+    /**
+     * Returns the number of packages with annotations.
+     *
+     * @return the number of packages
+     */
+    public int getNumberOfPackages() {
+        return packages;
+    }
+
+    /**
+     * Returns the number of files with annotations.
+     *
+     * @return the number of files
+     */
+    public int getNumberOfFiles() {
+        return files;
+    }
+
+    /**
+     * Returns the number of categories with annotations.
+     *
+     * @return the number of categories
+     */
+    public int getNumberOfCategories() {
+        return categories;
+    }
+
+    /**
+     * Returns the number of types with annotations.
+     *
+     * @return the number of types
+     */
+    public int getNumberOfTypes() {
+        return types;
+    }
+}
@@ -0,0 +1,729 @@
+package hudson.plugins.analysis.util.model; // NOPMD
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.converters.reflection.SerializationMethodInvoker;
+
+/**
+ * Stores annotations in a compact, column oriented binary format. All string
+ * properties of the annotations (message, file, module, package, category,
+ * type, origin and path) are dictionary encoded, i.e. each distinct value is
+ * stored only once. Keys, line numbers, priorities and context hash codes are
+ * stored as primitive arrays.
+ * <p>
+ * Additional properties of sub classes of {@link AbstractAnnotation} are
+ * stored as typed values per annotation. Values of types that are not known to
+ * this storage are serialized using the provided {@link XStream}.
+ * </p>
+ *
+ * @author Ulli Hafner
+ */
+// CHECKSTYLE:COUPLING-OFF
+@SuppressWarnings("PMD.TooManyMethods")
+public class BinaryAnnotationStorage implements AnnotationStorage {
+    /** Identifies the file format (ANNO). */
+    private static final int MAGIC = 0x414E4E4F;
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+    /** Size of the read and write buffers. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Marks a <code>null</code> value in a dictionary encoded or priority column. */
+    private static final int NULL = -1;
+    /** Suffix of the temporary file that will be renamed after a successful write. */
+    private static final String TEMP_SUFFIX = ".tmp";
+    /** Encoding of the strings in the dictionary. */
+    private static final String UTF_8 = "UTF-8";
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte STRING_VALUE = 1;
+    private static final byte INTEGER_VALUE = 2;
+    private static final byte LONG_VALUE = 3;
+    private static final byte BOOLEAN_VALUE = 4;
+    private static final byte DOUBLE_VALUE = 5;
+    private static final byte FLOAT_VALUE = 6;
+    private static final byte SHORT_VALUE = 7;
+    private static final byte BYTE_VALUE = 8;
+    private static final byte CHARACTER_VALUE = 9;
+    private static final byte ENUM_VALUE = 10;
+    private static final byte OBJECT_VALUE = 11;
+
+    /** The file to read and write. */
+    private final File file;
+    /** Used to resolve classes and to serialize values of unknown types. */
+    private final XStream xstream;
+    /** Field layouts of all annotation classes that have been processed so far. */
+    private final Map<Class<?>, ClassLayout> layouts = new HashMap<Class<?>, ClassLayout>();
+
+    /**
+     * Creates a new instance of {@link BinaryAnnotationStorage}.
+     *
+     * @param file
+     *            the file to read and write
+     * @param xstream
+     *            the XStream to resolve annotation classes and to serialize
+     *            values of unknown types
+     */
+    public BinaryAnnotationStorage(final File file, final XStream xstream) {
+        this.file = file;
+        this.xstream = xstream;
+    }
+
+    /** {@inheritDoc} */
+    public boolean exists() {
+        return file.exists();
+    }
+
+    /** {@inheritDoc} */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IOException
+     *             if the file could not be written or if one of the
+     *             annotations is not a sub class of {@link AbstractAnnotation}
+     */
+    public void write(final Collection<? extends FileAnnotation> annotations) throws IOException {
+        ColumnWriter columns = new ColumnWriter(annotations.size());
+        for (FileAnnotation annotation : annotations) {
+            if (!(annotation instanceof AbstractAnnotation)) {
+                throw new IOException("Binary storage supports sub classes of AbstractAnnotation only: "
+                        + annotation.getClass().getName());
+            }
+            columns.add((AbstractAnnotation)annotation);
+        }
+
+        File temp = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE));
+            columns.write(output);
+            output.close();
+        }
+        finally {
+            IOUtils.closeQuietly(output);
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Can't replace existing annotations file " + file);
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Can't rename " + temp + " to " + file);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public FileAnnotation[] read() throws IOException {
+        return read(false);
+    }
+
+    /**
+     * Reads all annotations from the underlying file and assigns a new unique
+     * key to each annotation. Use this method if the annotations are added to
+     * a container that might contain annotations of another build.
+     *
+     * @return the annotations
+     * @throws IOException
+     *             if the file could not be read
+     */
+    public FileAnnotation[] readWithNewKeys() throws IOException {
+        return read(true);
+    }
+
+    private FileAnnotation[] read(final boolean createKeys) throws IOException {
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+
+            return new ColumnReader(createKeys).read(input);
+        }
+        finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+
+    /**
+     * Returns the field layout of the specified annotation class.
+     *
+     * @param type
+     *            the annotation class
+     * @return the field layout
+     */
+    private ClassLayout getLayout(final Class<?> type) {
+        ClassLayout layout = layouts.get(type);
+        if (layout == null) {
+            layout = new ClassLayout(type);
+            layouts.put(type, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Creates an {@link IOException} that wraps the specified cause.
+     *
+     * @param message
+     *            the message of the exception
+     * @param cause
+     *            the cause
+     * @return the exception
+     */
+    private static IOException createException(final String message, final Throwable cause) {
+        IOException exception = new IOException(message);
+        exception.initCause(cause);
+
+        return exception;
+    }
+
+    /**
+     * Collects the columns of all annotations and writes them to an output stream.
+     */
+    private final class ColumnWriter {
+        private final List<String> strings = new ArrayList<String>();
+        private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        private final List<ClassLayout> classes = new ArrayList<ClassLayout>();
+        private final Map<Class<?>, Integer> classIndexes = new HashMap<Class<?>, Integer>();
+
+        private final int size;
+        private int row;
+        private final int[] types;
+        private final long[] keys;
+        private final int[] messages;
+        private final byte[] priorities;
+        private final int[] primaryLines;
+        private final int[] rangeCounts;
+        private final List<LineRange> ranges = new ArrayList<LineRange>();
+        private final int[] files;
+        private final int[] modules;
+        private final int[] packages;
+        private final int[] categories;
+        private final int[] annotationTypes;
+        private final int[] origins;
+        private final int[] paths;
+        private final long[] contextHashCodes;
+        private final ByteArrayOutputStream extrasBuffer = new ByteArrayOutputStream();
+        private final DataOutputStream extras = new DataOutputStream(extrasBuffer);
+
+        /**
+         * Creates a new instance of {@link ColumnWriter}.
+         *
+         * @param size
+         *            the number of annotations
+         */
+        ColumnWriter(final int size) {
+            this.size = size;
+            types = new int[size];
+            keys = new long[size];
+            messages = new int[size];
+            priorities = new byte[size];
+            primaryLines = new int[size];
+            rangeCounts = new int[size];
+            files = new int[size];
+            modules = new int[size];
+            packages = new int[size];
+            categories = new int[size];
+            annotationTypes = new int[size];
+            origins = new int[size];
+            paths = new int[size];
+            contextHashCodes = new long[size];
+        }
+
+        /**
+         * Adds the specified annotation as a new row.
+         *
+         * @param annotation
+         *            the annotation to add
+         * @throws IOException
+         *             if the properties of the annotation could not be read
+         */
+        void add(final AbstractAnnotation annotation) throws IOException {
+            ClassLayout layout = getLayout(annotation.getClass());
+            try {
+                types[row] = getClassIndex(layout);
+                keys[row] = annotation.getKey();
+                messages[row] = intern(annotation.getMessage());
+                Priority priority = annotation.getPriority();
+                priorities[row] = (byte)(priority == null ? NULL : priority.ordinal());
+                primaryLines[row] = annotation.getPrimaryLineNumber();
+                Collection<LineRange> lineRanges = annotation.getLineRanges();
+                rangeCounts[row] = lineRanges.size();
+                ranges.addAll(lineRanges);
+                files[row] = intern(annotation.getFileName());
+                modules[row] = intern((String)layout.moduleName.get(annotation));
+                packages[row] = intern((String)layout.packageName.get(annotation));
+                categories[row] = intern(annotation.getCategory());
+                annotationTypes[row] = intern(annotation.getType());
+                origins[row] = intern((String)layout.origin.get(annotation));
+                paths[row] = intern(annotation.getPathName());
+                contextHashCodes[row] = annotation.getContextHashCode();
+
+                for (Field field : layout.extraFields) {
+                    writeValue(field.get(annotation));
+                }
+            }
+            catch (IllegalAccessException exception) {
+                throw createException("Can't read properties of " + annotation, exception);
+            }
+            row++;
+        }
+
+        private int getClassIndex(final ClassLayout layout) {
+            Integer index = classIndexes.get(layout.type);
+            if (index == null) {
+                index = classes.size();
+                classes.add(layout);
+                classIndexes.put(layout.type, index);
+                for (Field field : layout.extraFields) {
+                    intern(field.getDeclaringClass().getName());
+                    intern(field.getName());
+                }
+                intern(layout.type.getName());
+            }
+            return index;
+        }
+
+        private int intern(final String value) {
+            if (value == null) {
+                return NULL;
+            }
+            Integer index = dictionary.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.add(value);
+                dictionary.put(value, index);
+            }
+            return index;
+        }
+
+        @SuppressWarnings("PMD.CyclomaticComplexity")
+        private void writeValue(final Object value) throws IOException {
+            if (value == null) {
+                extras.writeByte(NULL_VALUE);
+            }
+            else if (value instanceof String) {
+                extras.writeByte(STRING_VALUE);
+                extras.writeInt(intern((String)value));
+            }
+            else if (value instanceof Integer) {
+                extras.writeByte(INTEGER_VALUE);
+                extras.writeInt((Integer)value);
+            }
+            else if (value instanceof Long) {
+                extras.writeByte(LONG_VALUE);
+                extras.writeLong((Long)value);
+            }
+            else if (value instanceof Boolean) {
+                extras.writeByte(BOOLEAN_VALUE);
+                extras.writeBoolean((Boolean)value);
+            }
+            else if (value instanceof Double) {
+                extras.writeByte(DOUBLE_VALUE);
+                extras.writeDouble((Double)value);
+            }
+            else if (value instanceof Float) {
+                extras.writeByte(FLOAT_VALUE);
+                extras.writeFloat((Float)value);
+            }
+            else if (value instanceof Short) {
+                extras.writeByte(SHORT_VALUE);
+                extras.writeShort((Short)value);
+            }
+            else if (value instanceof Byte) {
+                extras.writeByte(BYTE_VALUE);
+                extras.writeByte((Byte)value);
+            }
+            else if (value instanceof Character) {
+                extras.writeByte(CHARACTER_VALUE);
+                extras.writeChar((Character)value);
+            }
+            else if (value instanceof Enum<?>) {
+                extras.writeByte(ENUM_VALUE);
+                extras.writeInt(intern(((Enum<?>)value).getDeclaringClass().getName()));
+                extras.writeInt(intern(((Enum<?>)value).name()));
+            }
+            else {
+                extras.writeByte(OBJECT_VALUE);
+                extras.writeInt(intern(xstream.toXML(value)));
+            }
+        }
+
+        /**
+         * Writes all columns to the specified output.
+         *
+         * @param output
+         *            the output to write to
+         * @throws IOException
+         *             if the output could not be written
+         */
+        void write(final DataOutputStream output) throws IOException {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+
+            output.writeInt(strings.size());
+            for (String value : strings) {
+                byte[] bytes = value.getBytes(UTF_8);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+
+            output.writeInt(classes.size());
+            for (ClassLayout layout : classes) {
+                output.writeInt(dictionary.get(layout.type.getName()));
+                output.writeInt(layout.extraFields.size());
+                for (Field field : layout.extraFields) {
+                    output.writeInt(dictionary.get(field.getDeclaringClass().getName()));
+                    output.writeInt(dictionary.get(field.getName()));
+                }
+            }
+
+            output.writeInt(size);
+            writeColumn(output, types);
+            for (long key : keys) {
+                output.writeLong(key);
+            }
+            writeColumn(output, messages);
+            output.write(priorities);
+            writeColumn(output, primaryLines);
+            writeColumn(output, rangeCounts);
+            for (LineRange range : ranges) {
+                output.writeInt(range.getStart());
+                output.writeInt(range.getEnd());
+            }
+            writeColumn(output, files);
+            writeColumn(output, modules);
+            writeColumn(output, packages);
+            writeColumn(output, categories);
+            writeColumn(output, annotationTypes);
+            writeColumn(output, origins);
+            writeColumn(output, paths);
+            for (long contextHashCode : contextHashCodes) {
+                output.writeLong(contextHashCode);
+            }
+
+            extras.flush();
+            output.writeInt(extrasBuffer.size());
+            extrasBuffer.writeTo(output);
+        }
+
+        private void writeColumn(final DataOutputStream output, final int[] column) throws IOException {
+            for (int value : column) {
+                output.writeInt(value);
+            }
+        }
+    }
+
+    /**
+     * Reads the columns of all annotations from an input stream and creates the annotations.
+     */
+    private final class ColumnReader {
+        /** Determines whether the stored keys are replaced by new keys. */
+        private final boolean createKeys;
+        private String[] strings;
+        private ClassLayout[] classes;
+        private Field[][] classFields;
+        private DataInputStream extras;
+
+        /**
+         * Creates a new instance of {@link ColumnReader}.
+         *
+         * @param createKeys
+         *            determines whether the stored keys are replaced by new keys
+         */
+        ColumnReader(final boolean createKeys) {
+            this.createKeys = createKeys;
+        }
+
+        /**
+         * Reads all annotations from the specified input.
+         *
+         * @param input
+         *            the input to read from
+         * @return the annotations
+         * @throws IOException
+         *             if the input could not be read or has an invalid format
+         */
+        @SuppressWarnings("PMD.ExcessiveMethodLength")
+        FileAnnotation[] read(final DataInputStream input) throws IOException {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Not a binary annotations file: " + file);
+            }
+            int version = input.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of binary annotations file: " + file);
+            }
+            readStrings(input);
+            readClasses(input);
+
+            int size = input.readInt();
+            int[] types = readColumn(input, size);
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = input.readLong();
+            }
+            int[] messages = readColumn(input, size);
+            byte[] priorities = new byte[size];
+            input.readFully(priorities);
+            int[] primaryLines = readColumn(input, size);
+            int[] rangeCounts = readColumn(input, size);
+            List<List<LineRange>> ranges = new ArrayList<List<LineRange>>(size);
+            for (int i = 0; i < size; i++) {
+                List<LineRange> lineRanges = new ArrayList<LineRange>(rangeCounts[i]);
+                for (int range = 0; range < rangeCounts[i]; range++) {
+                    lineRanges.add(new LineRange(input.readInt(), input.readInt()));
+                }
+                ranges.add(lineRanges);
+            }
+            int[] files = readColumn(input, size);
+            int[] modules = readColumn(input, size);
+            int[] packages = readColumn(input, size);
+            int[] categories = readColumn(input, size);
+            int[] annotationTypes = readColumn(input, size);
+            int[] origins = readColumn(input, size);
+            int[] paths = readColumn(input, size);
+            long[] contextHashCodes = new long[size];
+            for (int i = 0; i < size; i++) {
+                contextHashCodes[i] = input.readLong();
+            }
+            byte[] extrasBuffer = new byte[input.readInt()];
+            input.readFully(extrasBuffer);
+            extras = new DataInputStream(new ByteArrayInputStream(extrasBuffer));
+
+            Priority[] allPriorities = Priority.values();
+            SerializationMethodInvoker invoker = new SerializationMethodInvoker();
+            FileAnnotation[] annotations = new FileAnnotation[size];
+            for (int i = 0; i < size; i++) {
+                ClassLayout layout = classes[types[i]];
+                Object annotation = xstream.getReflectionProvider().newInstance(layout.type);
+                try {
+                    layout.key.setLong(annotation, createKeys ? AbstractAnnotation.createKey() : keys[i]);
+                    layout.message.set(annotation, getString(messages[i]));
+                    layout.priority.set(annotation, priorities[i] == NULL ? null : allPriorities[priorities[i]]);
+                    layout.primaryLineNumber.setInt(annotation, primaryLines[i]);
+                    layout.lineRanges.set(annotation, ranges.get(i));
+                    layout.fileName.set(annotation, getString(files[i]));
+                    layout.moduleName.set(annotation, getString(modules[i]));
+                    layout.packageName.set(annotation, getString(packages[i]));
+                    layout.category.set(annotation, getString(categories[i]));
+                    layout.annotationType.set(annotation, getString(annotationTypes[i]));
+                    layout.origin.set(annotation, getString(origins[i]));
+                    layout.pathName.set(annotation, getString(paths[i]));
+                    layout.contextHashCode.setLong(annotation, contextHashCodes[i]);
+
+                    for (Field field : classFields[types[i]]) {
+                        Object value = readValue();
+                        if (field != null) {
+                            field.set(annotation, value);
+                        }
+                    }
+                }
+                catch (IllegalAccessException exception) {
+                    throw createException("Can't restore properties of " + layout.type.getName(), exception);
+                }
+                catch (IllegalArgumentException exception) {
+                    throw createException("Can't restore properties of " + layout.type.getName(), exception);
+                }
+                annotations[i] = (FileAnnotation)invoker.callReadResolve(annotation);
+            }
+            return annotations;
+        }
+
+        private void readStrings(final DataInputStream input) throws IOException {
+            strings = new String[input.readInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                strings[i] = new String(bytes, UTF_8);
+            }
+        }
+
+        private void readClasses(final DataInputStream input) throws IOException {
+            int count = input.readInt();
+            classes = new ClassLayout[count];
+            classFields = new Field[count][];
+            for (int i = 0; i < count; i++) {
+                Class<?> type = resolveClass(strings[input.readInt()]);
+                classes[i] = getLayout(type);
+                int fieldCount = input.readInt();
+                classFields[i] = new Field[fieldCount];
+                for (int field = 0; field < fieldCount; field++) {
+                    String declaringClass = strings[input.readInt()];
+                    String name = strings[input.readInt()];
+                    classFields[i][field] = classes[i].findExtraField(declaringClass, name);
+                }
+            }
+        }
+
+        private Class<?> resolveClass(final String name) throws IOException {
+            try {
+                return xstream.getMapper().realClass(name);
+            }
+            // CHECKSTYLE:OFF
+            catch (RuntimeException exception) {
+            // CHECKSTYLE:ON
+                throw createException("Can't resolve annotation class " + name, exception);
+            }
+        }
+
+        private int[] readColumn(final DataInputStream input, final int size) throws IOException {
+            int[] column = new int[size];
+            for (int i = 0; i < size; i++) {
+                column[i] = input.readInt();
+            }
+            return column;
+        }
+
+        private String getString(final int index) {
+            if (index == NULL) {
+                return null;
+            }
+            return strings[index];
+        }
+
+        @SuppressWarnings({"PMD.CyclomaticComplexity", "unchecked", "rawtypes"})
+        private Object readValue() throws IOException {
+            byte tag = extras.readByte();
+            switch (tag) {
+                case NULL_VALUE:
+                    return null;
+                case STRING_VALUE:
+                    return getString(extras.readInt());
+                case INTEGER_VALUE:
+                    return extras.readInt();
+                case LONG_VALUE:
+                    return extras.readLong();
+                case BOOLEAN_VALUE:
+                    return extras.readBoolean();
+                case DOUBLE_VALUE:
+                    return extras.readDouble();
+                case FLOAT_VALUE:
+                    return extras.readFloat();
+                case SHORT_VALUE:
+                    return extras.readShort();
+                case BYTE_VALUE:
+                    return extras.readByte();
+                case CHARACTER_VALUE:
+                    return extras.readChar();
+                case ENUM_VALUE:
+                    Class enumType = resolveClass(getString(extras.readInt()));
+                    return Enum.valueOf(enumType, getString(extras.readInt()));
+                case OBJECT_VALUE:
+                    return xstream.fromXML(getString(extras.readInt()));
+                default:
+                    throw new IOException("Unknown value type " + tag + " in binary annotations file: " + file);
+            }
+        }
+    }
+
+    /**
+     * The fields of an annotation class that are read and written by this storage.
+     */
+    // CHECKSTYLE:VISIBILITY-OFF
+    private static final class ClassLayout {
+        final Class<?> type;
+        final Field message;
+        final Field priority;
+        final Field key;
+        final Field lineRanges;
+        final Field primaryLineNumber;
+        final Field fileName;
+        final Field moduleName;
+        final Field packageName;
+        final Field category;
+        final Field annotationType;
+        final Field contextHashCode;
+        final Field origin;
+        final Field pathName;
+        /** Additional fields of sub classes of {@link AbstractAnnotation}. */
+        final List<Field> extraFields = new ArrayList<Field>();
+
+        /**
+         * Creates a new instance of {@link ClassLayout}.
+         *
+         * @param type
+         *            the annotation class
+         */
+        ClassLayout(final Class<?> type) {
+            this.type = type;
+
+            message = getField("message");
+            priority = getField("priority");
+            key = getField("key");
+            lineRanges = getField("lineRanges");
+            primaryLineNumber = getField("primaryLineNumber");
+            fileName = getField("fileName");
+            moduleName = getField("moduleName");
+            packageName = getField("packageName");
+            category = getField("category");
+            annotationType = getField("type");
+            contextHashCode = getField("contextHashCode");
+            origin = getField("origin");
+            pathName = getField("pathName");
+
+            for (Class<?> current = type; current != null && current != AbstractAnnotation.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                        field.setAccessible(true);
+                        extraFields.add(field);
+                    }
+                }
+            }
+        }
+
+        private Field getField(final String name) {
+            try {
+                Field field = AbstractAnnotation.class.getDeclaredField(name);
+                field.setAccessible(true);
+
+                return field;
+            }
+            catch (NoSuchFieldException exception) {
+                throw new IllegalStateException("AbstractAnnotation has no field " + name, exception);
+            }
+        }
+
+        /**
+         * Finds the additional field with the specified name.
+         *
+         * @param declaringClass
+         *            the name of the class that declares the field
+         * @param name
+         *            the name of the field
+         * @return the field or <code>null</code> if the field does not exist anymore
+         */
+        Field findExtraField(final String declaringClass, final String name) {
+            for (Field field : extraFields) {
+                if (field.getName().equals(name) && field.getDeclaringClass().getName().equals(declaringClass)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+    }
+    // CHECKSTYLE:VISIBILITY-ON
+}
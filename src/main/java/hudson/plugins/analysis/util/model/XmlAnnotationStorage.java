@@ -0,0 +1,55 @@
+package hudson.plugins.analysis.util.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+import hudson.XmlFile;
+
+/**
+ * Stores annotations as XML using an {@link AnnotationStream}. This is the
+ * format that has been used for all builds before the
+ * {@link BinaryAnnotationStorage} has been introduced.
+ *
+ * @author Ulli Hafner
+ */
+public class XmlAnnotationStorage implements AnnotationStorage {
+    /** The XML file to read and write. */
+    private final XmlFile file;
+
+    /**
+     * Creates a new instance of {@link XmlAnnotationStorage}.
+     *
+     * @param file
+     *            the XML file to read and write
+     */
+    public XmlAnnotationStorage(final XmlFile file) {
+        this.file = file;
+    }
+
+    /** {@inheritDoc} */
+    public boolean exists() {
+        return file.exists();
+    }
+
+    /** {@inheritDoc} */
+    public File getFile() {
+        return file.getFile();
+    }
+
+    /** {@inheritDoc} */
+    public FileAnnotation[] read() throws IOException {
+        return (FileAnnotation[])file.read();
+    }
+
+    /** {@inheritDoc} */
+    public void write(final Collection<? extends FileAnnotation> annotations) throws IOException {
+        file.write(annotations.toArray(new FileAnnotation[annotations.size()]));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return file.toString();
+    }
+}
@@ -5,9 +5,11 @@ import java.util.Collection;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
+import hudson.model.Item;
 import hudson.model.ModelObject;
 import hudson.model.AbstractBuild;
 
+import hudson.plugins.analysis.util.SourceFileStore;
 import hudson.plugins.analysis.util.model.AnnotationContainer;
 import hudson.plugins.analysis.util.model.FileAnnotation;
 import hudson.plugins.analysis.util.model.Priority;
@@ -82,6 +84,23 @@ public abstract class AbstractAnnotationsDetail extends AnnotationContainer impl
         return owner;
     }
 
+    /**
+     * Checks if the source file of the specified annotation exists and the
+     * user is authorized to see the contents of the file. Besides the files
+     * checked by {@link FileAnnotation#canDisplayFile(AbstractBuild)}, the
+     * file in the {@link SourceFileStore} of the job is used.
+     *
+     * @param annotation
+     *            the annotation
+     * @return <code>true</code>, if the file can be shown
+     */
+    public boolean canDisplayFile(final FileAnnotation annotation) {
+        if (annotation.canDisplayFile(owner)) {
+            return true;
+        }
+        return owner.hasPermission(Item.WORKSPACE) && SourceFileStore.resolve(owner, annotation.getTempName(owner)).exists();
+    }
+
     /**
      * Returns whether this build is the last available build.
      *
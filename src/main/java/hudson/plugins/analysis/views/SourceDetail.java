@@ -5,12 +5,12 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringReader;
 import java.io.StringWriter;
-import java.util.NoSuchElementException;
+import java.io.Writer;
+import java.util.Iterator;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.LineIterator;
+import org.apache.commons.jelly.XMLOutput;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 
@@ -23,12 +23,21 @@ import hudson.model.AbstractBuild;
 import hudson.model.ModelObject;
 
 import hudson.plugins.analysis.util.EncodingValidator;
+import hudson.plugins.analysis.util.SourceExcerpt;
+import hudson.plugins.analysis.util.SourceFileStore;
 import hudson.plugins.analysis.util.model.FileAnnotation;
 import hudson.plugins.analysis.util.model.LineRange;
 
 /**
  * Renders a source file containing an annotation for the whole file or a
  * specific line number.
+ * <p>
+ * The page writes the highlighted source directly to the response, see
+ * {@link #writeSourceCode(Writer)}: the HTML of the highlighter is split into
+ * lines and the line ranges of the annotation are marked while the HTML is
+ * written. So besides the parsed source only the current line is kept in
+ * memory.
+ * </p>
  *
  * @author Ulli Hafner
  */
@@ -46,8 +55,8 @@ public class SourceDetail implements ModelObject {
     private final String fileName;
     /** The annotation to be shown. */
     private final FileAnnotation annotation;
-    /** The rendered source file. */
-    private String sourceCode = StringUtils.EMPTY;
+    /** The rendered source file, created on demand. */
+    private String sourceCode;
     /** The default encoding to be used when reading and parsing files. */
     private final String defaultEncoding;
 
@@ -66,32 +75,56 @@ public class SourceDetail implements ModelObject {
         this.annotation = annotation;
         this.defaultEncoding = defaultEncoding;
         fileName = StringUtils.substringAfterLast(annotation.getFileName(), "/");
+    }
 
-        initializeContent();
+    /**
+     * Writes the content of the source file to the specified output: reads
+     * the file, colors it, and marks the line ranges of the annotation.
+     *
+     * @param output
+     *            the output of the page
+     * @throws IOException
+     *             if the output could not be written
+     */
+    public void writeSourceCode(final XMLOutput output) throws IOException {
+        Writer writer = output.asWriter();
+        writeSourceCode(writer);
+        writer.flush();
     }
 
     /**
-     * Initializes the content of the source file: reads the file, colors it, and
-     * splits it into three parts.
+     * Writes the content of the source file to the specified writer: reads
+     * the file, colors it, and marks the line ranges of the annotation.
+     *
+     * @param writer
+     *            the writer to write the rendered source file to
+     * @throws IOException
+     *             if the writer could not be written
      */
-    private void initializeContent() {
+    public void writeSourceCode(final Writer writer) throws IOException {
+        JavaSource source;
         InputStream file = null;
         try {
-            File tempFile = new File(annotation.getTempName(owner));
+            File tempFile = SourceFileStore.resolve(owner, annotation.getTempName(owner));
             if (tempFile.exists()) {
-                file = new FileInputStream(tempFile);
+                file = SourceExcerpt.expand(SourceFileStore.openInputStream(tempFile));
             }
             else {
                 file = new FileInputStream(new File(annotation.getFileName()));
             }
-            splitSourceFile(highlightSource(file));
+            source = parse(file);
         }
         catch (IOException exception) {
-            sourceCode = "Can't read file: " + exception.getLocalizedMessage();
+            writer.write("Can't read file: " + exception.getLocalizedMessage());
+            return;
         }
         finally {
             IOUtils.closeQuietly(file);
         }
+
+        Writer renderer = new RangeRenderer(writer);
+        convert(source, renderer);
+        renderer.close();
     }
 
     /** {@inheritDoc} */
@@ -109,17 +142,23 @@ public class SourceDetail implements ModelObject {
      *             if the source code could not be read
      */
     public final String highlightSource(final InputStream file) throws IOException {
-        JavaSource source = new JavaSourceParser().parse(
+        StringWriter writer = new StringWriter();
+        convert(parse(file), writer);
+
+        return writer.toString();
+    }
+
+    private JavaSource parse(final InputStream file) throws IOException {
+        return new JavaSourceParser().parse(
                 new InputStreamReader(file, EncodingValidator.defaultCharset(defaultEncoding)));
+    }
 
+    private void convert(final JavaSource source, final Writer writer) throws IOException {
         JavaSource2HTMLConverter converter = new JavaSource2HTMLConverter();
-        StringWriter writer = new StringWriter();
         JavaSourceConversionOptions options = JavaSourceConversionOptions.getDefault();
         options.setShowLineNumbers(true);
         options.setAddLineAnchors(true);
         converter.convert(source, options, writer);
-
-        return writer.toString();
     }
 
     /**
@@ -129,66 +168,18 @@ public class SourceDetail implements ModelObject {
      * @param sourceFile
      *            the source code of the whole file as rendered HTML string
      */
-    // CHECKSTYLE:CONSTANTS-OFF
     public final void splitSourceFile(final String sourceFile) {
-        StringBuilder output = new StringBuilder(sourceFile.length());
-
-        LineIterator lineIterator = IOUtils.lineIterator(new StringReader(sourceFile));
-        int lineNumber = 1;
-
+        StringWriter output = new StringWriter(sourceFile.length());
         try {
-            while (lineNumber < SOURCE_GENERATOR_OFFSET) {
-                copyLine(output, lineIterator);
-                lineNumber++;
-            }
-            lineNumber = 1;
-            boolean isFirstRange = true;
-            for (LineRange range : annotation.getLineRanges()) {
-                while (lineNumber < range.getStart()) {
-                    copyLine(output, lineIterator);
-                    lineNumber++;
-                }
-                output.append("</code>\n");
-                output.append("</td></tr>\n");
-                output.append("<tr><td bgcolor=\"");
-                appendRangeColor(output, isFirstRange);
-                output.append("\">\n");
-                output.append("<div tooltip=\"");
-                if (range.getStart() > 0) {
-                    outputEscaped(output, annotation.getMessage());
-                }
-                outputEscaped(output, annotation.getToolTip());
-                output.append("\" nodismiss=\"\">\n");
-                output.append("<code><b>\n");
-                if (range.getStart() <= 0) {
-                    output.append(annotation.getMessage());
-                    if (StringUtils.isBlank(annotation.getMessage())) {
-                        output.append(annotation.getToolTip());
-                    }
-                }
-                else {
-                    while (lineNumber <= range.getEnd()) {
-                        copyLine(output, lineIterator);
-                        lineNumber++;
-                    }
-                }
-                output.append("</b></code>\n");
-                output.append("</div>\n");
-                output.append("</td></tr>\n");
-                output.append("<tr><td>\n");
-                output.append("<code>\n");
-                isFirstRange = false;
-            }
-            while (lineIterator.hasNext()) {
-                copyLine(output, lineIterator);
-            }
+            Writer renderer = new RangeRenderer(output);
+            renderer.write(sourceFile);
+            renderer.close();
         }
-        catch (NoSuchElementException exception) {
-            // ignore an illegal range
+        catch (IOException exception) {
+            // can't happen for a string writer
         }
         sourceCode = output.toString();
     }
-    // CHECKSTYLE:CONSTANTS-ON
 
     /**
      * Writes the message to the output stream (with escaped HTML).
@@ -215,17 +206,6 @@ public class SourceDetail implements ModelObject {
         }
     }
 
-    /**
-     * Copies the next line of the input to the output.
-     *
-     * @param output output
-     * @param lineIterator input
-     */
-    private void copyLine(final StringBuilder output, final LineIterator lineIterator) {
-        output.append(lineIterator.nextLine());
-        output.append("\n");
-    }
-
     /**
      * Gets the file name of this source file.
      *
@@ -245,12 +225,172 @@ public class SourceDetail implements ModelObject {
     }
 
     /**
-     * Returns the line that should be highlighted.
+     * Returns the rendered source file. Use {@link #writeSourceCode(Writer)}
+     * to render large files without creating the whole page in memory.
      *
-     * @return the line to highlight
+     * @return the rendered source file
      */
     public String getSourceCode() {
+        if (sourceCode == null) {
+            StringWriter writer = new StringWriter();
+            try {
+                writeSourceCode(writer);
+            }
+            catch (IOException exception) {
+                // can't happen for a string writer
+            }
+            sourceCode = writer.toString();
+        }
         return sourceCode;
     }
+
+    /**
+     * Splits the rendered source file into lines and writes the lines to the
+     * output. The line ranges of the annotation are marked while the lines
+     * are written. Only the current line is buffered.
+     */
+    private final class RangeRenderer extends Writer {
+        /** The output to write the lines to. */
+        private final Writer output;
+        /** The current line. */
+        private final StringBuilder line = new StringBuilder();
+        /** The markup and lines that are written next. */
+        private final StringBuilder pending = new StringBuilder();
+        /** The remaining line ranges of the annotation. */
+        private final Iterator<LineRange> ranges;
+        /** The remaining lines of the header of the source code generator. */
+        private int headerLines = SOURCE_GENERATOR_OFFSET - 1;
+        /** The number of the next line of the source file. */
+        private int lineNumber = 1;
+        /** The current line range, <code>null</code> if the next range has not been started. */
+        private LineRange range;
+        /** The next line range, <code>null</code> if the next range has not been read. */
+        private LineRange next;
+        private boolean isFirstRange = true;
+
+        RangeRenderer(final Writer output) {
+            super();
+
+            this.output = output;
+            ranges = annotation.getLineRanges().iterator();
+        }
+
+        @Override
+        public void write(final char[] buffer, final int offset, final int length) throws IOException {
+            int start = offset;
+            for (int i = offset; i < offset + length; i++) {
+                if (buffer[i] == '\n') {
+                    line.append(buffer, start, i - start);
+                    writeLine();
+                    start = i + 1;
+                }
+            }
+            line.append(buffer, start, offset + length - start);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        /**
+         * Writes the last line. The output is not closed.
+         *
+         * @throws IOException
+         *             if the output could not be written
+         */
+        @Override
+        public void close() throws IOException {
+            if (line.length() > 0) {
+                writeLine();
+            }
+            flush();
+        }
+
+        private void writeLine() throws IOException {
+            int length = line.length();
+            if (length > 0 && line.charAt(length - 1) == '\r') {
+                line.setLength(length - 1);
+            }
+            pending.append(line).append('\n');
+            line.setLength(0);
+
+            if (headerLines > 0) {
+                headerLines--;
+            }
+            else {
+                lineNumber++;
+            }
+            if (headerLines == 0) {
+                markRanges();
+            }
+            output.append(pending);
+            pending.setLength(0);
+        }
+
+        /**
+         * Starts and ends the line ranges until a range needs further lines
+         * of the source file. A range that starts before the first line shows
+         * only the message of the annotation and no lines of the source file.
+         */
+        // CHECKSTYLE:CONSTANTS-OFF
+        private void markRanges() {
+            while (true) {
+                if (range != null) {
+                    if (lineNumber <= range.getEnd()) {
+                        return;
+                    }
+                    endRange();
+                }
+                if (next == null) {
+                    if (!ranges.hasNext()) {
+                        return;
+                    }
+                    next = ranges.next();
+                }
+                if (lineNumber < next.getStart()) {
+                    return;
+                }
+                range = next;
+                next = null;
+                startRange();
+                if (range.getStart() <= 0) {
+                    endRange();
+                }
+            }
+        }
+
+        private void startRange() {
+            pending.append("</code>\n");
+            pending.append("</td></tr>\n");
+            pending.append("<tr><td bgcolor=\"");
+            appendRangeColor(pending, isFirstRange);
+            pending.append("\">\n");
+            pending.append("<div tooltip=\"");
+            if (range.getStart() > 0) {
+                outputEscaped(pending, annotation.getMessage());
+            }
+            outputEscaped(pending, annotation.getToolTip());
+            pending.append("\" nodismiss=\"\">\n");
+            pending.append("<code><b>\n");
+            if (range.getStart() <= 0) {
+                pending.append(annotation.getMessage());
+                if (StringUtils.isBlank(annotation.getMessage())) {
+                    pending.append(annotation.getToolTip());
+                }
+            }
+        }
+
+        private void endRange() {
+            pending.append("</b></code>\n");
+            pending.append("</div>\n");
+            pending.append("</td></tr>\n");
+            pending.append("<tr><td>\n");
+            pending.append("<code>\n");
+            isFirstRange = false;
+            range = null;
+        }
+        // CHECKSTYLE:CONSTANTS-ON
+    }
 }
 
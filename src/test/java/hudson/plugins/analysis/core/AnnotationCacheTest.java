@@ -0,0 +1,124 @@
+package hudson.plugins.analysis.core;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.junit.Test;
+
+import hudson.plugins.analysis.util.model.FileAnnotation;
+import hudson.plugins.analysis.util.model.JavaProject;
+
+/**
+ * Tests the class {@link AnnotationCache}.
+ *
+ * @author Ulli Hafner
+ */
+public class AnnotationCacheTest {
+    private static final String FIRST = "first";
+    private static final String SECOND = "second";
+    private static final String THIRD = "third";
+
+    /**
+     * Verifies that the least recently used entry is evicted if the budget is
+     * exceeded and that the evicted entry is still held softly.
+     */
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        AnnotationCache cache = new AnnotationCache(
+                2 * AnnotationCache.BYTES_PER_ANNOTATION + 3 * AnnotationCache.BYTES_PER_ENTRY - 1);
+
+        JavaProject first = new JavaProject();
+        JavaProject second = new JavaProject();
+        cache.putProject(FIRST, first);
+        cache.putProject(SECOND, second);
+
+        assertSame("First project not cached", first, cache.getProject(FIRST));
+        assertSame("Second project not cached", second, cache.getProject(SECOND));
+
+        cache.putAnnotations(THIRD, createAnnotations(2));
+
+        assertEquals("First project not evicted",
+                2 * AnnotationCache.BYTES_PER_ANNOTATION + 2 * AnnotationCache.BYTES_PER_ENTRY, cache.getSize());
+        assertSame("Evicted project not held softly", first, cache.getProject(FIRST));
+        assertSame("Second project evicted", second, cache.getProject(SECOND));
+        assertNotNull("Annotations not cached", cache.getAnnotations(THIRD));
+        assertTrue("Budget exceeded", cache.getSize() <= cache.getMaximumSize());
+    }
+
+    /**
+     * Verifies that a softly held entry is moved back into the least recently
+     * used entries when it is accessed again.
+     */
+    @Test
+    public void testSoftlyHeldEntryIsRestored() {
+        AnnotationCache cache = new AnnotationCache(
+                2 * AnnotationCache.BYTES_PER_ANNOTATION + 3 * AnnotationCache.BYTES_PER_ENTRY - 1);
+
+        JavaProject first = new JavaProject();
+        cache.putProject(FIRST, first);
+        cache.putProject(SECOND, new JavaProject());
+        cache.putAnnotations(THIRD, createAnnotations(2));
+
+        assertSame("Evicted project not held softly", first, cache.getProject(FIRST));
+        assertEquals("Evicted project not restored",
+                2 * AnnotationCache.BYTES_PER_ANNOTATION + 2 * AnnotationCache.BYTES_PER_ENTRY, cache.getSize());
+        assertSame("Restored project lost", first, cache.getProject(FIRST));
+        assertTrue("Budget exceeded", cache.getSize() <= cache.getMaximumSize());
+    }
+
+    /**
+     * Verifies that entries that exceed the budget are held softly and do not
+     * evict other entries.
+     */
+    @Test
+    public void testTooLargeEntryIsHeldSoftly() {
+        AnnotationCache cache = new AnnotationCache(AnnotationCache.BYTES_PER_ANNOTATION);
+
+        cache.putProject(FIRST, new JavaProject());
+        Collection<FileAnnotation> annotations = createAnnotations(2);
+        cache.putAnnotations(SECOND, annotations);
+
+        assertNotNull("Small project evicted", cache.getProject(FIRST));
+        assertEquals("Large annotations counted", AnnotationCache.BYTES_PER_ENTRY, cache.getSize());
+        assertSame("Large annotations not held softly", annotations, cache.getAnnotations(SECOND));
+    }
+
+    /**
+     * Verifies that the default budget scales with the maximum heap size.
+     */
+    @Test
+    public void testDefaultBudgetScalesWithHeap() {
+        long maximumHeapSize = Runtime.getRuntime().maxMemory();
+        if (maximumHeapSize != Long.MAX_VALUE) {
+            assertEquals("Wrong default budget", maximumHeapSize / 4, AnnotationCache.getDefaultMaximumSize());
+        }
+    }
+
+    /**
+     * Verifies that replacing an entry updates the estimated size.
+     */
+    @Test
+    public void testReplaceEntry() {
+        AnnotationCache cache = new AnnotationCache(Long.MAX_VALUE);
+
+        cache.putAnnotations(FIRST, createAnnotations(2));
+        long size = cache.getSize();
+        cache.putAnnotations(FIRST, createAnnotations(2));
+
+        assertEquals("Wrong size", size, cache.getSize());
+
+        cache.clear();
+        assertEquals("Wrong size", 0, cache.getSize());
+        assertNull("Entry not removed", cache.getAnnotations(FIRST));
+    }
+
+    private Collection<FileAnnotation> createAnnotations(final int size) {
+        Collection<FileAnnotation> annotations = new ArrayList<FileAnnotation>();
+        for (int i = 0; i < size; i++) {
+            annotations.add(null);
+        }
+        return annotations;
+    }
+}
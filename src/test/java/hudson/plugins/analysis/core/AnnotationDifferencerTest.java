@@ -0,0 +1,208 @@
+package hudson.plugins.analysis.core;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+import hudson.plugins.analysis.util.model.AbstractAnnotation;
+import hudson.plugins.analysis.util.model.FileAnnotation;
+import hudson.plugins.analysis.util.model.Priority;
+
+/**
+ * Tests the class {@link AnnotationDifferencer}.
+ *
+ * @author Ulli Hafner
+ */
+public class AnnotationDifferencerTest {
+    private static final String FILE_NAME = "/ws/src/Test.java";
+
+    /**
+     * Verifies that equal annotations and annotations with the same context
+     * hash code are neither new nor fixed.
+     */
+    @Test
+    public void testNewAndFixed() {
+        Warning unchanged = createWarning("Unchanged", 10, 1);
+        Warning moved = createWarning("Moved", 20, 2);
+        Warning fixed = createWarning("Fixed", 30, 3);
+        Set<FileAnnotation> previous = asSet(unchanged, moved, fixed);
+
+        Warning unchangedCopy = createWarning("Unchanged", 10, 4);
+        Warning movedCopy = createWarning("Moved", 25, 2);
+        Warning added = createWarning("New", 40, 5);
+        Set<FileAnnotation> actual = asSet(unchangedCopy, movedCopy, added);
+
+        assertEquals("Wrong new annotations", Collections.singleton(added),
+                AnnotationDifferencer.getNewAnnotations(actual, previous));
+        assertEquals("Wrong fixed annotations", Collections.singleton(fixed),
+                AnnotationDifferencer.getFixedAnnotations(actual, previous));
+    }
+
+    /**
+     * Verifies that the results are equal to the results of the previous
+     * implementation for random annotations.
+     */
+    @Test
+    public void testSameResultsAsPreviousImplementation() {
+        Random random = new Random(4711);
+        for (int i = 0; i < 10; i++) {
+            Set<FileAnnotation> previous = createAnnotations(random, 1000, 0);
+            Set<FileAnnotation> actual = createAnnotations(random, 1000, 100);
+            actual.addAll(copy(previous, 500));
+
+            assertEquals("Wrong new annotations",
+                    getNewAnnotations(actual, previous),
+                    AnnotationDifferencer.getNewAnnotations(actual, previous));
+            assertEquals("Wrong fixed annotations",
+                    getFixedAnnotations(actual, previous),
+                    AnnotationDifferencer.getFixedAnnotations(actual, previous));
+        }
+    }
+
+    /**
+     * Verifies that the fingerprints of equal annotations are equal.
+     */
+    @Test
+    public void testFingerprint() {
+        assertEquals("Wrong fingerprint", AnnotationDifferencer.getFingerprint(createWarning("Message", 1, 1)),
+                AnnotationDifferencer.getFingerprint(createWarning("Message", 1, 2)));
+        assertFalse("Wrong fingerprint", AnnotationDifferencer.getFingerprint(createWarning("Message", 1, 1))
+                == AnnotationDifferencer.getFingerprint(createWarning("Message", 2, 1)));
+    }
+
+    private Warning createWarning(final String message, final int line, final long contextHashCode) {
+        Warning warning = new Warning(Priority.NORMAL, message, FILE_NAME, line);
+        warning.setContextHashCode(contextHashCode);
+        return warning;
+    }
+
+    private Set<FileAnnotation> asSet(final FileAnnotation... annotations) {
+        Set<FileAnnotation> set = new HashSet<FileAnnotation>();
+        Collections.addAll(set, annotations);
+        return set;
+    }
+
+    /**
+     * Creates random annotations.
+     *
+     * @param random
+     *            the random generator
+     * @param size
+     *            the number of annotations
+     * @param offset
+     *            the offset of the line numbers
+     * @return the annotations
+     */
+    private Set<FileAnnotation> createAnnotations(final Random random, final int size, final int offset) {
+        Set<FileAnnotation> annotations = new HashSet<FileAnnotation>();
+        for (int i = 0; i < size; i++) {
+            Warning warning = new Warning(Priority.values()[random.nextInt(3)], "Message " + random.nextInt(size),
+                    "/ws/src/File" + random.nextInt(size / 10 + 1) + ".java", offset + random.nextInt(1000));
+            warning.setContextHashCode(random.nextInt(size * 2));
+            annotations.add(warning);
+        }
+        return annotations;
+    }
+
+    /**
+     * Creates copies of the first annotations of the specified set. Some of
+     * the copies get a new context hash code.
+     *
+     * @param annotations
+     *            the annotations to copy
+     * @param size
+     *            the number of annotations to copy
+     * @return the copies
+     */
+    private Set<FileAnnotation> copy(final Set<FileAnnotation> annotations, final int size) {
+        Set<FileAnnotation> copies = new HashSet<FileAnnotation>();
+        for (FileAnnotation annotation : annotations) {
+            if (copies.size() == size) {
+                break;
+            }
+            Warning copy = new Warning(annotation.getPriority(), annotation.getMessage(),
+                    annotation.getFileName(), annotation.getPrimaryLineNumber());
+            if (copies.size() % 2 == 0) {
+                copy.setContextHashCode(annotation.getContextHashCode());
+            }
+            else {
+                copy.setContextHashCode(-annotation.getContextHashCode() - 1);
+            }
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    /**
+     * Previous implementation of {@link AnnotationDifferencer#getNewAnnotations(Set, Set)}.
+     *
+     * @param actual
+     *            annotations in actual build
+     * @param previous
+     *            annotations in previous build
+     * @return the new annotations
+     */
+    private Set<FileAnnotation> getNewAnnotations(final Set<FileAnnotation> actual, final Set<FileAnnotation> previous) {
+        return removeDuplicates(difference(actual, previous), previous);
+    }
+
+    /**
+     * Previous implementation of {@link AnnotationDifferencer#getFixedAnnotations(Set, Set)}.
+     *
+     * @param actual
+     *            annotations in actual build
+     * @param previous
+     *            annotations in previous build
+     * @return the fixed annotations
+     */
+    private Set<FileAnnotation> getFixedAnnotations(final Set<FileAnnotation> actual, final Set<FileAnnotation> previous) {
+        return removeDuplicates(difference(previous, actual), actual);
+    }
+
+    private Set<FileAnnotation> difference(final Set<FileAnnotation> target, final Set<FileAnnotation> other) {
+        Set<FileAnnotation> difference = Sets.newHashSet(target);
+        difference.removeAll(other);
+        return difference;
+    }
+
+    private Set<FileAnnotation> removeDuplicates(final Set<FileAnnotation> targetSet, final Set<FileAnnotation> previous) {
+        Set<Long> otherHashCodes = new HashSet<Long>();
+        for (FileAnnotation annotation : previous) {
+            otherHashCodes.add(annotation.getContextHashCode());
+        }
+        Set<FileAnnotation> duplicates = Sets.newHashSet();
+        for (FileAnnotation annotation : targetSet) {
+            if (otherHashCodes.contains(annotation.getContextHashCode())) {
+                duplicates.add(annotation);
+            }
+        }
+
+        targetSet.removeAll(duplicates);
+        return targetSet;
+    }
+
+    /**
+     * Concrete warning for the test.
+     */
+    private static class Warning extends AbstractAnnotation {
+        private static final long serialVersionUID = 1L;
+
+        Warning(final Priority priority, final String message, final String fileName, final int line) {
+            super(priority, message, line, line, "Category", "Type");
+
+            setFileName(fileName);
+        }
+
+        /** {@inheritDoc} */
+        public String getToolTip() {
+            return "Tooltip";
+        }
+    }
+}
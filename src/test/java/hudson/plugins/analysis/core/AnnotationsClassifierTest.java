@@ -0,0 +1,245 @@
+package hudson.plugins.analysis.core;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import hudson.plugins.analysis.util.CacheDirectory;
+import hudson.plugins.analysis.util.ContextHashCode;
+import hudson.plugins.analysis.util.model.AbstractAnnotation;
+import hudson.plugins.analysis.util.model.FileAnnotation;
+import hudson.plugins.analysis.util.model.Priority;
+
+/**
+ * Tests the class {@link AnnotationsClassifier}.
+ *
+ * @author Ulli Hafner
+ */
+public class AnnotationsClassifierTest {
+    private static final int NUMBER_OF_FILES = 10;
+    private static final int NUMBER_OF_LINES = 50;
+    private static final String CAPTURE_LIMIT = AnnotationsClassifier.class.getName() + ".captureLimit";
+
+    private final List<File> files = new ArrayList<File>();
+
+    /**
+     * Creates some temporary source files.
+     *
+     * @throws IOException
+     *             if the files could not be created
+     */
+    @Before
+    public void createFiles() throws IOException {
+        for (int file = 0; file < NUMBER_OF_FILES; file++) {
+            File source = File.createTempFile("classifier", ".java");
+            FileWriter writer = new FileWriter(source);
+            try {
+                for (int line = 0; line < NUMBER_OF_LINES; line++) {
+                    writer.write("File " + file + " line " + line + "\n");
+                }
+            }
+            finally {
+                IOUtils.closeQuietly(writer);
+            }
+            files.add(source);
+        }
+    }
+
+    /**
+     * Removes the temporary files.
+     */
+    @After
+    public void deleteFiles() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Verifies that the parallel computation of the context hash codes
+     * produces the same results as the sequential computation.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testParallelAndSequentialResultsAreEqual() throws IOException {
+        Map<String, Long> sequential = classify(1);
+
+        assertEquals("Wrong number of annotations", NUMBER_OF_FILES * NUMBER_OF_LINES / 5, sequential.size());
+        assertEquals("Wrong results", sequential, classify(4));
+        assertEquals("Wrong results", sequential, classify(0));
+    }
+
+    /**
+     * Verifies that the package names are detected and the files are captured
+     * while computing the context hash codes.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testPackageDetectionAndCapture() throws IOException {
+        File source = File.createTempFile("classifier", ".java");
+        files.add(source);
+        FileUtils.writeStringToFile(source, "package test.pkg;\n\nclass Classifier {\n}\n");
+
+        List<FileAnnotation> annotations = new ArrayList<FileAnnotation>();
+        annotations.add(new Warning(source.getAbsolutePath(), 3));
+        annotations.add(new Warning(files.get(0).getAbsolutePath(), 1));
+        ParserResult result = new AnnotationsClassifier(new ParserResult(annotations), null, 1).invoke(null, null);
+
+        for (FileAnnotation annotation : result.getAnnotations()) {
+            File file = new File(annotation.getFileName());
+            assertEquals("Wrong context hash code",
+                    new ContextHashCode().create(annotation.getFileName(), annotation.getPrimaryLineNumber(), null),
+                    annotation.getContextHashCode());
+            assertArrayEquals("Wrong captured content", FileUtils.readFileToByteArray(file),
+                    result.getWorkspaceFiles().get(annotation.getFileName().replace('\\', '/')));
+            if (file.equals(source)) {
+                assertEquals("Wrong package", "test.pkg", annotation.getPackageName());
+            }
+            else {
+                assertFalse("Package detected", annotation.hasPackageName());
+            }
+        }
+        assertEquals("Wrong number of captured files", 2, result.getWorkspaceFiles().size());
+
+        result.addAnnotations(new ArrayList<FileAnnotation>(result.getAnnotations()));
+        assertEquals("Annotations with detected package added twice", 2, result.getNumberOfAnnotations());
+    }
+
+    /**
+     * Verifies that the same files are captured by the parallel and the
+     * sequential computation if the size limit is reached.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testCapturedFilesDoNotDependOnThreads() throws IOException {
+        System.setProperty(CAPTURE_LIMIT, String.valueOf(3 * files.get(0).length()));
+        try {
+            Set<String> sequential = createClassifier(1).invoke(null, null).getWorkspaceFiles().keySet();
+
+            assertEquals("Wrong number of captured files", 3, sequential.size());
+            for (int numberOfThreads = 0; numberOfThreads < 10; numberOfThreads++) {
+                assertEquals("Wrong captured files", sequential,
+                        createClassifier(numberOfThreads).invoke(null, null).getWorkspaceFiles().keySet());
+            }
+        }
+        finally {
+            System.clearProperty(CAPTURE_LIMIT);
+        }
+    }
+
+    /**
+     * Verifies that the files that did not change since the previous build are
+     * not captured again and that their cached hash codes are used.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testUnchangedFilesAreNotCaptured() throws IOException {
+        File workspace = File.createTempFile("workspace", "");
+        File cache = CacheDirectory.getFolder(workspace);
+        try {
+            ParserResult first = createClassifier(1).invoke(workspace, null);
+            assertEquals("Wrong number of captured files", NUMBER_OF_FILES, first.getWorkspaceFiles().size());
+
+            FileUtils.writeStringToFile(files.get(0), "changed\n");
+            ParserResult second = createClassifier(1).invoke(workspace, null);
+            assertEquals("Unchanged files captured", 1, second.getWorkspaceFiles().size());
+            assertTrue("Changed file not captured",
+                    second.getWorkspaceFiles().containsKey(files.get(0).getAbsolutePath().replace('\\', '/')));
+            assertEquals("Wrong results", classify(1), getHashCodes(second));
+        }
+        finally {
+            workspace.delete();
+            FileUtils.deleteDirectory(cache);
+        }
+    }
+
+    /**
+     * Verifies that the annotations of different plug-ins use different
+     * cache files.
+     */
+    @Test
+    public void testCacheFileDependsOnAnnotationType() {
+        List<FileAnnotation> warnings = new ArrayList<FileAnnotation>();
+        warnings.add(new Warning("a.java", 1));
+        List<FileAnnotation> others = new ArrayList<FileAnnotation>();
+        others.add(new Warning("a.java", 1) {
+            private static final long serialVersionUID = 1L;
+        });
+        List<FileAnnotation> otherWarnings = new ArrayList<FileAnnotation>();
+        otherWarnings.add(new Warning("b.java", 2));
+
+        String name = AnnotationsClassifier.getCacheFileName(warnings);
+        assertEquals("Same type uses a different cache", name, AnnotationsClassifier.getCacheFileName(otherWarnings));
+        assertFalse("Other type uses the same cache", name.equals(AnnotationsClassifier.getCacheFileName(others)));
+    }
+
+    private Map<String, Long> classify(final int numberOfThreads) throws IOException {
+        return getHashCodes(createClassifier(numberOfThreads).invoke(null, null));
+    }
+
+    private Map<String, Long> getHashCodes(final ParserResult result) {
+        Map<String, Long> hashCodes = new HashMap<String, Long>();
+        for (FileAnnotation annotation : result.getAnnotations()) {
+            hashCodes.put(annotation.getFileName() + ":" + annotation.getPrimaryLineNumber(),
+                    annotation.getContextHashCode());
+        }
+        return hashCodes;
+    }
+
+    private AnnotationsClassifier createClassifier(final int numberOfThreads) {
+        List<FileAnnotation> annotations = new ArrayList<FileAnnotation>();
+        for (File file : files) {
+            for (int line = 0; line < NUMBER_OF_LINES; line += 5) {
+                annotations.add(new Warning(file.getAbsolutePath(), line));
+            }
+        }
+        return new AnnotationsClassifier(new ParserResult(annotations), null, numberOfThreads);
+    }
+
+    /**
+     * Concrete warning for the test.
+     */
+    private static class Warning extends AbstractAnnotation {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Creates a new instance of {@link Warning}.
+         *
+         * @param fileName
+         *            the file name
+         * @param line
+         *            the line
+         */
+        Warning(final String fileName, final int line) {
+            super(Priority.NORMAL, "Message", line, line, "Category", "Type");
+
+            setFileName(fileName);
+        }
+
+        /** {@inheritDoc} */
+        public String getToolTip() {
+            return "Tooltip";
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package hudson.plugins.analysis.core;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import hudson.plugins.analysis.util.CacheDirectory;
+import hudson.plugins.analysis.util.model.AbstractAnnotation;
+import hudson.plugins.analysis.util.model.FileAnnotation;
+import hudson.plugins.analysis.util.model.Priority;
+
+/**
+ * Tests the class {@link FilesParser}.
+ *
+ * @author Ulli Hafner
+ */
+public class FilesParserTest {
+    private static final int NUMBER_OF_FILES = 20;
+    private static final int NUMBER_OF_LINES = 10;
+    private static final String BROKEN = "broken";
+
+    private File workspace;
+
+    /**
+     * Creates a temporary workspace with some reports.
+     *
+     * @throws IOException
+     *             if the files could not be created
+     */
+    @Before
+    public void createWorkspace() throws IOException {
+        workspace = File.createTempFile("workspace", "");
+        workspace.delete();
+        workspace.mkdirs();
+
+        for (int file = 0; file < NUMBER_OF_FILES; file++) {
+            writeReport("report-" + file + ".txt", NUMBER_OF_LINES);
+        }
+        writeReport("empty.txt", 0);
+        writeReport(BROKEN + ".txt", 1);
+    }
+
+    /**
+     * Removes the temporary workspace.
+     *
+     * @throws IOException
+     *             if the workspace could not be deleted
+     */
+    @After
+    public void deleteWorkspace() throws IOException {
+        FileUtils.deleteDirectory(workspace);
+        FileUtils.deleteDirectory(CacheDirectory.getFolder(workspace));
+    }
+
+    /**
+     * Verifies that the annotations of unchanged files are reused and that
+     * only new or modified files are parsed again.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testIncrementalParsing() throws IOException {
+        ParserResult expected = parse(1);
+
+        for (int threads : new int[] {1, 4}) {
+            LineParser.COUNTER.set(0);
+            ParserResult first = parseIncremental(threads);
+            assertEquals("Wrong number of parsed files", NUMBER_OF_FILES + 1, LineParser.COUNTER.get());
+            assertEquals("Wrong annotations", expected.getAnnotations(), first.getAnnotations());
+
+            LineParser.COUNTER.set(0);
+            ParserResult second = parseIncremental(threads);
+            assertEquals("Unchanged files parsed", 1, LineParser.COUNTER.get());
+            assertEquals("Wrong annotations", expected.getAnnotations(), second.getAnnotations());
+            assertEquals("Wrong modules", expected.getModules(), second.getModules());
+        }
+
+        writeReport("report-0.txt", NUMBER_OF_LINES + 1);
+        LineParser.COUNTER.set(0);
+        ParserResult changed = parseIncremental(1);
+        assertEquals("Changed file not parsed", 2, LineParser.COUNTER.get());
+        assertEquals("Wrong number of annotations", NUMBER_OF_FILES * NUMBER_OF_LINES + 1, changed.getNumberOfAnnotations());
+    }
+
+    private ParserResult parseIncremental(final int numberOfThreads) throws IOException {
+        FilesParser parser = new FilesParser("test", "**/*.txt", new LineParser(), false, false);
+        parser.setNumberOfThreads(numberOfThreads);
+        parser.setIncremental(true);
+
+        return parser.invoke(workspace, null);
+    }
+
+    /**
+     * Verifies that parsing the files in parallel produces the same
+     * annotations and error messages as the sequential parsing.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testParallelAndSequentialResultsAreEqual() throws IOException {
+        ParserResult sequential = parse(1);
+
+        assertEquals("Wrong number of annotations", NUMBER_OF_FILES * NUMBER_OF_LINES, sequential.getNumberOfAnnotations());
+        assertEquals("Wrong number of errors", 2, sequential.getErrorMessages().size());
+
+        for (int threads : new int[] {0, 4}) {
+            ParserResult parallel = parse(threads);
+
+            assertEquals("Wrong annotations", sequential.getAnnotations(), parallel.getAnnotations());
+            assertEquals("Wrong errors", getFirstLines(sequential), getFirstLines(parallel));
+            assertEquals("Wrong modules", sequential.getModules(), parallel.getModules());
+        }
+    }
+
+    /**
+     * Verifies that the annotations of a streaming parser are added to the
+     * result, even if the parser fails after some annotations have been
+     * delivered.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testStreamingParser() throws IOException {
+        for (int threads : new int[] {1, 4}) {
+            FilesParser parser = new FilesParser("test", "**/*.txt", new StreamingLineParser(), false, false);
+            parser.setNumberOfThreads(threads);
+            ParserResult result = parser.invoke(workspace, null);
+
+            assertEquals("Wrong number of annotations", NUMBER_OF_FILES * NUMBER_OF_LINES + 1, result.getNumberOfAnnotations());
+            assertEquals("Wrong number of errors", 2, result.getErrorMessages().size());
+        }
+    }
+
+    private ParserResult parse(final int numberOfThreads) throws IOException {
+        FilesParser parser = new FilesParser("test", "**/*.txt", new LineParser(), false, false);
+        parser.setNumberOfThreads(numberOfThreads);
+
+        return parser.invoke(workspace, null);
+    }
+
+    /**
+     * Returns the first line of each error message. The remaining lines
+     * contain the stack trace that depends on the calling thread.
+     */
+    private List<String> getFirstLines(final ParserResult result) {
+        List<String> lines = new ArrayList<String>();
+        for (String message : result.getErrorMessages()) {
+            lines.add(StringUtils.substringBefore(message, "\n"));
+        }
+        return lines;
+    }
+
+    private void writeReport(final String name, final int numberOfLines) throws IOException {
+        FileWriter writer = new FileWriter(new File(workspace, name));
+        try {
+            for (int line = 0; line < numberOfLines; line++) {
+                writer.write("Warning " + line + "\n");
+            }
+        }
+        finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Creates a warning for each line of a file.
+     */
+    private static class LineParser implements AnnotationParser {
+        private static final long serialVersionUID = 1L;
+        /** The number of parsed files. */
+        static final AtomicInteger COUNTER = new AtomicInteger();
+
+        /** {@inheritDoc} */
+        public Collection<FileAnnotation> parse(final File file, final String moduleName) throws InvocationTargetException {
+            COUNTER.incrementAndGet();
+            if (file.getName().startsWith(BROKEN)) {
+                throw new InvocationTargetException(new IOException("Broken file " + file));
+            }
+            try {
+                List<FileAnnotation> annotations = new ArrayList<FileAnnotation>();
+                int line = 0;
+                for (Object content : FileUtils.readLines(file)) {
+                    annotations.add(new Warning(file.getName(), ++line, content.toString()));
+                }
+                return annotations;
+            }
+            catch (IOException exception) {
+                throw new InvocationTargetException(exception);
+            }
+        }
+    }
+
+    /**
+     * Delivers a warning for each line of a file to the sink. Broken files
+     * fail after all lines have been delivered.
+     */
+    private static class StreamingLineParser implements StreamingAnnotationParser {
+        private static final long serialVersionUID = 1L;
+
+        /** {@inheritDoc} */
+        public int parse(final File file, final String moduleName, final AnnotationSink sink) throws InvocationTargetException {
+            try {
+                int line = 0;
+                for (Object content : FileUtils.readLines(file)) {
+                    sink.addAnnotation(new Warning(file.getName(), ++line, content.toString()));
+                }
+                if (file.getName().startsWith(BROKEN)) {
+                    throw new InvocationTargetException(new IOException("Broken file " + file));
+                }
+                return line;
+            }
+            catch (IOException exception) {
+                throw new InvocationTargetException(exception);
+            }
+        }
+    }
+
+    /**
+     * Concrete warning for the test.
+     */
+    private static class Warning extends AbstractAnnotation {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Creates a new instance of {@link Warning}.
+         *
+         * @param fileName
+         *            the file name
+         * @param line
+         *            the line
+         * @param message
+         *            the message
+         */
+        Warning(final String fileName, final int line, final String message) {
+            super(Priority.NORMAL, message, line, line, "Category", "Type");
+
+            setFileName(fileName);
+        }
+
+        /** {@inheritDoc} */
+        public String getToolTip() {
+            return "Tooltip";
+        }
+    }
+}
@@ -1,13 +1,18 @@
 package hudson.plugins.analysis.core;
 
+import static org.junit.Assert.*;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.Test;
 
 import hudson.plugins.analysis.core.ParserResult.Workspace;
+import hudson.plugins.analysis.util.WorkspaceFileIndex;
 import hudson.plugins.analysis.util.model.FileAnnotation;
 import hudson.plugins.analysis.util.model.Priority;
 
@@ -105,6 +110,53 @@ public class ParserResultTest {
         verify(warning).setFileName(FOUND_FILE_NAME);
     }
 
+    /**
+     * Verifies that the relative file names of several annotations are
+     * resolved with a single call to the workspace.
+     *
+     * @throws Exception
+     *             in case of an error
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBatchResolving() throws Exception {
+        Workspace workspace = mockWorkspace(new String[] {SCANNED_FILENAME, OTHER_SCANNED_FILE});
+        Map<String, String> absoluteFileNames = new HashMap<String, String>();
+        absoluteFileNames.put(SCANNED_FILENAME, FOUND_FILE_NAME);
+        when(workspace.resolve(anyCollection())).thenReturn(absoluteFileNames);
+        ParserResult result = new ParserResult(workspace);
+
+        FileAnnotation first = mockWarning(SCANNED_FILENAME);
+        FileAnnotation second = mockWarning(SCANNED_FILENAME);
+        FileAnnotation scanned = mockWarning("path/to/file.txt");
+        FileAnnotation absolute = mockWarning("/absolute/file.txt");
+        result.addAnnotations(Arrays.asList(first, second, scanned, absolute));
+
+        verify(workspace, times(1)).resolve(anyCollection());
+        verify(workspace, never()).exists();
+        verify(first).setFileName(FOUND_FILE_NAME);
+        verify(second).setFileName(FOUND_FILE_NAME);
+        verify(scanned).setFileName(FOUND_FILE_NAME);
+        verify(absolute, never()).setFileName(anyString());
+    }
+
+    /**
+     * Verifies that the captured workspace files are released, so they are
+     * not sent to the master with the result.
+     */
+    @Test
+    public void testRemoveWorkspaceFiles() {
+        ParserResult result = new ParserResult();
+        byte[] content = {1, 2, 3};
+        result.addWorkspaceFile("C:\\ws\\file.txt", content);
+
+        Map<String, byte[]> files = result.removeWorkspaceFiles();
+
+        assertSame("Wrong content", content, files.get("C:/ws/file.txt"));
+        assertTrue("Files not released", result.getWorkspaceFiles().isEmpty());
+        assertTrue("Files not released", result.removeWorkspaceFiles().isEmpty());
+    }
+
     private FileAnnotation mockWarning(final String fileName) {
         FileAnnotation warning = mock(FileAnnotation.class);
         when(warning.getFileName()).thenReturn(fileName);
@@ -117,6 +169,7 @@ public class ParserResultTest {
         when(workspace.child(anyString())).thenReturn(workspace);
         when(workspace.getPath()).thenReturn(WORSPACE_ROOT);
         when(workspace.findFiles(anyString())).thenReturn(workspaceFiles);
+        when(workspace.createFileIndex()).thenReturn(new WorkspaceFileIndex(workspaceFiles));
         return workspace;
     }
 }
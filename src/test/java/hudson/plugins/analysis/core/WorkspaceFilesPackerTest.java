@@ -0,0 +1,71 @@
+package hudson.plugins.analysis.core;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * Tests the class {@link WorkspaceFilesPacker}.
+ *
+ * @author Ulli Hafner
+ */
+public class WorkspaceFilesPackerTest {
+    /**
+     * Verifies that all readable files are packed and that the files that
+     * could not be read are reported.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testPack() throws IOException {
+        File first = File.createTempFile("packer", ".java");
+        File second = File.createTempFile("packer", ".java");
+        try {
+            FileUtils.writeStringToFile(first, "first");
+            FileUtils.writeStringToFile(second, "second");
+            String missing = new File(first.getParentFile(), first.getName() + ".missing").getAbsolutePath();
+
+            Map<String, String> entries = new LinkedHashMap<String, String>();
+            entries.put(first.getAbsolutePath(), "1.tmp");
+            entries.put(missing, "2.tmp");
+            entries.put(second.getAbsolutePath(), "3.tmp");
+
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            Map<String, IOException> failures = new WorkspaceFilesPacker(entries, archive).invoke(null, null);
+
+            assertEquals("Wrong number of failures", 1, failures.size());
+            assertTrue("Missing file not reported", failures.containsKey(missing));
+
+            Map<String, String> files = unzip(archive.toByteArray());
+            assertEquals("Wrong number of files", 2, files.size());
+            assertEquals("Wrong content", "first", files.get("1.tmp"));
+            assertEquals("Wrong content", "second", files.get("3.tmp"));
+        }
+        finally {
+            first.delete();
+            second.delete();
+        }
+    }
+
+    private Map<String, String> unzip(final byte[] archive) throws IOException {
+        Map<String, String> files = new HashMap<String, String>();
+        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive));
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            files.put(entry.getName(), IOUtils.toString(zip));
+        }
+        return files;
+    }
+}
@@ -0,0 +1,73 @@
+package hudson.plugins.analysis.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests the class {@link CacheDirectory}.
+ *
+ * @author Ulli Hafner
+ */
+public class CacheDirectoryTest {
+    /**
+     * Verifies that the cache folder is not created in or next to the
+     * workspace and that different workspaces use different folders.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testCacheIsOutsideOfWorkspace() throws IOException {
+        File parent = File.createTempFile("checkout", "");
+        parent.delete();
+        File workspace = new File(parent, "target");
+        File other = new File(new File(parent, "module"), "target");
+        try {
+            File cache = CacheDirectory.getFile(workspace, "cache");
+
+            assertNotNull("No cache file", cache);
+            assertTrue("Cache folder not created", cache.getParentFile().isDirectory());
+            assertFalse("Cache in checkout", cache.getAbsolutePath().startsWith(parent.getAbsolutePath()));
+            assertEquals("Wrong folder", CacheDirectory.getFolder(workspace), cache.getParentFile());
+            assertFalse("Same folder for different workspaces",
+                    CacheDirectory.getFolder(workspace).equals(CacheDirectory.getFolder(other)));
+        }
+        finally {
+            FileUtils.deleteDirectory(CacheDirectory.getFolder(workspace));
+        }
+    }
+
+    /**
+     * Verifies that each writer gets its own temporary file and that the
+     * temporary file replaces the target file.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testTemporaryFilesAreUnique() throws IOException {
+        File file = File.createTempFile("cache", ".cache");
+        File first = CacheDirectory.createTempFile(file);
+        File second = CacheDirectory.createTempFile(file);
+        try {
+            assertFalse("Same temporary file", first.equals(second));
+            assertEquals("Wrong folder", file.getParentFile(), first.getParentFile());
+
+            FileUtils.writeStringToFile(first, "first");
+            CacheDirectory.replace(first, file);
+
+            assertFalse("Temporary file not renamed", first.exists());
+            assertEquals("Wrong content", "first", FileUtils.readFileToString(file));
+        }
+        finally {
+            file.delete();
+            first.delete();
+            second.delete();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package hudson.plugins.analysis.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the class {@link ContextHashCodeCache}.
+ *
+ * @author Ulli Hafner
+ */
+public class ContextHashCodeCacheTest {
+    private static final int[] LINES = {2, 10, 15};
+
+    private File source;
+    private File cache;
+
+    /**
+     * Creates the temporary files.
+     *
+     * @throws IOException
+     *             if the files could not be created
+     */
+    @Before
+    public void createFiles() throws IOException {
+        source = File.createTempFile("source", ".java");
+        writeSource("A");
+        cache = File.createTempFile("context", ".cache");
+        cache.delete();
+    }
+
+    /**
+     * Removes the temporary files.
+     */
+    @After
+    public void deleteFiles() {
+        source.delete();
+        cache.delete();
+    }
+
+    /**
+     * Verifies that the cached hash codes are used as long as the size and the
+     * modification time of the file do not change.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testCachedHashCodesAreReused() throws IOException {
+        int[] expected = new ContextHashCode().create(source.getAbsolutePath(), LINES, null);
+
+        ContextHashCodeCache first = ContextHashCodeCache.load(cache);
+        assertNull("Unknown file cached", first.getCachedHashCodes(source.getAbsolutePath(), LINES, null));
+        assertArrayEquals("Wrong hash codes", expected, first.create(source.getAbsolutePath(), LINES, null));
+        first.save();
+        assertTrue("Cache not saved", cache.exists());
+
+        long lastModified = source.lastModified();
+        writeSource("B");
+        source.setLastModified(lastModified);
+
+        ContextHashCodeCache second = ContextHashCodeCache.load(cache);
+        assertArrayEquals("Cached hash codes not found", expected,
+                second.getCachedHashCodes(source.getAbsolutePath(), LINES, null));
+        assertNull("Unknown lines cached", second.getCachedHashCodes(source.getAbsolutePath(), new int[] {1}, null));
+        assertArrayEquals("Cached hash codes not used", expected, second.create(source.getAbsolutePath(), LINES, null));
+
+        writeSource("CC");
+        assertNull("Changed file cached", second.getCachedHashCodes(source.getAbsolutePath(), LINES, null));
+        int[] changed = new ContextHashCode().create(source.getAbsolutePath(), LINES, null);
+        assertArrayEquals("Changed file not read", changed, second.create(source.getAbsolutePath(), LINES, null));
+    }
+
+    /**
+     * Verifies that a corrupt cache file is ignored.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testCorruptCache() throws IOException {
+        FileWriter writer = new FileWriter(cache);
+        writer.write("corrupt");
+        writer.close();
+
+        int[] expected = new ContextHashCode().create(source.getAbsolutePath(), LINES, null);
+        assertArrayEquals("Wrong hash codes", expected,
+                ContextHashCodeCache.load(cache).create(source.getAbsolutePath(), LINES, null));
+    }
+
+    private void writeSource(final String prefix) throws IOException {
+        FileWriter writer = new FileWriter(source);
+        try {
+            for (int i = 0; i < 20; i++) {
+                writer.write(prefix + i + "\n");
+            }
+        }
+        finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package hudson.plugins.analysis.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the class {@link ContextHashCode}.
+ *
+ * @author Ulli Hafner
+ */
+public class ContextHashCodeTest {
+    private static final int NUMBER_OF_LINES = 20;
+
+    private File file;
+
+    /**
+     * Creates a temporary file with some lines.
+     *
+     * @throws IOException
+     *             if the file could not be created
+     */
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("context", ".txt");
+        FileWriter writer = new FileWriter(file);
+        try {
+            for (int i = 0; i < NUMBER_OF_LINES; i++) {
+                writer.write(getLine(i) + "\n");
+            }
+        }
+        finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Removes the temporary file.
+     */
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    /**
+     * Verifies that the hash codes of several lines are computed in one pass
+     * and that the hash code covers the three lines before and the four lines
+     * after the warning line.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testSeveralLines() throws IOException {
+        int[] hashCodes = new ContextHashCode().create(file.getAbsolutePath(), new int[] {10, 0, 18, 30, 10}, null);
+
+        assertEquals("Wrong hash code", getContext(7, 14), hashCodes[0]);
+        assertEquals("Wrong hash code", getContext(0, 4), hashCodes[1]);
+        assertEquals("Wrong hash code", getContext(15, 19), hashCodes[2]);
+        assertEquals("Wrong hash code", getContext(20, 19), hashCodes[3]);
+        assertEquals("Wrong hash code", getContext(7, 14), hashCodes[4]);
+    }
+
+    /**
+     * Verifies that the single line variant computes the same hash code.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testSingleLine() throws IOException {
+        assertEquals("Wrong hash code", getContext(2, 9), new ContextHashCode().create(file.getAbsolutePath(), 5, null));
+    }
+
+    private int getContext(final int from, final int to) {
+        StringBuilder context = new StringBuilder();
+        for (int i = from; i <= to; i++) {
+            context.append(getLine(i));
+        }
+        return context.toString().hashCode();
+    }
+
+    private String getLine(final int line) {
+        return "Line " + line;
+    }
+}
@@ -2,6 +2,7 @@ package hudson.plugins.analysis.util;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -74,6 +75,18 @@ public class JavaPackageDetectorTest {
         }
     }
 
+    /**
+     * Checks whether the scan stops at the first type declaration.
+     */
+    @Test
+    public void checkScanStopsAtTypeDeclaration() {
+        String content = "/* A class of its own */\nimport java.util.List;\n\n@Deprecated\n"
+                + "public final class Type extends Object {\n}\npackage too.late;\n";
+
+        assertEquals("Wrong package name guessed.", "-",
+                classifier.detectPackageName(new ByteArrayInputStream(content.getBytes())));
+    }
+
     /**
      * Checks whether we correctly accept C# files.
      */
@@ -0,0 +1,34 @@
+package hudson.plugins.analysis.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests the class {@link LruMap}.
+ *
+ * @author Ulli Hafner
+ */
+public class LruMapTest {
+    /**
+     * Verifies that the least recently used entry is removed if the map is
+     * full.
+     */
+    @Test
+    public void testLeastRecentlyUsedEntryIsRemoved() {
+        Map<String, Integer> map = new LruMap<String, Integer>(2);
+
+        map.put("first", 1);
+        map.put("second", 2);
+        assertEquals("Wrong value", Integer.valueOf(1), map.get("first"));
+
+        map.put("third", 3);
+
+        assertEquals("Wrong size", 2, map.size());
+        assertTrue("Recently used entry removed", map.containsKey("first"));
+        assertFalse("Least recently used entry not removed", map.containsKey("second"));
+        assertTrue("New entry not added", map.containsKey("third"));
+    }
+}
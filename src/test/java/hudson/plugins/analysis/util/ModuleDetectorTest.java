@@ -4,9 +4,13 @@ import static org.junit.Assert.*;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import org.apache.commons.lang.StringUtils;
 import org.junit.Test;
@@ -246,4 +250,102 @@ public class ModuleDetectorTest {
         assertEquals("Wrong module guessed", EXPECTED_OSGI_MODULE,
                 detector.guessModuleName(prefix + "/something.txt"));
     }
+
+    /**
+     * Checks whether the module names of many descriptors are resolved when
+     * the descriptors are parsed in parallel.
+     */
+    @Test
+    public void testManyModules() {
+        final String[] poms = new String[200];
+        for (int module = 0; module < poms.length; module++) {
+            poms[module] = "module-" + module + "/" + ModuleDetector.MAVEN_POM;
+        }
+        ModuleDetector detector = createDetectorUnderTest(new FileInputStreamFactory() {
+            public InputStream create(final String fileName) {
+                String name = StringUtils.substringBetween(fileName, PREFIX, "/");
+                return new ByteArrayInputStream(("<project><parent><name>parent</name></parent>"
+                        + "<name>" + name + "</name></project>").getBytes());
+            }
+
+            public String[] find(final File root, final String pattern) {
+                return poms;
+            }
+        });
+
+        for (int module = 0; module < poms.length; module++) {
+            verifyModuleName(detector, "module-" + module, "module-" + module + "/src/File.java");
+        }
+    }
+
+    /**
+     * Checks whether the project name of an Ant build file with a document
+     * type declaration is found.
+     *
+     * @throws FileNotFoundException
+     *             should never happen
+     */
+    @Test
+    public void testAntModuleWithDocumentType() throws FileNotFoundException {
+        FileInputStreamFactory factory = mock(FileInputStreamFactory.class);
+        when(factory.create(anyString())).thenReturn(new ByteArrayInputStream(
+                "<?xml version=\"1.0\"?><!DOCTYPE project [<!ENTITY common SYSTEM \"common.xml\">]><project name=\"ant\"/>".getBytes()));
+        when(factory.find((File)anyObject(), anyString())).thenReturn(new String[] {PATH_PREFIX_ANT + ModuleDetector.ANT_PROJECT});
+        ModuleDetector detector = createDetectorUnderTest(factory);
+
+        verifyModuleName(detector, "ant", PATH_PREFIX_ANT + "/something.txt");
+    }
+
+    /**
+     * Checks whether the module of the longest matching prefix is found in a
+     * workspace with nested modules, i.e. whether the result is the same as
+     * the result of a linear scan of all module prefixes.
+     */
+    @Test
+    public void testNestedModulesUseLongestPrefix() {
+        final List<String> poms = new ArrayList<String>();
+        poms.add(ModuleDetector.MAVEN_POM);
+        for (int module = 1; module < 300; module++) {
+            String path = "group-" + module / 50 + "/module-" + module + "/";
+            poms.add(path + ModuleDetector.MAVEN_POM);
+            if (module % 10 == 0) {
+                poms.add(path + "sub-module-" + module + "/" + ModuleDetector.MAVEN_POM);
+            }
+        }
+        ModuleDetector detector = createDetectorUnderTest(new FileInputStreamFactory() {
+            public InputStream create(final String fileName) {
+                return new ByteArrayInputStream(("<project><name>" + getModuleName(fileName.substring(PREFIX.length()))
+                        + "</name></project>").getBytes());
+            }
+
+            public String[] find(final File root, final String pattern) {
+                return poms.toArray(new String[poms.size()]);
+            }
+        });
+
+        Random random = new Random(4711);
+        for (int file = 0; file < 2000; file++) {
+            String module = StringUtils.substringBeforeLast(poms.get(random.nextInt(poms.size())), ModuleDetector.MAVEN_POM);
+            String fileName = PREFIX + module + "src/main/java/File" + random.nextInt(100) + ".java";
+
+            assertEquals("Wrong module guessed", guessByLinearScan(poms, fileName), detector.guessModuleName(fileName));
+        }
+    }
+
+    private String getModuleName(final String pom) {
+        return "module:" + StringUtils.substringBeforeLast(pom, ModuleDetector.MAVEN_POM);
+    }
+
+    private String guessByLinearScan(final List<String> poms, final String fileName) {
+        String guessedModule = StringUtils.EMPTY;
+        int length = -1;
+        for (String pom : poms) {
+            String prefix = PREFIX + StringUtils.substringBeforeLast(pom, ModuleDetector.MAVEN_POM);
+            if (fileName.startsWith(prefix) && prefix.length() > length) {
+                guessedModule = getModuleName(pom);
+                length = prefix.length();
+            }
+        }
+        return guessedModule;
+    }
 }
@@ -0,0 +1,139 @@
+package hudson.plugins.analysis.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the class {@link ModuleMappingCache}.
+ *
+ * @author Ulli Hafner
+ */
+public class ModuleMappingCacheTest {
+    private static final String MODULE = "module";
+
+    private File workspace;
+    private File cacheFile;
+
+    /**
+     * Creates a temporary workspace.
+     *
+     * @throws IOException
+     *             if the workspace could not be created
+     */
+    @Before
+    public void createWorkspace() throws IOException {
+        workspace = File.createTempFile("workspace", "");
+        workspace.delete();
+        workspace.mkdirs();
+        cacheFile = new File(workspace, "cache");
+    }
+
+    /**
+     * Removes the temporary workspace.
+     *
+     * @throws IOException
+     *             if the workspace could not be deleted
+     */
+    @After
+    public void deleteWorkspace() throws IOException {
+        FileUtils.deleteDirectory(workspace);
+        FileUtils.deleteDirectory(CacheDirectory.getFolder(workspace));
+    }
+
+    /**
+     * Verifies that a module name is reused as long as the descriptor and its
+     * dependencies are not changed.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testChangedFilesInvalidateModuleName() throws IOException {
+        String pom = write("pom.xml", "<project/>");
+        String properties = new File(workspace, "plugin.properties").getAbsolutePath();
+
+        ModuleMappingCache cache = ModuleMappingCache.load(cacheFile);
+        assertNull("Empty cache has module", cache.get(pom, properties));
+        cache.put(pom, MODULE, properties);
+        cache.save();
+
+        cache = ModuleMappingCache.load(cacheFile);
+        assertEquals("Wrong module", MODULE, cache.get(pom, properties));
+        assertNull("Other dependencies accepted", cache.get(pom));
+
+        write("plugin.properties", "name=module");
+        assertNull("Created dependency ignored", cache.get(pom, properties));
+
+        cache.put(pom, MODULE, properties);
+        write("pom.xml", "<project></project>");
+        assertNull("Changed descriptor ignored", cache.get(pom, properties));
+    }
+
+    /**
+     * Verifies that unused descriptors are removed when the cache is saved.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testUnusedDescriptorsAreRemoved() throws IOException {
+        String pom = write("pom.xml", "<project/>");
+        String other = write("other/pom.xml", "<project/>");
+
+        ModuleMappingCache cache = ModuleMappingCache.load(cacheFile);
+        cache.put(pom, MODULE);
+        cache.put(other, MODULE);
+        cache.save();
+
+        cache = ModuleMappingCache.load(cacheFile);
+        assertEquals("Wrong module", MODULE, cache.get(pom));
+        cache.save();
+
+        cache = ModuleMappingCache.load(cacheFile);
+        assertEquals("Wrong module", MODULE, cache.get(pom));
+        assertNull("Unused descriptor not removed", cache.get(other));
+    }
+
+    /**
+     * Verifies that the module detector uses the module names of the previous
+     * build if the descriptors have not been changed and that all detectors
+     * of a snapshot share the mapping.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testModuleDetectorUsesCache() throws IOException {
+        File pom = new File(write("pom.xml", "<project><name>first</name></project>"));
+        String source = new File(workspace, "src/File.java").getAbsolutePath();
+
+        WorkspaceSnapshot snapshot = WorkspaceSnapshot.create(workspace);
+        assertEquals("Wrong module", "first", new ModuleDetector(snapshot).guessModuleName(source));
+
+        long lastModified = pom.lastModified();
+        write("pom.xml", "<project><name>other</name></project>");
+        assertEquals("Mapping of snapshot not shared", "first", new ModuleDetector(snapshot).guessModuleName(source));
+
+        pom.setLastModified(lastModified);
+        assertEquals("Unchanged descriptor parsed again", "first",
+                new ModuleDetector(WorkspaceSnapshot.create(workspace)).guessModuleName(source));
+
+        pom.setLastModified(lastModified - 10000);
+        assertEquals("Changed descriptor not parsed", "other",
+                new ModuleDetector(WorkspaceSnapshot.create(workspace)).guessModuleName(source));
+    }
+
+    private String write(final String fileName, final String content) throws IOException {
+        File file = new File(workspace, fileName);
+        FileUtils.writeStringToFile(file, content);
+
+        return file.getAbsolutePath();
+    }
+}
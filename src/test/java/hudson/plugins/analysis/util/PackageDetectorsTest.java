@@ -0,0 +1,81 @@
+package hudson.plugins.analysis.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the class {@link PackageDetectors}.
+ *
+ * @author Ulli Hafner
+ */
+public class PackageDetectorsTest {
+    private File folder;
+
+    /**
+     * Creates a temporary folder.
+     *
+     * @throws IOException
+     *             if the folder could not be created
+     */
+    @Before
+    public void createFolder() throws IOException {
+        folder = File.createTempFile("packages", "");
+        folder.delete();
+        folder.mkdirs();
+    }
+
+    /**
+     * Removes the temporary folder.
+     *
+     * @throws IOException
+     *             if the folder could not be deleted
+     */
+    @After
+    public void deleteFolder() throws IOException {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    /**
+     * Verifies that the package name of a changed file is detected again.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testChangedFileIsScannedAgain() throws IOException {
+        File file = new File(folder, "Type.java");
+        FileUtils.writeStringToFile(file, "package first;\nclass Type {}\n");
+        String fileName = file.getAbsolutePath();
+
+        assertEquals("Wrong package", "first", PackageDetectors.detectPackageName(fileName));
+        assertEquals("Wrong package", "first", PackageDetectors.detectPackageName(fileName));
+
+        FileUtils.writeStringToFile(file, "package second;\nclass Type {}\n");
+        assertEquals("Changed file not scanned", "second", PackageDetectors.detectPackageName(fileName));
+    }
+
+    /**
+     * Verifies that the detector is selected by the file extension.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testDetectorIsSelectedByExtension() throws IOException {
+        File java = new File(folder, "Type.java");
+        FileUtils.writeStringToFile(java, "package java.pkg;\n");
+        File csharp = new File(folder, "Type.cs");
+        FileUtils.writeStringToFile(csharp, "namespace Csharp.Namespace {\n}\n");
+
+        assertEquals("Wrong package", "java.pkg", PackageDetectors.detectPackageName(java.getAbsolutePath()));
+        assertEquals("Wrong namespace", "Csharp.Namespace", PackageDetectors.detectPackageName(csharp.getAbsolutePath()));
+        assertEquals("Wrong package", "undefined", PackageDetectors.detectPackageName("Type.txt"));
+    }
+}
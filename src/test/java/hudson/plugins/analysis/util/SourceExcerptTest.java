@@ -0,0 +1,118 @@
+package hudson.plugins.analysis.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import hudson.plugins.analysis.util.model.LineRange;
+
+/**
+ * Tests the class {@link SourceExcerpt}.
+ *
+ * @author Ulli Hafner
+ */
+public class SourceExcerptTest {
+    private static final int NUMBER_OF_LINES = 100;
+    private static final String GAP = "...";
+
+    /**
+     * Verifies that an excerpt contains only the windows around the line
+     * ranges and that the lines keep their line numbers when expanded.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testExcerptKeepsLineNumbers() throws IOException {
+        String source = createSource(true);
+        byte[] excerpt = SourceExcerpt.create(new ByteArrayInputStream(source.getBytes()),
+                Arrays.asList(new LineRange(10), new LineRange(12, 13), new LineRange(99), new LineRange(0)), 2);
+        assertTrue("Excerpt not smaller", excerpt.length < source.length() / 4);
+
+        List<String> lines = expand(excerpt);
+        assertEquals("Wrong number of lines", NUMBER_OF_LINES, lines.size());
+        for (int line = 1; line <= NUMBER_OF_LINES; line++) {
+            String actual = lines.get(line - 1);
+            if ((line >= 8 && line <= 15) || line >= 97) {
+                assertEquals("Wrong line", "line " + line, actual);
+            }
+            else if (line == 1 || line == 16) {
+                assertEquals("Gap not marked", GAP, actual);
+            }
+            else {
+                assertEquals("Line not removed", "", actual);
+            }
+        }
+    }
+
+    /**
+     * Verifies that the last line of a file without line terminator is kept.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testUnterminatedLastLine() throws IOException {
+        byte[] excerpt = SourceExcerpt.create(new ByteArrayInputStream(createSource(false).getBytes()),
+                Arrays.asList(new LineRange(NUMBER_OF_LINES)), 0);
+
+        List<String> lines = expand(excerpt);
+        assertEquals("Wrong number of lines", NUMBER_OF_LINES, lines.size());
+        assertEquals("Wrong line", "line " + NUMBER_OF_LINES, lines.get(NUMBER_OF_LINES - 1));
+    }
+
+    /**
+     * Verifies that other files are not changed.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testSourceFileIsNotChanged() throws IOException {
+        String source = createSource(true);
+
+        assertEquals("Source changed", source,
+                IOUtils.toString(SourceExcerpt.expand(new ByteArrayInputStream(source.getBytes()))));
+    }
+
+    /**
+     * Verifies that only encodings that are compatible with ASCII are
+     * supported.
+     */
+    @Test
+    public void testSupportedEncodings() {
+        assertTrue("UTF-8 not supported", SourceExcerpt.isSupported("UTF-8"));
+        assertTrue("ISO-8859-1 not supported", SourceExcerpt.isSupported("ISO-8859-1"));
+        assertFalse("UTF-16 supported", SourceExcerpt.isSupported("UTF-16"));
+        assertFalse("UTF-16LE supported", SourceExcerpt.isSupported("UTF-16LE"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> expand(final byte[] excerpt) throws IOException {
+        InputStream input = SourceExcerpt.expand(new ByteArrayInputStream(excerpt));
+        try {
+            return IOUtils.readLines(input);
+        }
+        finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    private String createSource(final boolean isTerminated) {
+        StringBuilder source = new StringBuilder();
+        for (int line = 1; line <= NUMBER_OF_LINES; line++) {
+            source.append("line ").append(line);
+            if (isTerminated || line < NUMBER_OF_LINES) {
+                source.append('\n');
+            }
+        }
+        return source.toString();
+    }
+}
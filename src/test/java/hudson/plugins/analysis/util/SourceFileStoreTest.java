@@ -0,0 +1,275 @@
+package hudson.plugins.analysis.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import hudson.plugins.analysis.util.model.AbstractAnnotation;
+
+/**
+ * Tests the class {@link SourceFileStore}.
+ *
+ * @author Ulli Hafner
+ */
+public class SourceFileStoreTest {
+    private static final String CONTENT = "public class Test {}";
+    private static final String FIRST = "1.tmp";
+    private static final String SECOND = "2.tmp";
+    private static final long ONE_DAY = 24 * 60 * 60 * 1000L;
+
+    private File jobRoot;
+    private SourceFileStore store;
+
+    /**
+     * Creates a temporary job folder.
+     *
+     * @throws IOException
+     *             if the folder could not be created
+     */
+    @Before
+    public void createJob() throws IOException {
+        jobRoot = File.createTempFile("job", "");
+        jobRoot.delete();
+        jobRoot.mkdirs();
+        store = new SourceFileStore(jobRoot);
+    }
+
+    /**
+     * Removes the temporary job folder.
+     *
+     * @throws IOException
+     *             if the folder could not be deleted
+     */
+    @After
+    public void deleteJob() throws IOException {
+        FileUtils.deleteDirectory(jobRoot);
+    }
+
+    /**
+     * Verifies that identical content of several builds is stored only once.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testIdenticalContentIsStoredOnce() throws IOException {
+        String digest = FileDigest.create(CONTENT.getBytes());
+        assertFalse("Empty store contains file", store.retain(digest));
+
+        store.put(digest, CONTENT.getBytes());
+        store.addReferences(getBuild(1), Collections.singletonMap(FIRST, digest));
+        assertTrue("File not stored", store.retain(digest));
+
+        File temp = store.createTempFile();
+        FileUtils.writeStringToFile(temp, CONTENT);
+        store.put(digest, temp);
+        store.addReferences(getBuild(2), Collections.singletonMap(SECOND, digest));
+
+        assertFalse("Temporary file not removed", temp.exists());
+        assertEquals("Wrong content", CONTENT, read(store.getFile(digest)));
+        assertEquals("Wrong number of files", 1, store.getFile(digest).getParentFile().list().length);
+        assertEquals("Wrong reference", digest, SourceFileStore.readReferences(getBuild(1)).get(FIRST));
+        assertEquals("Wrong reference", digest, SourceFileStore.readReferences(getBuild(2)).get(SECOND));
+    }
+
+    /**
+     * Verifies that content that does not match the digest is rejected.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testContentIsVerified() throws IOException {
+        String digest = FileDigest.create(CONTENT.getBytes());
+        File temp = store.createTempFile();
+        FileUtils.writeStringToFile(temp, "broken");
+        try {
+            store.put(digest, temp);
+            fail("Broken content accepted");
+        }
+        catch (IOException exception) {
+            assertFalse("Broken content stored", store.getFile(digest).exists());
+            assertFalse("Temporary file not removed", temp.exists());
+        }
+    }
+
+    /**
+     * Verifies that references are added to the existing references of a
+     * build.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testReferencesAreMerged() throws IOException {
+        File build = getBuild(1);
+        assertTrue("Build without index has references", SourceFileStore.readReferences(build).isEmpty());
+
+        store.addReferences(build, Collections.singletonMap(FIRST, "aa"));
+        Map<String, String> references = new HashMap<String, String>();
+        references.put(FIRST, "bb");
+        references.put(SECOND, "cc");
+        store.addReferences(build, references);
+
+        assertEquals("Wrong references", references, SourceFileStore.readReferences(build));
+    }
+
+    /**
+     * Verifies that only files that are not referenced anymore and that are
+     * older than the grace period are removed.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testGarbageCollection() throws IOException {
+        String used = FileDigest.create(CONTENT.getBytes());
+        String unused = FileDigest.create("unused".getBytes());
+        String recent = FileDigest.create("recent".getBytes());
+        store.put(used, CONTENT.getBytes());
+        store.put(unused, "unused".getBytes());
+        store.put(recent, "recent".getBytes());
+
+        File deleted = getBuild(1);
+        store.addReferences(deleted, Collections.singletonMap(FIRST, unused));
+        store.addReferences(getBuild(2), Collections.singletonMap(FIRST, used));
+
+        long old = System.currentTimeMillis() - ONE_DAY;
+        store.getFile(used).setLastModified(old);
+        store.getFile(unused).setLastModified(old);
+
+        assertEquals("Wrong number of removed files", 1, store.collectGarbage(Collections.singleton(deleted)));
+        assertTrue("Referenced file removed", store.getFile(used).exists());
+        assertFalse("Unreferenced file not removed", store.getFile(unused).exists());
+        assertTrue("Recent file removed", store.getFile(recent).exists());
+    }
+
+    /**
+     * Verifies that the references of all deleted builds are ignored by a
+     * single collection.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testGarbageCollectionOfSeveralBuilds() throws IOException {
+        String first = FileDigest.create("first".getBytes());
+        String second = FileDigest.create("second".getBytes());
+        store.put(first, "first".getBytes());
+        store.put(second, "second".getBytes());
+        store.addReferences(getBuild(1), Collections.singletonMap(FIRST, first));
+        store.addReferences(getBuild(2), Collections.singletonMap(FIRST, second));
+
+        long old = System.currentTimeMillis() - ONE_DAY;
+        store.getFile(first).setLastModified(old);
+        store.getFile(second).setLastModified(old);
+
+        assertEquals("Wrong number of removed files", 2, store.collectGarbage(Arrays.asList(getBuild(1), getBuild(2))));
+        assertFalse("Store not empty", store.getFile(first).exists() || store.getFile(second).exists());
+        assertEquals("Empty store collected", 0, new SourceFileStore(getBuild(3)).collectGarbage(Collections.<File>emptySet()));
+    }
+
+    /**
+     * Verifies that an aggregated build resolves the sources of its module
+     * builds without copying them.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testModuleSourcesAreReferenced() throws IOException {
+        File moduleRoot = new File(jobRoot, "modules/module");
+        SourceFileStore module = new SourceFileStore(moduleRoot);
+        String digest = FileDigest.create(CONTENT.getBytes());
+        module.put(digest, CONTENT.getBytes());
+        File moduleBuild = new File(moduleRoot, "builds/1");
+        module.addReferences(moduleBuild, Collections.singletonMap(FIRST, digest));
+        File copy = new File(moduleBuild, AbstractAnnotation.WORKSPACE_FILES + "/" + SECOND);
+        FileUtils.writeStringToFile(copy, CONTENT);
+
+        File build = getBuild(1);
+        store.addModule(build, moduleBuild);
+
+        assertEquals("Wrong file", module.getFile(digest), SourceFileStore.resolve(jobRoot, build, FIRST));
+        assertEquals("Wrong file", copy, SourceFileStore.resolve(jobRoot, build, SECOND));
+        assertNull("Unknown file resolved", SourceFileStore.resolve(jobRoot, build, "3.tmp"));
+        assertFalse("Source copied", store.getFile(digest).exists());
+    }
+
+    /**
+     * Verifies that an aggregated build still resolves the sources of a
+     * module build after the module build has been deleted.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testModuleSourcesSurviveDeletedModuleBuild() throws IOException {
+        File moduleRoot = new File(jobRoot, "modules/module");
+        SourceFileStore module = new SourceFileStore(moduleRoot);
+        String digest = FileDigest.create(CONTENT.getBytes());
+        module.put(digest, CONTENT.getBytes());
+        File moduleBuild = new File(moduleRoot, "builds/1");
+        module.addReferences(moduleBuild, Collections.singletonMap(FIRST, digest));
+        File copy = new File(moduleBuild, AbstractAnnotation.WORKSPACE_FILES + "/" + SECOND);
+        FileUtils.writeStringToFile(copy, "copied");
+
+        File build = getBuild(1);
+        store.addModule(build, moduleBuild);
+        assertEquals("Wrong number of stored references", 2, module.copyToReferrers(moduleBuild));
+        FileUtils.deleteDirectory(moduleRoot);
+
+        assertEquals("Wrong content", CONTENT, read(SourceFileStore.resolve(jobRoot, build, FIRST)));
+        assertEquals("Wrong content", "copied", read(SourceFileStore.resolve(jobRoot, build, SECOND)));
+        assertEquals("Unreferenced build changed", 0, module.copyToReferrers(getBuild(2)));
+    }
+
+    /**
+     * Verifies that stored files are compressed and that compressed as well
+     * as uncompressed copies can be read.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testCompressedCopies() throws IOException {
+        String content = StringUtils.repeat(CONTENT + "\n", 100);
+        String digest = FileDigest.create(content.getBytes());
+        store.put(digest, content.getBytes());
+
+        File stored = store.getFile(digest);
+        assertTrue("File not compressed", stored.length() < content.length() / 5);
+        assertEquals("Wrong content", content, read(stored));
+
+        File copy = new File(jobRoot, "copy.tmp");
+        FileUtils.writeStringToFile(copy, CONTENT);
+        assertEquals("Wrong content", CONTENT, read(copy));
+    }
+
+    private String read(final File file) throws IOException {
+        InputStream input = SourceFileStore.openInputStream(file);
+        try {
+            return IOUtils.toString(input);
+        }
+        finally {
+            IOUtils.closeQuietly(input);
+        }
+    }
+
+    private File getBuild(final int number) {
+        return new File(jobRoot, "builds/" + number);
+    }
+}
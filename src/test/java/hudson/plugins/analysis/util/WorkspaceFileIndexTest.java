@@ -0,0 +1,68 @@
+package hudson.plugins.analysis.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests the class {@link WorkspaceFileIndex}.
+ *
+ * @author Ulli Hafner
+ */
+public class WorkspaceFileIndexTest {
+    private static final String FILE_NAME = "relative/path/to/file.txt";
+
+    /**
+     * Verifies that files are found by complete suffixes of their path.
+     */
+    @Test
+    public void testFind() {
+        WorkspaceFileIndex index = new WorkspaceFileIndex(new String[] {FILE_NAME, "other/file.txt",
+                "path/proto/file.txt", "windows\\path\\File.java", "file.txt.bak/file"});
+
+        assertEquals("Wrong matches", Arrays.asList(FILE_NAME), index.find("to/file.txt"));
+        assertEquals("Wrong matches", Arrays.asList(FILE_NAME), index.find("./path/to/file.txt"));
+        assertEquals("Wrong matches", Arrays.asList(FILE_NAME), index.find(FILE_NAME));
+        assertEquals("Wrong matches", 3, index.find("file.txt").size());
+        assertEquals("Wrong matches", Arrays.asList("windows/path/File.java"), index.find("path\\File.java"));
+        assertEquals("Wrong matches", Collections.emptyList(), index.find("other/to/file.txt"));
+    }
+
+    /**
+     * Verifies that the excluded folders are skipped.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testExcludes() throws IOException {
+        File workspace = File.createTempFile("workspace", "");
+        try {
+            workspace.delete();
+            createFile(workspace, "src/main/File.java");
+            createFile(workspace, "target/generated/File.java");
+            createFile(workspace, "node_modules/module/File.java");
+
+            assertEquals("Wrong matches", Arrays.asList("src/main/File.java"),
+                    WorkspaceFileIndex.create(workspace).find("File.java"));
+            assertEquals("Wrong number of files", 3,
+                    WorkspaceFileIndex.create(workspace, new HashSet<String>()).size());
+        }
+        finally {
+            FileUtils.deleteDirectory(workspace);
+        }
+    }
+
+    private void createFile(final File workspace, final String fileName) throws IOException {
+        File file = new File(workspace, fileName);
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+    }
+}
@@ -0,0 +1,154 @@
+package hudson.plugins.analysis.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the class {@link WorkspaceSnapshot}.
+ *
+ * @author Ulli Hafner
+ */
+public class WorkspaceSnapshotTest {
+    private static final String REPORT = "target/checkstyle-result.xml";
+
+    private File workspace;
+
+    /**
+     * Creates a temporary workspace with some files.
+     *
+     * @throws IOException
+     *             if the files could not be created
+     */
+    @Before
+    public void createWorkspace() throws IOException {
+        workspace = File.createTempFile("workspace", "");
+        workspace.delete();
+
+        createFile("pom.xml");
+        createFile("module/pom.xml");
+        createFile("module/src/main/File.java");
+        createFile(REPORT);
+        createFile(".git/config");
+        createFile("module/src/main/File.java~");
+    }
+
+    /**
+     * Removes the temporary workspace.
+     *
+     * @throws IOException
+     *             if the workspace could not be deleted
+     */
+    @After
+    public void deleteWorkspace() throws IOException {
+        FileUtils.deleteDirectory(workspace);
+    }
+
+    /**
+     * Verifies that the Ant patterns are evaluated like in a file set.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testFind() throws IOException {
+        WorkspaceSnapshot snapshot = WorkspaceSnapshot.create(workspace);
+
+        assertEquals("Wrong number of files", 5, snapshot.size());
+        assertEquals("Wrong matches", Arrays.asList(normalize(REPORT)),
+                Arrays.asList(snapshot.find("**/checkstyle-result.xml")));
+        assertEquals("Wrong number of matches", 2, snapshot.find("**/pom.xml").length);
+        assertEquals("Wrong number of matches", 3, snapshot.find("**/pom.xml, **/*.java").length);
+        assertEquals("Wrong number of matches", 2, snapshot.find("module/").length);
+        assertEquals("Wrong number of matches", 0, snapshot.find("**/config").length);
+        assertEquals("Default excludes not skipped", 1, snapshot.find("**/File.java*").length);
+    }
+
+    /**
+     * Verifies that the index of the snapshot skips the build folders.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testFileIndex() throws IOException {
+        WorkspaceFileIndex index = WorkspaceSnapshot.create(workspace).getFileIndex();
+
+        assertEquals("Wrong number of files", 4, index.size());
+        assertEquals("Wrong matches", Arrays.asList("module/src/main/File.java"), index.find("main/File.java"));
+    }
+
+    /**
+     * Verifies that the snapshot of a build is shared.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testShared() throws IOException {
+        WorkspaceSnapshot snapshot = WorkspaceSnapshot.get(workspace, "job#1");
+
+        assertSame("Snapshot not shared", snapshot, WorkspaceSnapshot.get(workspace, "job#1"));
+        assertNotSame("Snapshot of other build shared", snapshot, WorkspaceSnapshot.get(workspace, "job#2"));
+        assertNotSame("Snapshot without build shared", WorkspaceSnapshot.get(workspace, null),
+                WorkspaceSnapshot.get(workspace, null));
+
+        WorkspaceSnapshot.release("job#1");
+        assertNotSame("Released snapshot shared", snapshot, WorkspaceSnapshot.get(workspace, "job#1"));
+        WorkspaceSnapshot.release("job#1");
+        WorkspaceSnapshot.release("job#2");
+    }
+
+    /**
+     * Verifies that concurrent callers for the same build get the same
+     * snapshot.
+     *
+     * @throws Exception
+     *             in case of an error
+     */
+    @Test
+    public void testSharedByConcurrentCallers() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<WorkspaceSnapshot>> snapshots = new ArrayList<Future<WorkspaceSnapshot>>();
+            for (int i = 0; i < 8; i++) {
+                snapshots.add(executor.submit(new Callable<WorkspaceSnapshot>() {
+                    public WorkspaceSnapshot call() throws IOException {
+                        return WorkspaceSnapshot.get(workspace, "job#3");
+                    }
+                }));
+            }
+            WorkspaceSnapshot snapshot = snapshots.get(0).get();
+            for (Future<WorkspaceSnapshot> other : snapshots) {
+                assertSame("Snapshot not shared", snapshot, other.get());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            WorkspaceSnapshot.release("job#3");
+        }
+    }
+
+    private String normalize(final String fileName) {
+        return fileName.replace('/', File.separatorChar);
+    }
+
+    private void createFile(final String fileName) throws IOException {
+        File file = new File(workspace, fileName);
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+    }
+}
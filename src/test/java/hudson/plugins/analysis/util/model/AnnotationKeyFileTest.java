@@ -0,0 +1,109 @@
+package hudson.plugins.analysis.util.model;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the class {@link AnnotationKeyFile}.
+ *
+ * @author Ulli Hafner
+ */
+public class AnnotationKeyFileTest {
+    private File file;
+
+    /**
+     * Creates the temporary file for the keys.
+     *
+     * @throws IOException
+     *             if the file could not be created
+     */
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("annotations", ".keys");
+    }
+
+    /**
+     * Removes the temporary file.
+     */
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    /**
+     * Verifies that the stored keys are resolved to the annotations of the
+     * container.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testResolveKeys() throws IOException {
+        Warning first = new Warning("First");
+        Warning second = new Warning("Second");
+        Warning third = new Warning("Third");
+
+        JavaProject project = new JavaProject();
+        project.addAnnotation(first);
+        project.addAnnotation(second);
+        project.addAnnotation(third);
+
+        Set<FileAnnotation> subset = new HashSet<FileAnnotation>();
+        subset.add(first);
+        subset.add(third);
+
+        AnnotationKeyFile keys = new AnnotationKeyFile(file);
+        keys.write(subset);
+
+        assertTrue("File not written", keys.exists());
+        assertEquals("Wrong annotations", subset, keys.read(project));
+    }
+
+    /**
+     * Verifies that an exception is thrown if the keys do not match the
+     * annotations of the container.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test(expected = IOException.class)
+    public void testUnknownKey() throws IOException {
+        AnnotationKeyFile keys = new AnnotationKeyFile(file);
+        keys.write(Collections.singleton(new Warning("Unknown")));
+
+        keys.read(new JavaProject());
+    }
+
+    /**
+     * Concrete warning for the test.
+     */
+    private static class Warning extends AbstractAnnotation {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Creates a new instance of {@link Warning}.
+         *
+         * @param message
+         *            the message
+         */
+        Warning(final String message) {
+            super(Priority.NORMAL, message, 1, 1, "Category", "Type");
+
+            setFileName("/workspace/Test.java");
+        }
+
+        /** {@inheritDoc} */
+        public String getToolTip() {
+            return "Tooltip";
+        }
+    }
+}
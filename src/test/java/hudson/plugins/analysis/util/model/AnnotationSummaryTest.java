@@ -0,0 +1,89 @@
+package hudson.plugins.analysis.util.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests the class {@link AnnotationSummary}.
+ *
+ * @author Ulli Hafner
+ */
+public class AnnotationSummaryTest {
+    /**
+     * Verifies that the summary contains the same counts as the summarized
+     * container.
+     */
+    @Test
+    public void testCounts() {
+        JavaProject project = new JavaProject();
+        project.addAnnotation(new Warning(Priority.HIGH, "/ws/a/A.java", "a", "edu.hm.a", "Style", "Naming"));
+        project.addAnnotation(new Warning(Priority.HIGH, "/ws/a/A.java", "a", "edu.hm.a", "Style", "Braces"));
+        project.addAnnotation(new Warning(Priority.NORMAL, "/ws/a/B.java", "a", "edu.hm.a", "Bug", "Null"));
+        project.addAnnotation(new Warning(Priority.LOW, "/ws/b/C.java", "b", "edu.hm.b", "Bug", "Null"));
+
+        AnnotationSummary summary = new AnnotationSummary(project);
+
+        assertEquals("Wrong number of annotations", 4, summary.getNumberOfAnnotations());
+        assertEquals("Wrong number of high annotations", 2, summary.getNumberOfAnnotations(Priority.HIGH));
+        assertEquals("Wrong number of normal annotations", 1, summary.getNumberOfNormalAnnotations());
+        assertEquals("Wrong number of low annotations", 1, summary.getNumberOfLowAnnotations());
+
+        assertEquals("Wrong number of modules", 2, summary.getNumberOfModules());
+        assertEquals("Wrong number of packages", 2, summary.getNumberOfPackages());
+        assertEquals("Wrong number of files", 3, summary.getNumberOfFiles());
+        assertEquals("Wrong number of categories", 2, summary.getNumberOfCategories());
+        assertEquals("Wrong number of types", 3, summary.getNumberOfTypes());
+    }
+
+    /**
+     * Verifies that an empty summary has no counts.
+     */
+    @Test
+    public void testEmpty() {
+        AnnotationSummary summary = new AnnotationSummary();
+
+        assertEquals("Wrong number of annotations", 0, summary.getNumberOfAnnotations());
+        assertEquals("Wrong number of modules", 0, summary.getNumberOfModules());
+        assertEquals("Wrong number of files", 0, summary.getNumberOfFiles());
+    }
+
+    /**
+     * Concrete warning for the test.
+     */
+    private static class Warning extends AbstractAnnotation {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Creates a new instance of {@link Warning}.
+         *
+         * @param priority
+         *            the priority
+         * @param fileName
+         *            the file name
+         * @param moduleName
+         *            the module name
+         * @param packageName
+         *            the package name
+         * @param category
+         *            the category
+         * @param type
+         *            the type
+         */
+        // CHECKSTYLE:OFF
+        Warning(final Priority priority, final String fileName, final String moduleName,
+                final String packageName, final String category, final String type) {
+        // CHECKSTYLE:ON
+            super(priority, "Message", 1, 1, category, type);
+
+            setFileName(fileName);
+            setModuleName(moduleName);
+            setPackageName(packageName);
+        }
+
+        /** {@inheritDoc} */
+        public String getToolTip() {
+            return "Tooltip";
+        }
+    }
+}
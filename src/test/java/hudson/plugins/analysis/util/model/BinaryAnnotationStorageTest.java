@@ -0,0 +1,138 @@
+package hudson.plugins.analysis.util.model;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the class {@link BinaryAnnotationStorage}.
+ *
+ * @author Ulli Hafner
+ */
+public class BinaryAnnotationStorageTest {
+    private static final String FILE_NAME = "/workspace/src/Test.java";
+
+    private File file;
+
+    /**
+     * Creates the temporary file for the annotations.
+     *
+     * @throws IOException
+     *             if the file could not be created
+     */
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("annotations", ".bin");
+    }
+
+    /**
+     * Removes the temporary file.
+     */
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    /**
+     * Verifies that all properties of the annotations (including the properties
+     * of sub classes) survive a write and read cycle.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        List<FileAnnotation> expected = new ArrayList<FileAnnotation>();
+        Warning first = new Warning(Priority.HIGH, "First message", 10, "details");
+        first.setModuleName("module");
+        first.setPackageName("edu.hm");
+        first.setOrigin("origin");
+        first.setPathName("/workspace");
+        first.setContextHashCode(4711);
+        first.addLineRange(new LineRange(20, 25));
+        expected.add(first);
+        Warning second = new Warning(Priority.LOW, "Second message", 15, null);
+        expected.add(second);
+
+        BinaryAnnotationStorage storage = new BinaryAnnotationStorage(file, new AnnotationStream());
+        storage.write(expected);
+
+        FileAnnotation[] actual = new BinaryAnnotationStorage(file, new AnnotationStream()).read();
+
+        assertEquals("Wrong number of annotations", 2, actual.length);
+        for (int i = 0; i < actual.length; i++) {
+            Warning original = (Warning)expected.get(i);
+            Warning restored = (Warning)actual[i];
+
+            assertEquals("Wrong annotation", original, restored);
+            assertEquals("Wrong key", original.getKey(), restored.getKey());
+            assertEquals("Wrong context hash code", original.getContextHashCode(), restored.getContextHashCode());
+            assertEquals("Wrong origin", original.getOrigin(), restored.getOrigin());
+            assertEquals("Wrong path", original.getPathName(), restored.getPathName());
+            assertEquals("Wrong line ranges", new ArrayList<LineRange>(original.getLineRanges()),
+                    new ArrayList<LineRange>(restored.getLineRanges()));
+            assertEquals("Wrong details", original.getToolTip(), restored.getToolTip());
+            assertEquals("Wrong rank", original.rank, restored.rank);
+            assertSame("Wrong secondary priority", original.secondary, restored.secondary);
+        }
+    }
+
+    /**
+     * Verifies that an empty collection of annotations is stored.
+     *
+     * @throws IOException
+     *             in case of an error
+     */
+    @Test
+    public void testEmpty() throws IOException {
+        BinaryAnnotationStorage storage = new BinaryAnnotationStorage(file, new AnnotationStream());
+        storage.write(new ArrayList<FileAnnotation>());
+
+        assertTrue("File not written", storage.exists());
+        assertEquals("Wrong number of annotations", 0, storage.read().length);
+    }
+
+    /**
+     * Concrete warning for the test.
+     */
+    private static class Warning extends AbstractAnnotation {
+        private static final long serialVersionUID = 1L;
+
+        private final String details;
+        private final int rank;
+        private final Priority secondary;
+
+        /**
+         * Creates a new instance of {@link Warning}.
+         *
+         * @param priority
+         *            the priority
+         * @param message
+         *            the message
+         * @param line
+         *            the line
+         * @param details
+         *            the details
+         */
+        Warning(final Priority priority, final String message, final int line, final String details) {
+            super(priority, message, line, line, "Category", "Type");
+
+            setFileName(FILE_NAME);
+            this.details = details;
+            rank = line * 2;
+            secondary = Priority.NORMAL;
+        }
+
+        /** {@inheritDoc} */
+        public String getToolTip() {
+            return details;
+        }
+    }
+}
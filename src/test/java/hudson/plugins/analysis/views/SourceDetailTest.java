@@ -2,15 +2,22 @@ package hudson.plugins.analysis.views;
 
 import static org.easymock.EasyMock.*;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.LineIterator;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -107,6 +114,188 @@ public class SourceDetailTest {
         split("ExpectedRendering-2-Ranges.html", lineRanges);
     }
 
+    /**
+     * Checks whether the source written to a stream is the same as the
+     * source that is split in memory.
+     *
+     * @throws IOException in case of an IO error
+     */
+    @Test
+    public void writeSourceCode() throws IOException {
+        File file = File.createTempFile("source", ".tmp");
+        try {
+            InputStream stream = SourceDetailTest.class.getResourceAsStream("AbortException.txt");
+            try {
+                FileUtils.writeByteArrayToFile(file, IOUtils.toByteArray(stream));
+            }
+            finally {
+                IOUtils.closeQuietly(stream);
+            }
+            ArrayList<LineRange> lineRanges = new ArrayList<LineRange>();
+            lineRanges.add(new LineRange(1, 4));
+            lineRanges.add(new LineRange(14, 20));
+
+            FileAnnotation annotation = createMock(FileAnnotation.class);
+            expect(annotation.getLineRanges()).andReturn(lineRanges).anyTimes();
+            expect(annotation.getFileName()).andReturn("").anyTimes();
+            expect(annotation.getTempName((AbstractBuild<?, ?>)anyObject())).andReturn(file.getAbsolutePath()).anyTimes();
+            expect(annotation.getMessage()).andReturn("Message ").anyTimes();
+            expect(annotation.getToolTip()).andReturn("Tooltip").anyTimes();
+            replay(annotation);
+
+            StringWriter writer = new StringWriter();
+            new SourceDetail(null, annotation, null).writeSourceCode(writer);
+
+            SourceDetail source = new SourceDetail(null, annotation, null);
+            InputStream input = new FileInputStream(file);
+            try {
+                source.splitSourceFile(source.highlightSource(input));
+            }
+            finally {
+                IOUtils.closeQuietly(input);
+            }
+
+            Assert.assertEquals("Wrong source code", source.getSourceCode(), writer.toString());
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Checks whether a range that starts before the first line shows only the
+     * message, like the previous implementation.
+     *
+     * @throws IOException in case of an IO error
+     */
+    @Test
+    public void splitRangeBeforeFirstLine() throws IOException {
+        ArrayList<LineRange> lineRanges = new ArrayList<LineRange>();
+        lineRanges.add(new LineRange(0) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public int getEnd() {
+                return 5;
+            }
+        });
+        lineRanges.add(new LineRange(14, 20));
+        compareWithPreviousImplementation(lineRanges);
+    }
+
+    /**
+     * Checks whether overlapping ranges are rendered like in the previous
+     * implementation.
+     *
+     * @throws IOException in case of an IO error
+     */
+    @Test
+    public void splitOverlappingRanges() throws IOException {
+        ArrayList<LineRange> lineRanges = new ArrayList<LineRange>();
+        lineRanges.add(new LineRange(5, 12));
+        lineRanges.add(new LineRange(3, 8));
+        lineRanges.add(new LineRange(10, 20));
+        lineRanges.add(new LineRange(0));
+        compareWithPreviousImplementation(lineRanges);
+    }
+
+    private void compareWithPreviousImplementation(final List<LineRange> lineRanges) throws IOException {
+        FileAnnotation annotation = createMock(FileAnnotation.class);
+        expect(annotation.getLineRanges()).andReturn(lineRanges).anyTimes();
+        expect(annotation.getFileName()).andReturn("").anyTimes();
+        expect(annotation.getMessage()).andReturn("Message ").anyTimes();
+        expect(annotation.getToolTip()).andReturn("Tooltip").anyTimes();
+        replay(annotation);
+
+        SourceDetail source = new SourceDetail(null, annotation, null);
+        InputStream stream = SourceDetailTest.class.getResourceAsStream("AbortException.txt");
+        String highlighted;
+        try {
+            highlighted = source.highlightSource(stream);
+        }
+        finally {
+            IOUtils.closeQuietly(stream);
+        }
+        source.splitSourceFile(highlighted);
+
+        Assert.assertEquals("Wrong source code", splitLikeBefore(highlighted, annotation), source.getSourceCode());
+    }
+
+    /**
+     * The previous implementation of {@link SourceDetail#splitSourceFile(String)}.
+     *
+     * @param sourceFile
+     *            the highlighted source file
+     * @param annotation
+     *            the annotation to mark
+     * @return the split source file
+     */
+    // CHECKSTYLE:CONSTANTS-OFF
+    private String splitLikeBefore(final String sourceFile, final FileAnnotation annotation) {
+        StringBuilder output = new StringBuilder(sourceFile.length());
+
+        LineIterator lineIterator = IOUtils.lineIterator(new StringReader(sourceFile));
+        int lineNumber = 1;
+
+        try {
+            while (lineNumber < SourceDetail.SOURCE_GENERATOR_OFFSET) {
+                copyLine(output, lineIterator);
+                lineNumber++;
+            }
+            lineNumber = 1;
+            boolean isFirstRange = true;
+            for (LineRange range : annotation.getLineRanges()) {
+                while (lineNumber < range.getStart()) {
+                    copyLine(output, lineIterator);
+                    lineNumber++;
+                }
+                output.append("</code>\n");
+                output.append("</td></tr>\n");
+                output.append("<tr><td bgcolor=\"");
+                output.append(isFirstRange ? "#FCAF3E" : "#FCE94F");
+                output.append("\">\n");
+                output.append("<div tooltip=\"");
+                if (range.getStart() > 0) {
+                    output.append(StringEscapeUtils.escapeHtml(annotation.getMessage()));
+                }
+                output.append(StringEscapeUtils.escapeHtml(annotation.getToolTip()));
+                output.append("\" nodismiss=\"\">\n");
+                output.append("<code><b>\n");
+                if (range.getStart() <= 0) {
+                    output.append(annotation.getMessage());
+                    if (StringUtils.isBlank(annotation.getMessage())) {
+                        output.append(annotation.getToolTip());
+                    }
+                }
+                else {
+                    while (lineNumber <= range.getEnd()) {
+                        copyLine(output, lineIterator);
+                        lineNumber++;
+                    }
+                }
+                output.append("</b></code>\n");
+                output.append("</div>\n");
+                output.append("</td></tr>\n");
+                output.append("<tr><td>\n");
+                output.append("<code>\n");
+                isFirstRange = false;
+            }
+            while (lineIterator.hasNext()) {
+                copyLine(output, lineIterator);
+            }
+        }
+        catch (NoSuchElementException exception) {
+            // ignore an illegal range
+        }
+        return output.toString();
+    }
+    // CHECKSTYLE:CONSTANTS-ON
+
+    private void copyLine(final StringBuilder output, final LineIterator lineIterator) {
+        output.append(lineIterator.nextLine());
+        output.append("\n");
+    }
+
     /**
      * Checks whether we correctly split the source into prefix, warning and
      * suffix.